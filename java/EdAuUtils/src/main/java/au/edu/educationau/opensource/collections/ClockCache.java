@@ -0,0 +1,216 @@
+package au.edu.educationau.opensource.collections;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread safe cache bounded by its number of entries, for small caches read by many threads.
+ *
+ * Eviction uses the CLOCK (second chance) approximation of LRU: a read only sets a flag on the
+ * entry, so reads never lock or reorder anything and do not contend with each other. When the
+ * cache is full, entries are examined oldest first; an entry read since it was last examined has
+ * its flag cleared and goes to the back of the queue, and the first one which was not is evicted.
+ *
+ * Unlike {@link SegmentedLruCache}, the whole capacity is shared by all keys, so it suits caches
+ * too small to split into stripes.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class ClockCache<K, V> {
+
+	private static final class Node<K, V> {
+		final K key;
+		volatile V value;
+		volatile boolean referenced;
+		// set once the node has left the map, after which it is skipped by the clock
+		volatile boolean removed;
+
+		Node(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<K, Node<K, V>>();
+	private final ConcurrentLinkedQueue<Node<K, V>> clock = new ConcurrentLinkedQueue<Node<K, V>>();
+	private final AtomicInteger size = new AtomicInteger();
+	// removed nodes still in the clock queue
+	private final AtomicInteger removedInClock = new AtomicInteger();
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private volatile int maxEntries;
+
+	// no hit or miss counts, which would make every read write to one shared counter
+	private final AtomicLong evictions = new AtomicLong();
+
+	public ClockCache(int maxEntries) {
+		setMaxEntries(maxEntries);
+	}
+
+	public V get(K key) {
+		Node<K, V> node = map.get(key);
+		if (node == null) {
+			return null;
+		}
+		// only write when it changes, so hot entries do not bounce between caches
+		if (!node.referenced) {
+			node.referenced = true;
+		}
+		return node.value;
+	}
+
+	public void put(K key, V value) {
+		while (true) {
+			Node<K, V> existing = map.get(key);
+			if (existing != null) {
+				existing.value = value;
+				existing.referenced = true;
+				if (!existing.removed) {
+					return;
+				}
+				// removed meanwhile, so the value may have been lost with it; add a new node
+				map.remove(key, existing);
+			} else {
+				Node<K, V> node = new Node<K, V>(key, value);
+				if (map.putIfAbsent(key, node) == null) {
+					clock.offer(node);
+					if (size.incrementAndGet() > maxEntries) {
+						evict();
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	public V remove(K key) {
+		Node<K, V> node = map.remove(key);
+		if (node == null) {
+			return null;
+		}
+		markRemoved(node);
+		if (removedInClock.get() > maxEntries) {
+			purgeRemoved();
+		}
+		return node.value;
+	}
+
+	public void clear() {
+		for (K key : map.keySet()) {
+			remove(key);
+		}
+	}
+
+	private void markRemoved(Node<K, V> node) {
+		node.removed = true;
+		size.decrementAndGet();
+		removedInClock.incrementAndGet();
+	}
+
+	private void evict() {
+		evictionLock.lock();
+		try {
+			while (size.get() > maxEntries) {
+				Node<K, V> node = clock.poll();
+				if (node == null) {
+					return;
+				}
+				if (node.removed) {
+					removedInClock.decrementAndGet();
+				} else if (node.referenced) {
+					// second chance
+					node.referenced = false;
+					clock.offer(node);
+				} else if (map.remove(node.key, node)) {
+					node.removed = true;
+					size.decrementAndGet();
+					evictions.incrementAndGet();
+				} else {
+					// removed meanwhile, and counted by remove() as still in the clock queue, which
+					// it no longer is
+					removedInClock.decrementAndGet();
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Drops removed nodes from the clock queue, which only happens when they are examined for
+	 * eviction, so it does not grow without bound when entries are removed rather than evicted.
+	 */
+	private void purgeRemoved() {
+		if (!evictionLock.tryLock()) {
+			return;
+		}
+		try {
+			for (Iterator<Node<K, V>> it = clock.iterator(); it.hasNext();) {
+				if (it.next().removed) {
+					it.remove();
+					removedInClock.decrementAndGet();
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * @return how many removed nodes are in the clock queue, by the count kept for purging
+	 */
+	int getRemovedInClock() {
+		return removedInClock.get();
+	}
+
+	/**
+	 * @return how many removed nodes are in the clock queue, by walking it; for tests
+	 */
+	int countRemovedInClock() {
+		int count = 0;
+		for (Node<K, V> node : clock) {
+			if (node.removed) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Sets the capacity, evicting entries straight away if the cache is now over it.
+	 */
+	public void setMaxEntries(int maxEntries) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		if (size.get() > maxEntries) {
+			evict();
+		}
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	public void resetStatistics() {
+		evictions.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " size = " + size() + "/" + maxEntries;
+	}
+}
@@ -0,0 +1,300 @@
+package au.edu.educationau.opensource.collections;
+
+import java.lang.reflect.Array;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread safe cache bounded by the total weight of its values.
+ *
+ * Eviction uses a segmented LRU policy: new entries go into a probation segment, and are promoted
+ * to a protected segment (at most 80% of the capacity) when they are read again. Entries are
+ * evicted from the least recently used end of the probation segment first, so a burst of
+ * one-off entries cannot flush out the entries which are actually being reused.
+ *
+ * Keys are spread over a number of independently locked stripes, each of which owns an equal
+ * share of the capacity, so lookups of different keys rarely contend.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class SegmentedLruCache<K, V> {
+	private static final int MAX_STRIPES = 16;
+	private static final int MIN_STRIPE_WEIGHT = 32;
+	private static final int PROTECTED_PERCENT = 80;
+
+	/**
+	 * Calculates the weight of a value. Weights must be positive and must not change while the
+	 * value is in the cache.
+	 */
+	public interface Weigher<V> {
+		public int weigh(V value);
+	}
+
+	private static final class Node<V> {
+		final V value;
+		final int weight;
+
+		Node(V value, int weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	private final class Stripe {
+		final ReentrantLock lock = new ReentrantLock();
+		// both access ordered, eldest entry is the least recently used
+		final LinkedHashMap<K, Node<V>> probation = new LinkedHashMap<K, Node<V>>(16, 0.75F, true);
+		final LinkedHashMap<K, Node<V>> protectedEntries = new LinkedHashMap<K, Node<V>>(16, 0.75F, true);
+		final long maxWeight;
+		final long maxProtectedWeight;
+		long probationWeight;
+		long protectedWeight;
+
+		Stripe(long maxWeight) {
+			this.maxWeight = maxWeight;
+			this.maxProtectedWeight = maxWeight * PROTECTED_PERCENT / 100;
+		}
+
+		V get(K key) {
+			Node<V> node = protectedEntries.get(key);
+			if (node != null) {
+				return node.value;
+			}
+			node = probation.remove(key);
+			if (node == null) {
+				return null;
+			}
+			// second hit, promote
+			probationWeight -= node.weight;
+			protectedEntries.put(key, node);
+			protectedWeight += node.weight;
+			while (protectedWeight > maxProtectedWeight && protectedEntries.size() > 1) {
+				Iterator<Map.Entry<K, Node<V>>> it = protectedEntries.entrySet().iterator();
+				Map.Entry<K, Node<V>> eldest = it.next();
+				it.remove();
+				protectedWeight -= eldest.getValue().weight;
+				probation.put(eldest.getKey(), eldest.getValue());
+				probationWeight += eldest.getValue().weight;
+			}
+			return node.value;
+		}
+
+		void put(K key, Node<V> node) {
+			remove(key);
+			probation.put(key, node);
+			probationWeight += node.weight;
+			while (probationWeight + protectedWeight > maxWeight) {
+				// never evict the entry just added unless there is nothing else
+				if (probation.size() > 1 || protectedEntries.isEmpty()) {
+					probationWeight -= removeEldest(probation);
+				} else {
+					protectedWeight -= removeEldest(protectedEntries);
+				}
+				evictions.incrementAndGet();
+			}
+		}
+
+		Node<V> remove(K key) {
+			Node<V> node = probation.remove(key);
+			if (node != null) {
+				probationWeight -= node.weight;
+				return node;
+			}
+			node = protectedEntries.remove(key);
+			if (node != null) {
+				protectedWeight -= node.weight;
+			}
+			return node;
+		}
+
+		void clear() {
+			probation.clear();
+			protectedEntries.clear();
+			probationWeight = 0;
+			protectedWeight = 0;
+		}
+
+		private int removeEldest(LinkedHashMap<K, Node<V>> segment) {
+			Iterator<Node<V>> it = segment.values().iterator();
+			Node<V> eldest = it.next();
+			it.remove();
+			return eldest.weight;
+		}
+	}
+
+	private final Stripe[] stripes;
+	private final int mask;
+	private final long maxWeight;
+	private final Weigher<? super V> weigher;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Creates a cache holding at most maxEntries entries.
+	 */
+	public SegmentedLruCache(long maxEntries) {
+		this(maxEntries, new Weigher<V>() {
+			public int weigh(V value) {
+				return 1;
+			}
+		});
+	}
+
+	public SegmentedLruCache(long maxWeight, Weigher<? super V> weigher) {
+		if (maxWeight <= 0) {
+			throw new IllegalArgumentException("maxWeight must be positive: " + maxWeight);
+		}
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+
+		// small caches get fewer stripes, otherwise each stripe's share becomes uselessly small
+		int count = 1;
+		while (count < MAX_STRIPES && maxWeight / (count * 2) >= MIN_STRIPE_WEIGHT) {
+			count <<= 1;
+		}
+		stripes = newStripes(count);
+		for (int i = 0; i < count; i++) {
+			// spread any remainder over the first stripes so the total is exactly maxWeight
+			stripes[i] = new Stripe(maxWeight / count + (i < maxWeight % count ? 1 : 0));
+		}
+		mask = count - 1;
+	}
+
+	/**
+	 * Stripe is an inner class of a generic class, so its arrays cannot be created directly.
+	 */
+	@SuppressWarnings("unchecked")
+	private Stripe[] newStripes(int count) {
+		return (Stripe[]) Array.newInstance(SegmentedLruCache.Stripe.class, count);
+	}
+
+	private Stripe stripeFor(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return stripes[h & mask];
+	}
+
+	public V get(K key) {
+		Stripe stripe = stripeFor(key);
+		V value;
+		stripe.lock.lock();
+		try {
+			value = stripe.get(key);
+		} finally {
+			stripe.lock.unlock();
+		}
+		if (value == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return value;
+	}
+
+	/**
+	 * Adds or replaces an entry. A value heavier than a whole stripe's share of the capacity is
+	 * not cached at all, and any previous value for the key is removed.
+	 */
+	public void put(K key, V value) {
+		if (key == null || value == null) {
+			throw new NullPointerException("Keys and values cannot be null");
+		}
+		int weight = weigher.weigh(value);
+		if (weight <= 0) {
+			throw new IllegalArgumentException("Weight must be positive: " + weight);
+		}
+		Stripe stripe = stripeFor(key);
+		stripe.lock.lock();
+		try {
+			if (weight > stripe.maxWeight) {
+				stripe.remove(key);
+			} else {
+				stripe.put(key, new Node<V>(value, weight));
+			}
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	public V remove(K key) {
+		Stripe stripe = stripeFor(key);
+		stripe.lock.lock();
+		try {
+			Node<V> node = stripe.remove(key);
+			return node == null ? null : node.value;
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	public void clear() {
+		for (Stripe stripe : stripes) {
+			stripe.lock.lock();
+			try {
+				stripe.clear();
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			stripe.lock.lock();
+			try {
+				size += stripe.probation.size() + stripe.protectedEntries.size();
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+		return size;
+	}
+
+	public long getWeightedSize() {
+		long weight = 0;
+		for (Stripe stripe : stripes) {
+			stripe.lock.lock();
+			try {
+				weight += stripe.probationWeight + stripe.protectedWeight;
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+		return weight;
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " size = " + size() + " weight = " + getWeightedSize() + "/" + maxWeight;
+	}
+}
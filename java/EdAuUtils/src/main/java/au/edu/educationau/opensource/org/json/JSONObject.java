@@ -1223,46 +1223,68 @@ public class JSONObject {
         }
 
         /*
-         * If it might be a number, try converting it. We support the 0- and 0x-
-         * conventions. If a number cannot be produced, then the value will just
-         * be a string. Note that the 0-, 0x-, plus, and implied string
-         * conventions are non-standard. A JSON parser is free to accept
-         * non-JSON forms as long as it accepts all correct JSON forms.
+         * If it might be a number, try converting it. Plain decimal numbers
+         * are converted by JSONTokener.scanNumber, and the rarer forms are
+         * left to otherNumberToValue.
          */
 
         char b = s.charAt(0);
         if ((b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+') {
-            if (b == '0') {
-                if (s.length() > 2 &&
-                        (s.charAt(1) == 'x' || s.charAt(1) == 'X')) {
-                    try {
-                        return new Integer(Integer.parseInt(s.substring(2),
-                                16));
-                    } catch (Exception e) {
-                        /* Ignore the error */
-                    }
-                } else {
-                    try {
-                        return new Integer(Integer.parseInt(s, 8));
-                    } catch (Exception e) {
-                        /* Ignore the error */
-                    }
+            Object number = JSONTokener.scanNumber(s.toCharArray(), 0,
+                    s.length());
+            if (number == JSONTokener.OTHER_NUMBER_FORM) {
+                return otherNumberToValue(s);
+            }
+            if (number != null) {
+                return number;
+            }
+        }
+        return s;
+    }
+
+
+    /**
+     * Try to convert a string which JSONTokener.scanNumber did not decide
+     * into a number. We support the 0- and 0x- conventions. If a number
+     * cannot be produced, then the value will just be a string. Note that
+     * the 0-, 0x-, plus, and implied string conventions are non-standard. A
+     * JSON parser is free to accept non-JSON forms as long as it accepts all
+     * correct JSON forms.
+     * @param s A String beginning with a digit, '.', '-' or '+'.
+     * @return A Number, or the string.
+     */
+    static Object otherNumberToValue(String s) {
+        char b = s.charAt(0);
+        if (b == '0') {
+            if (s.length() > 2 &&
+                    (s.charAt(1) == 'x' || s.charAt(1) == 'X')) {
+                try {
+                    return Integer.valueOf(Integer.parseInt(s.substring(2),
+                            16));
+                } catch (Exception e) {
+                    /* Ignore the error */
+                }
+            } else {
+                try {
+                    return Integer.valueOf(Integer.parseInt(s, 8));
+                } catch (Exception e) {
+                    /* Ignore the error */
                 }
             }
-            try {
-                if (s.indexOf('.') > -1 || s.indexOf('e') > -1 || s.indexOf('E') > -1) {
-                    return Double.valueOf(s);
+        }
+        try {
+            if (s.indexOf('.') > -1 || s.indexOf('e') > -1 || s.indexOf('E') > -1) {
+                return Double.valueOf(s);
+            } else {
+                long myLong = Long.parseLong(s);
+                if (myLong == (int) myLong) {
+                    return Integer.valueOf((int) myLong);
                 } else {
-                    Long myLong = new Long(s);
-                    if (myLong.longValue() == myLong.intValue()) {
-                        return new Integer(myLong.intValue());
-                    } else {
-                        return myLong;
-                    }
+                    return Long.valueOf(myLong);
                 }
-            }  catch (Exception f) {
-                /* Ignore the error */
             }
+        }  catch (Exception f) {
+            /* Ignore the error */
         }
         return s;
     }
@@ -0,0 +1,604 @@
+package au.edu.educationau.opensource.org.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * A JSONPullParser reads JSON text as a series of events, in the manner of
+ * StAX, instead of building a tree of JSONObjects and JSONArrays. It reads
+ * through its own buffer, so its memory use depends on the nesting depth and
+ * the longest string in the text, not on the size of the text. Values which
+ * are not wanted can be passed over with skipChildren(), and those which are
+ * can be built with readValue().
+ * <pre>
+ * JSONPullParser parser = new JSONPullParser(reader);
+ * int event;
+ * while ((event = parser.next()) != JSONPullParser.END_DOCUMENT) {
+ *     if (event == JSONPullParser.KEY &amp;&amp; !parser.getString().equals("items")) {
+ *         parser.next();
+ *         parser.skipChildren();
+ *     }
+ *     ...
+ * }
+ * </pre>
+ * It accepts the same non-standard forms as JSONTokener (single quoted and
+ * unquoted strings, '=' and '=>' after keys, ';' between values), except
+ * that '(' does not begin an array and ',,' is not an implied null.
+ */
+public class JSONPullParser {
+
+    public static final int START_OBJECT = 1;
+    public static final int END_OBJECT = 2;
+    public static final int START_ARRAY = 3;
+    public static final int END_ARRAY = 4;
+    public static final int KEY = 5;
+    public static final int VALUE_STRING = 6;
+    public static final int VALUE_NUMBER = 7;
+    public static final int VALUE_TRUE = 8;
+    public static final int VALUE_FALSE = 9;
+    public static final int VALUE_NULL = 10;
+    public static final int END_DOCUMENT = 11;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /*
+     * What is expected next in each open object or array.
+     */
+    private static final byte OBJECT_START = 0; // a key or '}'
+    private static final byte OBJECT_KEY = 1;   // ':' and a value
+    private static final byte OBJECT_VALUE = 2; // ',' or '}'
+    private static final byte ARRAY_START = 3;  // a value or ']'
+    private static final byte ARRAY_VALUE = 4;  // ',' or ']'
+
+    private final Reader reader;
+    private final char[] buffer;
+    private int position;
+    private int limit;
+    private long consumed;
+    private byte[] stack = new byte[32];
+    private int depth;
+    private boolean started;
+    private int event;
+    private String string;
+    private Object value;
+    private final StringBuilder sb = new StringBuilder();
+
+
+    /**
+     * Construct a JSONPullParser from a reader. The reader is read in blocks,
+     * so it need not be buffered.
+     *
+     * @param reader     A reader.
+     */
+    public JSONPullParser(Reader reader) {
+        this.reader = reader;
+        this.buffer = new char[BUFFER_SIZE];
+    }
+
+
+    /**
+     * Construct a JSONPullParser from a string.
+     *
+     * @param s     A source string.
+     */
+    public JSONPullParser(String s) {
+        this(new StringReader(s));
+    }
+
+
+    /**
+     * Advance to the next event.
+     *
+     * @return The event, one of the constants of this class. END_DOCUMENT is
+     *  returned once the value has been read, and from then on.
+     * @throws JSONException If the text is not valid JSON, or it could not
+     *  be read.
+     */
+    public int next() throws JSONException {
+        if (event == END_DOCUMENT) {
+            return END_DOCUMENT;
+        }
+        this.string = null;
+        this.value = null;
+        int c = nextClean();
+        if (depth == 0) {
+            if (started) {
+                if (c != -1) {
+                    throw syntaxError("Expected the end of the text");
+                }
+                return event = END_DOCUMENT;
+            }
+            started = true;
+            return event = startValue(c);
+        }
+
+        int top = depth - 1;
+        switch (stack[top]) {
+        case OBJECT_VALUE:
+            return event = nextKey(top, afterValue(c, '}'));
+        case OBJECT_START:
+            return event = nextKey(top, c);
+        case OBJECT_KEY:
+            if (c == '=') {
+                if (position < limit || fill()) {
+                    if (buffer[position] == '>') {
+                        position++;
+                    }
+                }
+            } else if (c != ':') {
+                throw syntaxError("Expected a ':' after a key");
+            }
+            stack[top] = OBJECT_VALUE;
+            return event = startValue(nextClean());
+        case ARRAY_VALUE:
+            return event = nextElement(top, afterValue(c, ']'));
+        default:
+            return event = nextElement(top, c);
+        }
+    }
+
+
+    /**
+     * Skip the separator after a value in an object or array.
+     *
+     * @param c The first character after the value.
+     * @param close The character which ends the object or array.
+     * @return The first character after the separator, or the close.
+     */
+    private int afterValue(int c, char close) throws JSONException {
+        if (c == ',' || c == ';') {
+            return nextClean();
+        }
+        if (c != close) {
+            throw syntaxError("Expected a ',' or '" + close + "'");
+        }
+        return c;
+    }
+
+
+    /**
+     * Read the next key of an object, or its end.
+     */
+    private int nextKey(int top, int c) throws JSONException {
+        if (c == '}') {
+            depth--;
+            return END_OBJECT;
+        }
+        if (c == -1) {
+            throw syntaxError("A JSONObject text must end with '}'");
+        }
+        this.string = (c == '"' || c == '\'') ?
+                readString((char) c) : readUnquoted(c);
+        stack[top] = OBJECT_KEY;
+        return KEY;
+    }
+
+
+    /**
+     * Start the next element of an array, or read its end.
+     */
+    private int nextElement(int top, int c) throws JSONException {
+        if (c == ']') {
+            depth--;
+            return END_ARRAY;
+        }
+        stack[top] = ARRAY_VALUE;
+        return startValue(c);
+    }
+
+
+    /**
+     * Get the current event, which is 0 before the first call to next().
+     */
+    public int getEvent() {
+        return event;
+    }
+
+
+    /**
+     * Get the number of objects and arrays the parser is inside. At a
+     * START_OBJECT or START_ARRAY event that includes the one just started.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+
+    /**
+     * Get the text of the current key or value. For VALUE_NUMBER,
+     * VALUE_TRUE, VALUE_FALSE and VALUE_NULL this is the text as written.
+     *
+     * @return The text, or null for other events.
+     */
+    public String getString() {
+        return string;
+    }
+
+
+    /**
+     * Get the current value as JSONObject would hold it: a String, Boolean,
+     * Integer, Long, Double or JSONObject.NULL.
+     *
+     * @return The value, or null if the current event is not a value.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+
+    /**
+     * Get the current number value.
+     *
+     * @throws JSONException If the current event is not VALUE_NUMBER.
+     */
+    public Number getNumber() throws JSONException {
+        if (event != VALUE_NUMBER) {
+            throw new JSONException("Not a number");
+        }
+        return (Number) value;
+    }
+
+
+    /**
+     * Get the current boolean value.
+     *
+     * @throws JSONException If the current event is not VALUE_TRUE or
+     *  VALUE_FALSE.
+     */
+    public boolean getBoolean() throws JSONException {
+        if (event != VALUE_TRUE && event != VALUE_FALSE) {
+            throw new JSONException("Not a boolean");
+        }
+        return event == VALUE_TRUE;
+    }
+
+
+    /**
+     * Skip to the end of the object or array started by the current event,
+     * without building any of its contents. The text inside it is only
+     * checked for matching brackets and terminated strings. Does nothing if
+     * the current event is not START_OBJECT or START_ARRAY.
+     *
+     * @throws JSONException If the text ends first, or could not be read.
+     */
+    public void skipChildren() throws JSONException {
+        if (event != START_OBJECT && event != START_ARRAY) {
+            return;
+        }
+        int nesting = 1;
+        char last = '{';
+        while (nesting > 0) {
+            if (position == limit && !fill()) {
+                throw syntaxError(event == START_OBJECT ?
+                        "A JSONObject text must end with '}'" :
+                        "A JSONArray text must end with ']'");
+            }
+            char c = buffer[position++];
+            switch (c) {
+            case '{':
+            case '[':
+                nesting++;
+                break;
+            case '}':
+            case ']':
+                nesting--;
+                break;
+            case '"':
+                skipString(c);
+                break;
+            case '\'':
+
+                /*
+                 * A single quote only starts a string where a value or key
+                 * may start, otherwise it is part of unquoted text.
+                 */
+
+                if ("{[,:;=>".indexOf(last) >= 0) {
+                    skipString(c);
+                }
+                break;
+            }
+            if (c > ' ') {
+                last = c;
+            }
+        }
+        depth--;
+        this.string = null;
+        this.value = null;
+        event = event == START_OBJECT ? END_OBJECT : END_ARRAY;
+    }
+
+
+    /**
+     * Build the value started by the current event. For START_OBJECT or
+     * START_ARRAY, the whole object or array is read, leaving the parser at
+     * its END_OBJECT or END_ARRAY event.
+     *
+     * @return A JSONObject, JSONArray, String, Boolean, Number or
+     *  JSONObject.NULL.
+     * @throws JSONException If the current event does not start a value, or
+     *  the text is not valid JSON.
+     */
+    public Object readValue() throws JSONException {
+        switch (event) {
+        case START_OBJECT:
+            JSONObject object = new JSONObject();
+            while (next() != END_OBJECT) {
+                String key = string;
+                next();
+                object.putOnce(key, readValue());
+            }
+            return object;
+        case START_ARRAY:
+            JSONArray array = new JSONArray();
+            while (next() != END_ARRAY) {
+                array.put(readValue());
+            }
+            return array;
+        case VALUE_STRING:
+        case VALUE_NUMBER:
+        case VALUE_TRUE:
+        case VALUE_FALSE:
+        case VALUE_NULL:
+            return value;
+        default:
+            throw new JSONException("No value starts at the current event");
+        }
+    }
+
+
+    /**
+     * Close the underlying reader.
+     */
+    public void close() throws JSONException {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+
+    /**
+     * Make a JSONException to signal a syntax error.
+     *
+     * @param message The error message.
+     * @return  A JSONException object, suitable for throwing
+     */
+    public JSONException syntaxError(String message) {
+        return new JSONException(message + toString());
+    }
+
+
+    /**
+     * Make a printable string of this JSONPullParser.
+     *
+     * @return " at character [index]"
+     */
+    public String toString() {
+        return " at character " + (consumed + position);
+    }
+
+
+    private int startValue(int c) throws JSONException {
+        switch (c) {
+        case -1:
+            throw syntaxError("Missing value");
+        case '{':
+            push(OBJECT_START);
+            return START_OBJECT;
+        case '[':
+            push(ARRAY_START);
+            return START_ARRAY;
+        case '"':
+        case '\'':
+            this.string = readString((char) c);
+            this.value = this.string;
+            return VALUE_STRING;
+        }
+        this.string = readUnquoted(c);
+        this.value = JSONObject.stringToValue(this.string);
+        if (value instanceof Number) {
+            return VALUE_NUMBER;
+        } else if (value == Boolean.TRUE) {
+            return VALUE_TRUE;
+        } else if (value == Boolean.FALSE) {
+            return VALUE_FALSE;
+        } else if (value == JSONObject.NULL) {
+            return VALUE_NULL;
+        }
+        return VALUE_STRING;
+    }
+
+
+    private void push(byte state) {
+        if (depth == stack.length) {
+            byte[] bigger = new byte[depth * 2];
+            System.arraycopy(stack, 0, bigger, 0, depth);
+            stack = bigger;
+        }
+        stack[depth++] = state;
+    }
+
+
+    /**
+     * Refill the buffer.
+     *
+     * @return false at the end of the text.
+     */
+    private boolean fill() throws JSONException {
+        consumed += limit;
+        position = 0;
+        limit = 0;
+        int n;
+        try {
+            do {
+                n = reader.read(buffer, 0, buffer.length);
+            } while (n == 0);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        if (n < 0) {
+            return false;
+        }
+        limit = n;
+        return true;
+    }
+
+
+    private int read() throws JSONException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+
+    /**
+     * Get the next character which is not whitespace.
+     *
+     * @return The character, or -1 at the end of the text.
+     */
+    private int nextClean() throws JSONException {
+        for (;;) {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            char c = buffer[position++];
+            if (c > ' ') {
+                return c;
+            }
+        }
+    }
+
+
+    /**
+     * Read a string up to its closing quote. Runs of plain characters are
+     * copied from the buffer in one go.
+     */
+    private String readString(char quote) throws JSONException {
+        sb.setLength(0);
+        for (;;) {
+            int start = position;
+            while (position < limit) {
+                char c = buffer[position];
+                if (c == quote) {
+                    String s;
+                    if (sb.length() == 0) {
+                        s = new String(buffer, start, position - start);
+                    } else {
+                        sb.append(buffer, start, position - start);
+                        s = sb.toString();
+                    }
+                    position++;
+                    return s;
+                }
+                if (c == '\\' || c == '\n' || c == '\r') {
+                    break;
+                }
+                position++;
+            }
+            sb.append(buffer, start, position - start);
+
+            int c = read();
+            switch (c) {
+            case -1:
+            case '\n':
+            case '\r':
+                throw syntaxError("Unterminated string");
+            case '\\':
+                readEscape();
+                break;
+            default:
+                if (c == quote) {
+                    return sb.toString();
+                }
+                sb.append((char) c);
+            }
+        }
+    }
+
+
+    private void readEscape() throws JSONException {
+        int c = read();
+        switch (c) {
+        case 'b':
+            sb.append('\b');
+            break;
+        case 't':
+            sb.append('\t');
+            break;
+        case 'n':
+            sb.append('\n');
+            break;
+        case 'f':
+            sb.append('\f');
+            break;
+        case 'r':
+            sb.append('\r');
+            break;
+        case 'u':
+            int u = 0;
+            for (int i = 0; i < 4; i++) {
+                int h = read();
+                int digit = h < 0 ? -1 : JSONTokener.dehexchar((char) h);
+                if (digit < 0) {
+                    throw syntaxError("Illegal escape.");
+                }
+                u = (u << 4) | digit;
+            }
+            sb.append((char) u);
+            break;
+        case '"':
+        case '\'':
+        case '\\':
+        case '/':
+            sb.append((char) c);
+            break;
+        default:
+            throw syntaxError("Illegal escape.");
+        }
+    }
+
+
+    private void skipString(char quote) throws JSONException {
+        for (;;) {
+            if (position == limit && !fill()) {
+                throw syntaxError("Unterminated string");
+            }
+            char c = buffer[position++];
+            if (c == quote) {
+                return;
+            }
+            if (c == '\\') {
+                if (read() < 0) {
+                    throw syntaxError("Unterminated string");
+                }
+            } else if (c == '\n' || c == '\r') {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+
+    /**
+     * Read unquoted text, which could be the values true, false, or null, a
+     * number, or (non-standard) a string.
+     */
+    private String readUnquoted(int c) throws JSONException {
+        sb.setLength(0);
+        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+            sb.append((char) c);
+            c = read();
+        }
+        if (c >= 0) {
+            position--;
+        }
+        String s = sb.toString().trim();
+        if (s.length() == 0) {
+            throw syntaxError("Missing value");
+        }
+        return s;
+    }
+}
@@ -1,9 +1,7 @@
 package au.edu.educationau.opensource.org.json;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
-import java.io.StringReader;
 
 /*
 Copyright (c) 2002 JSON.org
@@ -33,27 +31,51 @@ SOFTWARE.
  * A JSONTokener takes a source string and extracts characters and tokens from
  * it. It is used by the JSONObject and JSONArray constructors to parse
  * JSON source strings.
+ * <p>
+ * Characters are read into a buffer in blocks (a source string is used as
+ * the buffer directly), and strings and unquoted values are scanned in the
+ * buffer and copied out in one piece where they have no escapes.
  * @author JSON.org
  * @version 2008-09-18
  */
 public class JSONTokener {
 
-    private int index;
-    private Reader reader;
-    private char lastChar;
-    private boolean useLastChar;
+    /**
+     * The number of characters back() is always able to step back over.
+     */
+    public static final int BACK_LIMIT = 64;
 
+    private static final int BUFFER_SIZE = 8192;
 
     /**
-     * Construct a JSONTokener from a string.
+     * Returned by scanNumber for text which may be a number in one of the
+     * non-standard forms.
+     */
+    static final Object OTHER_NUMBER_FORM = new Object();
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final Reader reader;
+    private char[] buffer;
+    private int position;
+    private int limit;
+    private int offset;
+    private int mark = -1;
+    private boolean eof;
+    private boolean pastEnd;
+
+
+    /**
+     * Construct a JSONTokener from a reader.
      *
      * @param reader     A reader.
      */
     public JSONTokener(Reader reader) {
-        this.reader = reader.markSupported() ? 
-        		reader : new BufferedReader(reader);
-        this.useLastChar = false;
-        this.index = 0;
+        this.reader = reader;
+        this.buffer = new char[BUFFER_SIZE];
     }
 
 
@@ -63,24 +85,77 @@ public class JSONTokener {
      * @param s     A source string.
      */
     public JSONTokener(String s) {
-        this(new StringReader(s));
+        this.reader = null;
+        this.buffer = s.toCharArray();
+        this.limit = this.buffer.length;
+        this.eof = true;
     }
 
 
     /**
      * Back up one character. This provides a sort of lookahead capability,
      * so that you can test for a digit or letter before attempting to parse
-     * the next number or identifier.
+     * the next number or identifier. It may be called again to back up
+     * further, over at least BACK_LIMIT characters.
      */
     public void back() throws JSONException {
-        if (useLastChar || index <= 0) {
-            throw new JSONException("Stepping back two steps is not supported");
+        if (this.pastEnd) {
+            this.pastEnd = false;
+            return;
+        }
+        if (this.position <= 0) {
+            throw new JSONException("Stepping back that far is not supported");
         }
-        index -= 1;
-        useLastChar = true;
+        this.position -= 1;
     }
 
 
+    /**
+     * Read more of the source into the buffer, keeping the last BACK_LIMIT
+     * characters consumed and everything from the mark on.
+     *
+     * @return false if there is no more to read.
+     */
+    private boolean fill() throws JSONException {
+        if (this.eof) {
+            return false;
+        }
+        int keep = Math.max(0, this.position - BACK_LIMIT);
+        if (this.mark >= 0 && this.mark < keep) {
+            keep = this.mark;
+        }
+        if (keep > 0) {
+            System.arraycopy(this.buffer, keep, this.buffer, 0,
+                    this.limit - keep);
+            this.offset += keep;
+            this.position -= keep;
+            this.limit -= keep;
+            if (this.mark >= 0) {
+                this.mark -= keep;
+            }
+        }
+        if (this.limit == this.buffer.length) {
+            char[] bigger = new char[this.buffer.length * 2];
+            System.arraycopy(this.buffer, 0, bigger, 0, this.limit);
+            this.buffer = bigger;
+        }
+        int n;
+        try {
+            do {
+                n = this.reader.read(this.buffer, this.limit,
+                        this.buffer.length - this.limit);
+            } while (n == 0);
+        } catch (IOException exc) {
+            throw new JSONException(exc);
+        }
+        if (n < 0) {
+            this.eof = true;
+            return false;
+        }
+        this.limit += n;
+        return true;
+    }
+
 
     /**
      * Get the hex value of a character (base16).
@@ -123,27 +198,12 @@ public class JSONTokener {
      * @return The next character, or 0 if past the end of the source string.
      */
     public char next() throws JSONException {
-        if (this.useLastChar) {
-        	this.useLastChar = false;
-            if (this.lastChar != 0) {
-            	this.index += 1;
-            }
-            return this.lastChar;
-        } 
-        int c;
-        try {
-            c = this.reader.read();
-        } catch (IOException exc) {
-            throw new JSONException(exc);
-        }
-
-        if (c <= 0) { // End of stream
-        	this.lastChar = 0;
+        if (this.position == this.limit && !fill()) {
+            this.pastEnd = true;
             return 0;
-        } 
-    	this.index += 1;
-    	this.lastChar = (char) c;
-        return this.lastChar;
+        }
+        this.pastEnd = false;
+        return this.buffer[this.position++];
     }
 
 
@@ -177,32 +237,19 @@ public class JSONTokener {
          if (n == 0) {
              return "";
          }
-
-         char[] buffer = new char[n];
-         int pos = 0;
-
-         if (this.useLastChar) {
-        	 this.useLastChar = false;
-             buffer[0] = this.lastChar;
-             pos = 1;
-         }
-
-         try {
-             int len;
-             while ((pos < n) && ((len = reader.read(buffer, pos, n - pos)) != -1)) {
-                 pos += len;
+         this.pastEnd = false;
+         this.mark = this.position;
+         while (this.limit - this.mark < n) {
+             if (!fill()) {
+                 this.mark = -1;
+                 this.position = this.limit;
+                 throw syntaxError("Substring bounds error");
              }
-         } catch (IOException exc) {
-             throw new JSONException(exc);
-         }
-         this.index += pos;
-
-         if (pos < n) {
-             throw syntaxError("Substring bounds error");
          }
-
-         this.lastChar = buffer[n - 1];
-         return new String(buffer);
+         String s = new String(this.buffer, this.mark, n);
+         this.position = this.mark + n;
+         this.mark = -1;
+         return s;
      }
 
 
@@ -213,8 +260,13 @@ public class JSONTokener {
      */
     public char nextClean() throws JSONException {
         for (;;) {
-            char c = next();
+            if (this.position == this.limit && !fill()) {
+                this.pastEnd = true;
+                return 0;
+            }
+            char c = this.buffer[this.position++];
             if (c == 0 || c > ' ') {
+                this.pastEnd = false;
                 return c;
             }
         }
@@ -233,51 +285,74 @@ public class JSONTokener {
      * @throws JSONException Unterminated string.
      */
     public String nextString(char quote) throws JSONException {
-        char c;
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = null;
         for (;;) {
-            c = next();
+
+            /*
+             * Scan the run of plain characters up to the quote or an escape,
+             * and take it from the buffer in one piece.
+             */
+
+            this.mark = this.position;
+            while (this.position < this.limit || fill()) {
+                char c = this.buffer[this.position];
+                if (c == quote || c == '\\' || c == '\n' || c == '\r' ||
+                        c == 0) {
+                    break;
+                }
+                this.position += 1;
+            }
+            int start = this.mark;
+            int length = this.position - start;
+            this.mark = -1;
+
+            char c = next();
             switch (c) {
             case 0:
             case '\n':
             case '\r':
                 throw syntaxError("Unterminated string");
-            case '\\':
-                c = next();
-                switch (c) {
-                case 'b':
-                    sb.append('\b');
-                    break;
-                case 't':
-                    sb.append('\t');
-                    break;
-                case 'n':
-                    sb.append('\n');
-                    break;
-                case 'f':
-                    sb.append('\f');
-                    break;
-                case 'r':
-                    sb.append('\r');
-                    break;
-                case 'u':
-                    sb.append((char)Integer.parseInt(next(4), 16));
-                    break;
-                case '"':
-                case '\'':
-                case '\\':
-                case '/':
-                	sb.append(c);
-                	break;
-                default:
-                    throw syntaxError("Illegal escape.");
+            }
+            if (c == quote) {
+                if (sb == null) {
+                    return new String(this.buffer, start, length);
                 }
+                sb.append(this.buffer, start, length);
+                return sb.toString();
+            }
+            if (sb == null) {
+                sb = new StringBuilder(length + 16);
+            }
+            sb.append(this.buffer, start, length);
+
+            c = next();
+            switch (c) {
+            case 'b':
+                sb.append('\b');
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'n':
+                sb.append('\n');
                 break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 'u':
+                sb.append((char)Integer.parseInt(next(4), 16));
+                break;
+            case '"':
+            case '\'':
+            case '\\':
+            case '/':
+            	sb.append(c);
+            	break;
             default:
-                if (c == quote) {
-                    return sb.toString();
-                }
-                sb.append(c);
+                throw syntaxError("Illegal escape.");
             }
         }
     }
@@ -290,17 +365,16 @@ public class JSONTokener {
      * @return   A string.
      */
     public String nextTo(char d) throws JSONException {
-        StringBuffer sb = new StringBuffer();
-        for (;;) {
-            char c = next();
+        this.pastEnd = false;
+        this.mark = this.position;
+        while (this.position < this.limit || fill()) {
+            char c = this.buffer[this.position];
             if (c == d || c == 0 || c == '\n' || c == '\r') {
-                if (c != 0) {
-                    back();
-                }
-                return sb.toString().trim();
+                break;
             }
-            sb.append(c);
+            this.position += 1;
         }
+        return takeMarked();
     }
 
 
@@ -311,19 +385,32 @@ public class JSONTokener {
      * @return A string, trimmed.
      */
     public String nextTo(String delimiters) throws JSONException {
-        char c;
-        StringBuffer sb = new StringBuffer();
-        for (;;) {
-            c = next();
+        this.pastEnd = false;
+        this.mark = this.position;
+        while (this.position < this.limit || fill()) {
+            char c = this.buffer[this.position];
             if (delimiters.indexOf(c) >= 0 || c == 0 ||
                     c == '\n' || c == '\r') {
-                if (c != 0) {
-                    back();
-                }
-                return sb.toString().trim();
+                break;
             }
-            sb.append(c);
+            this.position += 1;
         }
+        return takeMarked();
+    }
+
+
+    /**
+     * Take the text from the mark to the current position, trimmed. A 0
+     * character at the position is consumed, as the end of the source is.
+     */
+    private String takeMarked() {
+        String s = new String(this.buffer, this.mark,
+                this.position - this.mark).trim();
+        this.mark = -1;
+        if (this.position < this.limit && this.buffer[this.position] == 0) {
+            this.position += 1;
+        }
+        return s;
     }
 
 
@@ -336,7 +423,6 @@ public class JSONTokener {
      */
     public Object nextValue() throws JSONException {
         char c = nextClean();
-        String s;
 
         switch (c) {
             case '"':
@@ -360,18 +446,172 @@ public class JSONTokener {
          * formatting character.
          */
 
-        StringBuffer sb = new StringBuffer();
-        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
-            sb.append(c);
-            c = next();
+        if (c < ' ' || isFormattingChar(c)) {
+            back();
+            throw syntaxError("Missing value");
+        }
+        this.mark = this.position - 1;
+        while (this.position < this.limit || fill()) {
+            c = this.buffer[this.position];
+            if (c < ' ' || isFormattingChar(c)) {
+                break;
+            }
+            this.position += 1;
+        }
+        int start = this.mark;
+        int end = this.position;
+        this.mark = -1;
+        while (end > start && this.buffer[end - 1] <= ' ') {
+            end -= 1;
         }
-        back();
 
-        s = sb.toString().trim();
-        if (s.equals("")) {
-            throw syntaxError("Missing value");
+        /*
+         * Numbers are converted straight from the buffer.
+         */
+
+        c = this.buffer[start];
+        if ((c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+') {
+            Object number = scanNumber(this.buffer, start, end);
+            if (number == null) {
+                return new String(this.buffer, start, end - start);
+            }
+            if (number != OTHER_NUMBER_FORM) {
+                return number;
+            }
+        }
+        return JSONObject.stringToValue(
+                new String(this.buffer, start, end - start));
+    }
+
+
+    /**
+     * Convert text in the decimal number forms of JSON: an optional sign,
+     * digits, an optional fraction and an optional exponent, in a single
+     * pass, without exceptions. Text with up to 18 digits and no fraction or
+     * exponent becomes an Integer if it fits, otherwise a Long. Other numbers
+     * become a Double, computed directly where that is exact.
+     * @param chars The characters.
+     * @param start The index of the first character, which is a digit, '.',
+     *  '-' or '+'.
+     * @param end The index after the last character.
+     * @return An Integer, Long or Double; null if the text is not a number;
+     *  or OTHER_NUMBER_FORM if it may be a number in some other form (with a
+     *  leading zero, in hex, with more digits or with a type suffix), which
+     *  JSONObject.stringToValue converts the slow way.
+     */
+    static Object scanNumber(char[] chars, int start, int end) {
+        int i = start;
+        char c = chars[i];
+        boolean negative = c == '-';
+        if (negative || c == '+') {
+            i += 1;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        while (i < end && (c = chars[i]) >= '0' && c <= '9') {
+            mantissa = mantissa * 10 + (c - '0');
+            digits += 1;
+            i += 1;
+        }
+        if (i == end) {
+            if (digits == 0) {
+                return null;
+            }
+            if ((chars[start] == '0' && end - start > 1) || digits > 18) {
+                return OTHER_NUMBER_FORM;
+            }
+            long value = negative ? -mantissa : mantissa;
+            if (value == (int) value) {
+                return Integer.valueOf((int) value);
+            }
+            return Long.valueOf(value);
+        }
+
+        int scale = 0;
+        if (c == '.') {
+            i += 1;
+            while (i < end && (c = chars[i]) >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits += 1;
+                scale += 1;
+                i += 1;
+            }
+        }
+        int exponent = 0;
+        int exponentDigits = -1;
+        if (digits > 0 && i < end && (c == 'e' || c == 'E')) {
+            i += 1;
+            boolean negativeExponent = false;
+            if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+                negativeExponent = chars[i] == '-';
+                i += 1;
+            }
+            exponentDigits = 0;
+            while (i < end && (c = chars[i]) >= '0' && c <= '9') {
+                if (exponentDigits < 4) {
+                    exponent = exponent * 10 + (c - '0');
+                }
+                exponentDigits += 1;
+                i += 1;
+            }
+            if (negativeExponent) {
+                exponent = -exponent;
+            }
+        }
+        if (i < end || digits == 0 || exponentDigits == 0) {
+            if (chars[start] == '0') {
+                return OTHER_NUMBER_FORM;
+            }
+            for (i = start; i < end; i++) {
+                switch (chars[i]) {
+                case 'x':
+                case 'X':
+                case 'f':
+                case 'F':
+                case 'd':
+                case 'D':
+                    return OTHER_NUMBER_FORM;
+                }
+            }
+            return null;
+        }
+
+        /*
+         * A mantissa of up to 2^53 and a power of ten of up to 10^22 are
+         * both exact doubles, so one multiplication or division of them is
+         * correctly rounded.
+         */
+
+        exponent -= scale;
+        if (digits <= 18 && mantissa <= (1L << 53) && exponentDigits < 4 &&
+                exponent >= -22 && exponent <= 22) {
+            double d = (double) mantissa;
+            d = exponent < 0 ? d / POWERS_OF_TEN[-exponent] :
+                    d * POWERS_OF_TEN[exponent];
+            return Double.valueOf(negative ? -d : d);
+        }
+        return Double.valueOf(new String(chars, start, end - start));
+    }
+
+
+    private static boolean isFormattingChar(char c) {
+        switch (c) {
+        case ',':
+        case ':':
+        case ']':
+        case '}':
+        case '/':
+        case '\\':
+        case '"':
+        case '[':
+        case '{':
+        case ';':
+        case '=':
+        case '#':
+            return true;
+        default:
+            return false;
         }
-        return JSONObject.stringToValue(s);
     }
 
 
@@ -383,26 +623,21 @@ public class JSONTokener {
      * is not found.
      */
     public char skipTo(char to) throws JSONException {
-        char c;
-        try {
-            int startIndex = this.index;
-            reader.mark(Integer.MAX_VALUE);
-            do {
-                c = next();
-                if (c == 0) {
-                    reader.reset();
-                    this.index = startIndex;
-                    return c;
-                }
-            } while (c != to);
-        } catch (IOException exc) {
-            throw new JSONException(exc);
+        this.pastEnd = false;
+        this.mark = this.position;
+        while (this.position < this.limit || fill()) {
+            if (this.buffer[this.position] == to) {
+                this.mark = -1;
+                return to;
+            }
+            this.position += 1;
         }
-
-        back();
-        return c;
+        this.position = this.mark;
+        this.mark = -1;
+        return 0;
     }
 
+
     /**
      * Make a JSONException to signal a syntax error.
      *
@@ -420,6 +655,6 @@ public class JSONTokener {
      * @return " at character [this.index]"
      */
     public String toString() {
-        return " at character " + index;
+        return " at character " + (this.offset + this.position);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,63 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Base class for the compact binary codecs.
+ *
+ * Every entry starts with a two byte magic number and a format version. Files written by
+ * {@link SerializingCacheCodec} are recognised by the Java serialization magic number and still
+ * read, so an existing cache directory keeps working after switching codecs.
+ */
+public abstract class AbstractBinaryCacheCodec<T> implements CacheCodec<T> {
+	static final int MAGIC_0 = 0xED;
+	static final int MAGIC_1 = 0xAF;
+	static final int VERSION = 1;
+
+	private static final int SERIALIZATION_MAGIC_0 = 0xAC;
+	private static final int SERIALIZATION_MAGIC_1 = 0xED;
+
+	private final SerializingCacheCodec<T> legacyCodec = new SerializingCacheCodec<T>();
+
+	public void encode(T value, OutputStream out) throws IOException {
+		DataOutputStream dos = new DataOutputStream(out);
+		dos.writeByte(MAGIC_0);
+		dos.writeByte(MAGIC_1);
+		dos.writeByte(VERSION);
+		writeRecord(dos, value);
+		dos.flush();
+	}
+
+	public T decode(InputStream in) throws IOException {
+		if (!in.markSupported()) {
+			in = new BufferedInputStream(in);
+		}
+		in.mark(2);
+		int b0 = in.read();
+		int b1 = in.read();
+		if (b0 == SERIALIZATION_MAGIC_0 && b1 == SERIALIZATION_MAGIC_1) {
+			in.reset();
+			return legacyCodec.decode(in);
+		}
+		if (b0 != MAGIC_0 || b1 != MAGIC_1) {
+			throw new StreamCorruptedException("Not a binary cache entry");
+		}
+		DataInputStream dis = new DataInputStream(in);
+		int version = dis.readUnsignedByte();
+		if (version != VERSION) {
+			throw new InvalidClassException("Unsupported binary cache entry version " + version);
+		}
+		return readRecord(dis);
+	}
+
+	protected abstract void writeRecord(DataOutputStream out, T value) throws IOException;
+
+	protected abstract T readRecord(DataInputStream in) throws IOException;
+}
@@ -0,0 +1,86 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import au.edu.educationau.opensource.rome.diskcache.LinkedHashMapFeedCache.CacheInfo;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+
+/**
+ * Compact binary codec for the feed cache entries of {@link DiskFeedCache}.
+ * 
+ * @see BinaryFeedFormat
+ */
+public class BinaryCacheInfoCodec extends AbstractBinaryCacheCodec<CacheInfo> {
+	private static final int LAST_CHECKED = 1;
+	private static final int HAS_ERROR = 2;
+	private static final int ERROR_MESSAGE = 3;
+	private static final int FEED = 4;
+	private static final int ERROR_TYPE = 5;
+	private static final int TTL_MINUTES = 6;
+
+	@Override
+	protected void writeRecord(DataOutputStream out, CacheInfo info) throws IOException {
+		BinaryFeedFormat.writeDate(out, LAST_CHECKED, info.getLastCheckedDate());
+		BinaryFeedFormat.writeLong(out, HAS_ERROR, info.isHasError() ? 1 : 0);
+		BinaryFeedFormat.writeString(out, ERROR_MESSAGE, info.getErrorMessage());
+		if (info.getErrorType() != null) {
+			BinaryFeedFormat.writeString(out, ERROR_TYPE, info.getErrorType().name());
+		}
+		if (info.getTtlMinutes() > 0) {
+			BinaryFeedFormat.writeLong(out, TTL_MINUTES, info.getTtlMinutes());
+		}
+		if (info.getFeed() != null) {
+			BinaryFeedFormat.writeKey(out, FEED, BinaryFeedFormat.TYPE_RECORD);
+			BinaryFeedFormat.writeFeed(out, info.getFeed());
+		}
+		out.writeByte(BinaryFeedFormat.END);
+	}
+
+	@Override
+	protected CacheInfo readRecord(DataInputStream in) throws IOException {
+		CacheInfo info = new CacheInfo((SyndFeed) null);
+		int key;
+		while ((key = in.readUnsignedByte()) != BinaryFeedFormat.END) {
+			int type = key & 7;
+			switch (key >>> 3) {
+			case LAST_CHECKED:
+				Date lastChecked = BinaryFeedFormat.readDate(in, type);
+				if (lastChecked != null) {
+					info.setLastCheckedDate(lastChecked);
+				}
+				break;
+			case HAS_ERROR:
+				info.setHasError(BinaryFeedFormat.readLong(in, type, 0) != 0);
+				break;
+			case ERROR_MESSAGE:
+				info.setErrorMessage(BinaryFeedFormat.readString(in, type));
+				break;
+			case ERROR_TYPE:
+				String errorType = BinaryFeedFormat.readString(in, type);
+				try {
+					info.setErrorType(errorType == null ? null : FeedErrorType.valueOf(errorType));
+				} catch (IllegalArgumentException e) {
+					// written by a newer version, treat as permanent
+				}
+				break;
+			case TTL_MINUTES:
+				info.setTtlMinutes((int) BinaryFeedFormat.readLong(in, type, 0));
+				break;
+			case FEED:
+				if (type == BinaryFeedFormat.TYPE_RECORD) {
+					info.setFeed(BinaryFeedFormat.readFeed(in));
+				} else {
+					BinaryFeedFormat.skip(in, type);
+				}
+				break;
+			default:
+				BinaryFeedFormat.skip(in, type);
+			}
+		}
+		return info;
+	}
+}
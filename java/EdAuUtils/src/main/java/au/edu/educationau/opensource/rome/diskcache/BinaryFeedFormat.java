@@ -0,0 +1,495 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.sun.syndication.feed.synd.SyndCategory;
+import com.sun.syndication.feed.synd.SyndCategoryImpl;
+import com.sun.syndication.feed.synd.SyndContent;
+import com.sun.syndication.feed.synd.SyndContentImpl;
+import com.sun.syndication.feed.synd.SyndEnclosure;
+import com.sun.syndication.feed.synd.SyndEnclosureImpl;
+import com.sun.syndication.feed.synd.SyndEntry;
+import com.sun.syndication.feed.synd.SyndEntryImpl;
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+import com.sun.syndication.feed.synd.SyndImage;
+import com.sun.syndication.feed.synd.SyndImageImpl;
+
+/**
+ * Tagged binary encoding of SyndFeed and its parts, used by the binary cache codecs.
+ *
+ * A record is a sequence of fields followed by a zero byte. Each field starts with a key byte
+ * holding the field tag (upper 5 bits) and the wire type (lower 3 bits), so a reader can skip
+ * fields it does not know about. Null values and empty lists are simply not written. New fields
+ * can therefore be added without changing the format version.
+ *
+ * Only the core syndication properties are kept: modules and foreign markup are not stored.
+ */
+final class BinaryFeedFormat {
+	static final int END = 0;
+
+	static final int TYPE_LONG = 1;
+	static final int TYPE_STRING = 2;
+	static final int TYPE_RECORD = 3;
+
+	/**
+	 * The longest string written or read, in UTF-8 bytes. A longer length read from a file can
+	 * only come from corruption, and is rejected rather than allocated.
+	 */
+	static final int MAX_STRING_BYTES = 16 * 1024 * 1024;
+
+	// SyndFeed
+	private static final int FEED_TYPE = 1;
+	private static final int FEED_ENCODING = 2;
+	private static final int FEED_URI = 3;
+	private static final int FEED_TITLE = 4;
+	private static final int FEED_LINK = 5;
+	private static final int FEED_DESCRIPTION = 6;
+	private static final int FEED_PUBLISHED = 7;
+	private static final int FEED_AUTHOR = 8;
+	private static final int FEED_COPYRIGHT = 9;
+	private static final int FEED_LANGUAGE = 10;
+	private static final int FEED_IMAGE = 11;
+	private static final int FEED_CATEGORY = 12;
+	private static final int FEED_ENTRY = 13;
+
+	// SyndEntry
+	private static final int ENTRY_URI = 1;
+	private static final int ENTRY_LINK = 2;
+	private static final int ENTRY_TITLE = 3;
+	private static final int ENTRY_DESCRIPTION = 4;
+	private static final int ENTRY_CONTENT = 5;
+	private static final int ENTRY_PUBLISHED = 6;
+	private static final int ENTRY_UPDATED = 7;
+	private static final int ENTRY_AUTHOR = 8;
+	private static final int ENTRY_CATEGORY = 9;
+	private static final int ENTRY_ENCLOSURE = 10;
+
+	// SyndContent
+	private static final int CONTENT_TYPE = 1;
+	private static final int CONTENT_MODE = 2;
+	private static final int CONTENT_VALUE = 3;
+
+	// SyndCategory
+	private static final int CATEGORY_NAME = 1;
+	private static final int CATEGORY_TAXONOMY_URI = 2;
+
+	// SyndImage
+	private static final int IMAGE_TITLE = 1;
+	private static final int IMAGE_URL = 2;
+	private static final int IMAGE_LINK = 3;
+	private static final int IMAGE_DESCRIPTION = 4;
+
+	// SyndEnclosure
+	private static final int ENCLOSURE_URL = 1;
+	private static final int ENCLOSURE_TYPE = 2;
+	private static final int ENCLOSURE_LENGTH = 3;
+
+	private BinaryFeedFormat() {
+	}
+
+	// ---- writing
+
+	static void writeKey(DataOutputStream out, int tag, int type) throws IOException {
+		out.writeByte((tag << 3) | type);
+	}
+
+	static void writeString(DataOutputStream out, int tag, String value) throws IOException {
+		if (value != null) {
+			writeKey(out, tag, TYPE_STRING);
+			byte[] bytes = value.getBytes("UTF-8");
+			if (bytes.length > MAX_STRING_BYTES) {
+				throw new IOException("String of " + bytes.length + " bytes is too long to cache");
+			}
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	static void writeLong(DataOutputStream out, int tag, long value) throws IOException {
+		writeKey(out, tag, TYPE_LONG);
+		out.writeLong(value);
+	}
+
+	static void writeDate(DataOutputStream out, int tag, Date value) throws IOException {
+		if (value != null) {
+			writeLong(out, tag, value.getTime());
+		}
+	}
+
+	static void writeFeed(DataOutputStream out, SyndFeed feed) throws IOException {
+		writeString(out, FEED_TYPE, feed.getFeedType());
+		writeString(out, FEED_ENCODING, feed.getEncoding());
+		writeString(out, FEED_URI, feed.getUri());
+		writeString(out, FEED_TITLE, feed.getTitle());
+		writeString(out, FEED_LINK, feed.getLink());
+		writeString(out, FEED_DESCRIPTION, feed.getDescription());
+		writeDate(out, FEED_PUBLISHED, feed.getPublishedDate());
+		writeString(out, FEED_AUTHOR, feed.getAuthor());
+		writeString(out, FEED_COPYRIGHT, feed.getCopyright());
+		writeString(out, FEED_LANGUAGE, feed.getLanguage());
+
+		SyndImage image = feed.getImage();
+		if (image != null) {
+			writeKey(out, FEED_IMAGE, TYPE_RECORD);
+			writeString(out, IMAGE_TITLE, image.getTitle());
+			writeString(out, IMAGE_URL, image.getUrl());
+			writeString(out, IMAGE_LINK, image.getLink());
+			writeString(out, IMAGE_DESCRIPTION, image.getDescription());
+			out.writeByte(END);
+		}
+
+		writeCategories(out, FEED_CATEGORY, feed.getCategories());
+
+		List<?> entries = feed.getEntries();
+		if (entries != null) {
+			for (Object entry : entries) {
+				writeKey(out, FEED_ENTRY, TYPE_RECORD);
+				writeEntry(out, (SyndEntry) entry);
+			}
+		}
+		out.writeByte(END);
+	}
+
+	private static void writeEntry(DataOutputStream out, SyndEntry entry) throws IOException {
+		writeString(out, ENTRY_URI, entry.getUri());
+		writeString(out, ENTRY_LINK, entry.getLink());
+		writeString(out, ENTRY_TITLE, entry.getTitle());
+		if (entry.getDescription() != null) {
+			writeKey(out, ENTRY_DESCRIPTION, TYPE_RECORD);
+			writeContent(out, entry.getDescription());
+		}
+		List<?> contents = entry.getContents();
+		if (contents != null) {
+			for (Object content : contents) {
+				writeKey(out, ENTRY_CONTENT, TYPE_RECORD);
+				writeContent(out, (SyndContent) content);
+			}
+		}
+		writeDate(out, ENTRY_PUBLISHED, entry.getPublishedDate());
+		writeDate(out, ENTRY_UPDATED, entry.getUpdatedDate());
+		writeString(out, ENTRY_AUTHOR, entry.getAuthor());
+		writeCategories(out, ENTRY_CATEGORY, entry.getCategories());
+
+		List<?> enclosures = entry.getEnclosures();
+		if (enclosures != null) {
+			for (Object o : enclosures) {
+				SyndEnclosure enclosure = (SyndEnclosure) o;
+				writeKey(out, ENTRY_ENCLOSURE, TYPE_RECORD);
+				writeString(out, ENCLOSURE_URL, enclosure.getUrl());
+				writeString(out, ENCLOSURE_TYPE, enclosure.getType());
+				writeLong(out, ENCLOSURE_LENGTH, enclosure.getLength());
+				out.writeByte(END);
+			}
+		}
+		out.writeByte(END);
+	}
+
+	private static void writeContent(DataOutputStream out, SyndContent content) throws IOException {
+		writeString(out, CONTENT_TYPE, content.getType());
+		writeString(out, CONTENT_MODE, content.getMode());
+		writeString(out, CONTENT_VALUE, content.getValue());
+		out.writeByte(END);
+	}
+
+	private static void writeCategories(DataOutputStream out, int tag, List<?> categories) throws IOException {
+		if (categories != null) {
+			for (Object o : categories) {
+				SyndCategory category = (SyndCategory) o;
+				writeKey(out, tag, TYPE_RECORD);
+				writeString(out, CATEGORY_NAME, category.getName());
+				writeString(out, CATEGORY_TAXONOMY_URI, category.getTaxonomyUri());
+				out.writeByte(END);
+			}
+		}
+	}
+
+	// ---- reading
+
+	static String readString(DataInputStream in, int type) throws IOException {
+		if (type != TYPE_STRING) {
+			skip(in, type);
+			return null;
+		}
+		byte[] bytes = new byte[readLength(in)];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	static long readLong(DataInputStream in, int type, long defaultValue) throws IOException {
+		if (type != TYPE_LONG) {
+			skip(in, type);
+			return defaultValue;
+		}
+		return in.readLong();
+	}
+
+	static Date readDate(DataInputStream in, int type) throws IOException {
+		if (type != TYPE_LONG) {
+			skip(in, type);
+			return null;
+		}
+		return new Date(in.readLong());
+	}
+
+	private static int readLength(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_STRING_BYTES) {
+			throw new StreamCorruptedException("Implausible string length " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * Skips the value of a field, including any nested records.
+	 */
+	static void skip(DataInputStream in, int type) throws IOException {
+		switch (type) {
+		case TYPE_LONG:
+			in.readLong();
+			break;
+		case TYPE_STRING:
+			int length = readLength(in);
+			if (in.skipBytes(length) < length) {
+				throw new EOFException();
+			}
+			break;
+		case TYPE_RECORD:
+			int key;
+			while ((key = in.readUnsignedByte()) != END) {
+				skip(in, key & 7);
+			}
+			break;
+		default:
+			throw new StreamCorruptedException("Unknown field type " + type);
+		}
+	}
+
+	static SyndFeed readFeed(DataInputStream in) throws IOException {
+		SyndFeed feed = new SyndFeedImpl();
+		List<SyndCategory> categories = new ArrayList<SyndCategory>();
+		List<SyndEntry> entries = new ArrayList<SyndEntry>();
+		int key;
+		while ((key = in.readUnsignedByte()) != END) {
+			int type = key & 7;
+			switch (key >>> 3) {
+			case FEED_TYPE:
+				feed.setFeedType(readString(in, type));
+				break;
+			case FEED_ENCODING:
+				feed.setEncoding(readString(in, type));
+				break;
+			case FEED_URI:
+				feed.setUri(readString(in, type));
+				break;
+			case FEED_TITLE:
+				feed.setTitle(readString(in, type));
+				break;
+			case FEED_LINK:
+				feed.setLink(readString(in, type));
+				break;
+			case FEED_DESCRIPTION:
+				feed.setDescription(readString(in, type));
+				break;
+			case FEED_PUBLISHED:
+				feed.setPublishedDate(readDate(in, type));
+				break;
+			case FEED_AUTHOR:
+				feed.setAuthor(readString(in, type));
+				break;
+			case FEED_COPYRIGHT:
+				feed.setCopyright(readString(in, type));
+				break;
+			case FEED_LANGUAGE:
+				feed.setLanguage(readString(in, type));
+				break;
+			case FEED_IMAGE:
+				if (type == TYPE_RECORD) {
+					feed.setImage(readImage(in));
+				} else {
+					skip(in, type);
+				}
+				break;
+			case FEED_CATEGORY:
+				if (type == TYPE_RECORD) {
+					categories.add(readCategory(in));
+				} else {
+					skip(in, type);
+				}
+				break;
+			case FEED_ENTRY:
+				if (type == TYPE_RECORD) {
+					entries.add(readEntry(in));
+				} else {
+					skip(in, type);
+				}
+				break;
+			default:
+				skip(in, type);
+			}
+		}
+		feed.setCategories(categories);
+		feed.setEntries(entries);
+		return feed;
+	}
+
+	private static SyndEntry readEntry(DataInputStream in) throws IOException {
+		SyndEntry entry = new SyndEntryImpl();
+		List<SyndContent> contents = new ArrayList<SyndContent>();
+		List<SyndCategory> categories = new ArrayList<SyndCategory>();
+		List<SyndEnclosure> enclosures = new ArrayList<SyndEnclosure>();
+		int key;
+		while ((key = in.readUnsignedByte()) != END) {
+			int type = key & 7;
+			switch (key >>> 3) {
+			case ENTRY_URI:
+				entry.setUri(readString(in, type));
+				break;
+			case ENTRY_LINK:
+				entry.setLink(readString(in, type));
+				break;
+			case ENTRY_TITLE:
+				entry.setTitle(readString(in, type));
+				break;
+			case ENTRY_DESCRIPTION:
+				if (type == TYPE_RECORD) {
+					entry.setDescription(readContent(in));
+				} else {
+					skip(in, type);
+				}
+				break;
+			case ENTRY_CONTENT:
+				if (type == TYPE_RECORD) {
+					contents.add(readContent(in));
+				} else {
+					skip(in, type);
+				}
+				break;
+			case ENTRY_PUBLISHED:
+				entry.setPublishedDate(readDate(in, type));
+				break;
+			case ENTRY_UPDATED:
+				entry.setUpdatedDate(readDate(in, type));
+				break;
+			case ENTRY_AUTHOR:
+				entry.setAuthor(readString(in, type));
+				break;
+			case ENTRY_CATEGORY:
+				if (type == TYPE_RECORD) {
+					categories.add(readCategory(in));
+				} else {
+					skip(in, type);
+				}
+				break;
+			case ENTRY_ENCLOSURE:
+				if (type == TYPE_RECORD) {
+					enclosures.add(readEnclosure(in));
+				} else {
+					skip(in, type);
+				}
+				break;
+			default:
+				skip(in, type);
+			}
+		}
+		entry.setContents(contents);
+		entry.setCategories(categories);
+		entry.setEnclosures(enclosures);
+		return entry;
+	}
+
+	private static SyndContent readContent(DataInputStream in) throws IOException {
+		SyndContent content = new SyndContentImpl();
+		int key;
+		while ((key = in.readUnsignedByte()) != END) {
+			int type = key & 7;
+			switch (key >>> 3) {
+			case CONTENT_TYPE:
+				content.setType(readString(in, type));
+				break;
+			case CONTENT_MODE:
+				content.setMode(readString(in, type));
+				break;
+			case CONTENT_VALUE:
+				content.setValue(readString(in, type));
+				break;
+			default:
+				skip(in, type);
+			}
+		}
+		return content;
+	}
+
+	private static SyndCategory readCategory(DataInputStream in) throws IOException {
+		SyndCategory category = new SyndCategoryImpl();
+		int key;
+		while ((key = in.readUnsignedByte()) != END) {
+			int type = key & 7;
+			switch (key >>> 3) {
+			case CATEGORY_NAME:
+				category.setName(readString(in, type));
+				break;
+			case CATEGORY_TAXONOMY_URI:
+				category.setTaxonomyUri(readString(in, type));
+				break;
+			default:
+				skip(in, type);
+			}
+		}
+		return category;
+	}
+
+	private static SyndImage readImage(DataInputStream in) throws IOException {
+		SyndImage image = new SyndImageImpl();
+		int key;
+		while ((key = in.readUnsignedByte()) != END) {
+			int type = key & 7;
+			switch (key >>> 3) {
+			case IMAGE_TITLE:
+				image.setTitle(readString(in, type));
+				break;
+			case IMAGE_URL:
+				image.setUrl(readString(in, type));
+				break;
+			case IMAGE_LINK:
+				image.setLink(readString(in, type));
+				break;
+			case IMAGE_DESCRIPTION:
+				image.setDescription(readString(in, type));
+				break;
+			default:
+				skip(in, type);
+			}
+		}
+		return image;
+	}
+
+	private static SyndEnclosure readEnclosure(DataInputStream in) throws IOException {
+		SyndEnclosure enclosure = new SyndEnclosureImpl();
+		int key;
+		while ((key = in.readUnsignedByte()) != END) {
+			int type = key & 7;
+			switch (key >>> 3) {
+			case ENCLOSURE_URL:
+				enclosure.setUrl(readString(in, type));
+				break;
+			case ENCLOSURE_TYPE:
+				enclosure.setType(readString(in, type));
+				break;
+			case ENCLOSURE_LENGTH:
+				enclosure.setLength(readLong(in, type, 0));
+				break;
+			default:
+				skip(in, type);
+			}
+		}
+		return enclosure;
+	}
+}
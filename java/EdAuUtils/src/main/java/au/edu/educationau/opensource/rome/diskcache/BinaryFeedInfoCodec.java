@@ -0,0 +1,88 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+
+import com.sun.syndication.fetcher.impl.SyndFeedInfo;
+
+/**
+ * Compact binary codec for the entries of {@link DiskBasedFeedInfoCache}.
+ * 
+ * The fetchers store the Last-Modified validator either as a Long or as the raw header String,
+ * both are kept. Any other type is dropped, which only costs an unconditional fetch.
+ * 
+ * @see BinaryFeedFormat
+ */
+public class BinaryFeedInfoCodec extends AbstractBinaryCacheCodec<SyndFeedInfo> {
+	private static final int ID = 1;
+	private static final int FEED_URL = 2;
+	private static final int ETAG = 3;
+	private static final int LAST_MODIFIED_STRING = 4;
+	private static final int LAST_MODIFIED_LONG = 5;
+	private static final int FEED = 6;
+
+	@Override
+	protected void writeRecord(DataOutputStream out, SyndFeedInfo info) throws IOException {
+		BinaryFeedFormat.writeString(out, ID, info.getId());
+		if (info.getUrl() != null) {
+			BinaryFeedFormat.writeString(out, FEED_URL, info.getUrl().toExternalForm());
+		}
+		BinaryFeedFormat.writeString(out, ETAG, info.getETag());
+		Object lastModified = info.getLastModified();
+		if (lastModified instanceof String) {
+			BinaryFeedFormat.writeString(out, LAST_MODIFIED_STRING, (String) lastModified);
+		} else if (lastModified instanceof Long) {
+			BinaryFeedFormat.writeLong(out, LAST_MODIFIED_LONG, ((Long) lastModified).longValue());
+		}
+		if (info.getSyndFeed() != null) {
+			BinaryFeedFormat.writeKey(out, FEED, BinaryFeedFormat.TYPE_RECORD);
+			BinaryFeedFormat.writeFeed(out, info.getSyndFeed());
+		}
+		out.writeByte(BinaryFeedFormat.END);
+	}
+
+	@Override
+	protected SyndFeedInfo readRecord(DataInputStream in) throws IOException {
+		SyndFeedInfo info = new SyndFeedInfo();
+		int key;
+		while ((key = in.readUnsignedByte()) != BinaryFeedFormat.END) {
+			int type = key & 7;
+			switch (key >>> 3) {
+			case ID:
+				info.setId(BinaryFeedFormat.readString(in, type));
+				break;
+			case FEED_URL:
+				String url = BinaryFeedFormat.readString(in, type);
+				if (url != null) {
+					info.setUrl(new URL(url));
+				}
+				break;
+			case ETAG:
+				info.setETag(BinaryFeedFormat.readString(in, type));
+				break;
+			case LAST_MODIFIED_STRING:
+				info.setLastModified(BinaryFeedFormat.readString(in, type));
+				break;
+			case LAST_MODIFIED_LONG:
+				if (type == BinaryFeedFormat.TYPE_LONG) {
+					info.setLastModified(Long.valueOf(in.readLong()));
+				} else {
+					BinaryFeedFormat.skip(in, type);
+				}
+				break;
+			case FEED:
+				if (type == BinaryFeedFormat.TYPE_RECORD) {
+					info.setSyndFeed(BinaryFeedFormat.readFeed(in));
+				} else {
+					BinaryFeedFormat.skip(in, type);
+				}
+				break;
+			default:
+				BinaryFeedFormat.skip(in, type);
+			}
+		}
+		return info;
+	}
+}
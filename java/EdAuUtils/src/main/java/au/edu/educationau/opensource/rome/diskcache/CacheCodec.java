@@ -0,0 +1,16 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Converts cache entries to and from the bytes stored on disk.
+ *
+ * decode() should throw an InvalidClassException, StreamCorruptedException or EOFException
+ * if the stored bytes cannot be understood; the caches treat those as a miss and delete the entry.
+ */
+public interface CacheCodec<T> {
+	public void encode(T value, OutputStream out) throws IOException;
+	public T decode(InputStream in) throws IOException;
+}
@@ -0,0 +1,158 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import au.edu.educationau.opensource.collections.SegmentedLruCache;
+
+/**
+ * Builds the names of the files a file per entry cache keeps its entries in, remembering those
+ * of recently used URLs so they are not hashed again on every get and set.
+ *
+ * Entries are spread over firstLevelShards x secondLevelShards directories (41 x 373 by default,
+ * as in {@link CacheUtils#buildCachePath(URL, String, String)}). The two counts should be
+ * coprime, eg both prime, or some directories will never be used. Directories are created the
+ * first time an entry is written to them, and remembered in a bitset so that later writes do not
+ * check for them again; {@link #createAllShards()} creates them all up front instead.
+ *
+ * Also builds the names used by older versions (see {@link CacheUtils#plainStringToMD5(String)}),
+ * so that their files can still be found and migrated. These are only worked out when first asked
+ * for, so caches which do not read legacy names do not pay for them.
+ */
+public class CachePathBuilder {
+	static final int DEFAULT_MEMO_SIZE = 10000;
+
+	private static final class Names {
+		final int shard;
+		final String directory;
+		final String path;
+		// set on first use; racing threads work out the same name
+		volatile String legacyPath;
+
+		Names(int shard, String directory, String path) {
+			this.shard = shard;
+			this.directory = directory;
+			this.path = path;
+		}
+	}
+
+	private final String base;
+	private final String filePrefix;
+	private final int firstLevelShards;
+	private final int secondLevelShards;
+	private final SegmentedLruCache<String, Names> memo;
+	private final AtomicLongArray existingShards;
+
+	public CachePathBuilder(String base, String filePrefix) {
+		this(base, filePrefix, CacheUtils.DEFAULT_FIRST_LEVEL_SHARDS, CacheUtils.DEFAULT_SECOND_LEVEL_SHARDS, DEFAULT_MEMO_SIZE);
+	}
+
+	public CachePathBuilder(String base, String filePrefix, int firstLevelShards, int secondLevelShards, int memoSize) {
+		if (firstLevelShards <= 0 || secondLevelShards <= 0) {
+			throw new IllegalArgumentException("Shard counts must be positive: " + firstLevelShards + " x " + secondLevelShards);
+		}
+		this.base = base;
+		this.filePrefix = filePrefix;
+		this.firstLevelShards = firstLevelShards;
+		this.secondLevelShards = secondLevelShards;
+		this.memo = new SegmentedLruCache<String, Names>(memoSize);
+		int shards = firstLevelShards * secondLevelShards;
+		this.existingShards = new AtomicLongArray((shards + 63) / 64);
+	}
+
+	private Names names(URL url) {
+		String key = url.toExternalForm();
+		Names names = memo.get(key);
+		if (names == null) {
+			int hash = url.toString().hashCode();
+			int dir1 = CacheUtils.shard(hash, firstLevelShards);
+			int dir2 = CacheUtils.shard(hash, secondLevelShards);
+			String directory = CacheUtils.shardDirectory(base, dir1, dir2);
+			names = new Names(dir1 * secondLevelShards + dir2, directory, directory + File.separator + filePrefix + CacheUtils.md5Hex(key));
+			memo.put(key, names);
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the file an entry for the URL is kept in, creating its directory if it is not
+	 * already known to exist.
+	 */
+	public String getPath(URL url) {
+		Names names = names(url);
+		if (!isKnownToExist(names.shard)) {
+			CacheUtils.ensureDirectory(names.directory);
+			markExisting(names.shard);
+		}
+		return names.path;
+	}
+
+	/**
+	 * Returns the file older versions kept an entry for the URL in. This may be the same as
+	 * getPath().
+	 */
+	@SuppressWarnings("deprecation")
+	public String getLegacyPath(URL url) {
+		Names names = names(url);
+		String legacyPath = names.legacyPath;
+		if (legacyPath == null) {
+			legacyPath = names.directory + File.separator + filePrefix + CacheUtils.plainStringToMD5(url.toExternalForm());
+			names.legacyPath = legacyPath;
+		}
+		return legacyPath;
+	}
+
+	/**
+	 * Creates every shard directory now, so no write has to.
+	 */
+	public void createAllShards() {
+		for (int dir1 = 0; dir1 < firstLevelShards; dir1++) {
+			for (int dir2 = 0; dir2 < secondLevelShards; dir2++) {
+				int shard = dir1 * secondLevelShards + dir2;
+				if (!isKnownToExist(shard)) {
+					CacheUtils.ensureDirectory(CacheUtils.shardDirectory(base, dir1, dir2));
+					markExisting(shard);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forgets which directories exist, eg after they have been deleted.
+	 */
+	public void forgetShards() {
+		for (int i = 0; i < existingShards.length(); i++) {
+			existingShards.set(i, 0);
+		}
+	}
+
+	private boolean isKnownToExist(int shard) {
+		return (existingShards.get(shard >>> 6) & (1L << (shard & 63))) != 0;
+	}
+
+	private void markExisting(int shard) {
+		int word = shard >>> 6;
+		long bit = 1L << (shard & 63);
+		long current;
+		do {
+			current = existingShards.get(word);
+		} while ((current & bit) == 0 && !existingShards.compareAndSet(word, current, current | bit));
+	}
+
+	public String getBase() {
+		return base;
+	}
+
+	public String getFilePrefix() {
+		return filePrefix;
+	}
+
+	public int getFirstLevelShards() {
+		return firstLevelShards;
+	}
+
+	public int getSecondLevelShards() {
+		return secondLevelShards;
+	}
+}
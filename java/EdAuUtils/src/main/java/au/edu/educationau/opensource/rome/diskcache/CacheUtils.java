@@ -1,58 +1,169 @@
 package au.edu.educationau.opensource.rome.diskcache;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 public class CacheUtils {
-	public static String plainStringToMD5(String input) {
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	private static byte[] md5(byte[] input) {
+		MessageDigest md = MD5.get();
+		md.reset();
+		return md.digest(input);
+	}
+
+	/**
+	 * @return the MD5 of the UTF-8 encoding of the input, as 32 lower case hex digits
+	 */
+	public static String md5Hex(String input) {
 		if (input == null) {
 			throw new NullPointerException("Input cannot be null");
 		}
-		MessageDigest md = null;
-		byte[] byteHash = null;
-		StringBuffer resultString = new StringBuffer();
-
+		byte[] byteHash;
 		try {
-			md = MessageDigest.getInstance("MD5");
-			
+			byteHash = md5(input.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException("UTF-8 not supported", e);
+		}
+		char[] hex = new char[byteHash.length * 2];
+		for (int i = 0; i < byteHash.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(byteHash[i] >>> 4) & 0xF];
+			hex[i * 2 + 1] = HEX_DIGITS[byteHash[i] & 0xF];
+		}
+		return new String(hex);
+	}
 
-			md.reset();
+	/**
+	 * The hash used for cache file names before {@link #md5Hex(String)}. It uses the platform
+	 * encoding and drops the leading zero of each byte, so different inputs can collide. Only
+	 * kept to find files written by older versions.
+	 * 
+	 * @deprecated use {@link #md5Hex(String)}
+	 */
+	@Deprecated
+	public static String plainStringToMD5(String input) {
+		if (input == null) {
+			throw new NullPointerException("Input cannot be null");
+		}
+		byte[] byteHash = md5(input.getBytes());
+		StringBuilder resultString = new StringBuilder(byteHash.length * 2);
+		for (int i = 0; i < byteHash.length; i++) {
+			resultString.append(Integer.toHexString(0xFF & byteHash[i]));
+		}
+		return resultString.toString();
+	}
 
-			// We really need some conversion here
-			md.update(input.getBytes());
+	static final int DEFAULT_FIRST_LEVEL_SHARDS = 41;
+	static final int DEFAULT_SECOND_LEVEL_SHARDS = 373;
 
-			byteHash = md.digest();
+	/**
+	 * @return the directory an entry for the URL is kept in, spread over a two level hash so
+	 *         that no directory grows too large
+	 */
+	static String shardDirectory(URL url, String base) {
+		int hash = url.toString().hashCode();
+		return shardDirectory(base, shard(hash, DEFAULT_FIRST_LEVEL_SHARDS), shard(hash, DEFAULT_SECOND_LEVEL_SHARDS));
+	}
 
-			for (int i = 0; i < byteHash.length; i++) {
-				resultString.append(Integer.toHexString(0xFF & byteHash[i]));
-			}
+	static int shard(int hash, int shards) {
+		return Math.abs(hash % shards);
+	}
 
-			return (resultString.toString());			
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException(e);
-		}		
-	}	
-	
-	public static String buildCachePath(URL url, String base, String filePrefix) {
-    	int hash = url.toString().hashCode();
-    	int dir1 = Math.abs(hash % 41);
-    	int dir2 = Math.abs(hash % 373);
-    	String path = base + File.separator + dir1 + File.separator + dir2;
-    	
-    	File f = new File(path);
+	static String shardDirectory(String base, int dir1, int dir2) {
+		return base + File.separator + dir1 + File.separator + dir2;
+	}
+
+	/**
+	 * Creates the directory if it does not already exist.
+	 */
+	static void ensureDirectory(String path) {
+		File f = new File(path);
 		if (f.exists() && !f.isDirectory()) {
 			throw new RuntimeException("Configured cache directory already exists as a file: " + path);
-		}	
-    	
-    	if (!f.exists() && !f.mkdirs()) {
-    		throw new RuntimeException("Could not create directory " + path);
-    	}
-    	
-    	String name = plainStringToMD5(url.toExternalForm());
-    	
-        return path + File.separator + filePrefix + name; 		
-		
+		}
+
+		if (!f.exists() && !f.mkdirs()) {
+			throw new RuntimeException("Could not create directory " + path);
+		}
+	}
+
+	/**
+	 * Returns the file an entry for the URL is kept in, creating its directory if necessary.
+	 * {@link CachePathBuilder} does the same, but remembers the names it has built.
+	 */
+	public static String buildCachePath(URL url, String base, String filePrefix) {
+		String path = shardDirectory(url, base);
+		ensureDirectory(path);
+		return path + File.separator + filePrefix + md5Hex(url.toExternalForm());
+	}
+
+	/**
+	 * Encodes a value to a temporary file in the same directory as the target, then renames it
+	 * over the target. Readers therefore only ever see the old or the new file, never a partial one.
+	 * 
+	 * @param sync if true the temporary file is fsync'd before the rename
+	 * @return the number of bytes written
+	 */
+	public static <T> long writeAtomically(File target, T value, CacheCodec<T> codec, boolean sync) throws IOException {
+		File tmp;
+		try {
+			tmp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+		} catch (IOException e) {
+			// the directory may have been removed since it was known to exist
+			if (target.getParentFile().exists()) {
+				throw e;
+			}
+			ensureDirectory(target.getParent());
+			tmp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+		}
+		boolean renamed = false;
+		long written;
+		try {
+			FileOutputStream fos = new FileOutputStream(tmp);
+			try {
+				CountingOutputStream counter = new CountingOutputStream(fos);
+				BufferedOutputStream out = new BufferedOutputStream(counter);
+				codec.encode(value, out);
+				out.flush();
+				written = counter.getCount();
+				if (sync) {
+					fos.getFD().sync();
+				}
+			} finally {
+				fos.close();
+			}
+
+			renamed = tmp.renameTo(target);
+			if (!renamed) {
+				// some platforms (Windows) will not rename over an existing file
+				target.delete();
+				renamed = tmp.renameTo(target);
+			}
+			if (!renamed) {
+				throw new IOException("Could not rename " + tmp.getAbsolutePath() + " to " + target.getAbsolutePath());
+			}
+		} finally {
+			if (!renamed && !tmp.delete()) {
+				tmp.deleteOnExit();
+			}
+		}
+		return written;
 	}
 }
@@ -2,19 +2,81 @@ package au.edu.educationau.opensource.rome.diskcache;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HeaderElement;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
 import org.apache.log4j.Logger;
 
 import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.fetcher.FetcherEvent;
 import com.sun.syndication.fetcher.FetcherException;
+import com.sun.syndication.fetcher.FetcherListener;
 import com.sun.syndication.fetcher.impl.FeedFetcherCache;
 import com.sun.syndication.fetcher.impl.HttpClientFeedFetcher;
+import com.sun.syndication.fetcher.impl.HttpClientFeedFetcher.HttpClientMethodCallbackIntf;
 import com.sun.syndication.io.FeedException;
 
 public class CachingFeedFetcher extends HttpClientFeedFetcher {
 	static final Logger logger = Logger.getLogger(CachingFeedFetcher.class);
 	
 	private FeedCache feedCache;
+
+	private final ConcurrentMap<String, FutureTask<SyndFeed>> inFlight = new ConcurrentHashMap<String, FutureTask<SyndFeed>>();
+	private final AtomicLong coalescedRequests = new AtomicLong();
+
+	private volatile boolean staleWhileRevalidate;
+	private int refreshThreads = 2;
+	private int refreshQueueSize = 100;
+	private ExecutorService refreshExecutor;
+	private final ConcurrentMap<String, Boolean> pendingRefreshes = new ConcurrentHashMap<String, Boolean>();
+	private final AtomicLong staleResponses = new AtomicLong();
+
+	private int batchThreads = 10;
+	private int maxFetchesPerHost = 2;
+	private ExecutorService batchExecutor;
+	private HostConcurrencyLimiter hostLimiter;
+
+	private volatile FeedCacheStatistics statistics;
+
+	/**
+	 * Set when the fetch on this thread was answered 304 Not Modified. The fetcher fires its
+	 * events synchronously on the fetching thread.
+	 */
+	private final ThreadLocal<Boolean> unchanged = new ThreadLocal<Boolean>();
+	private final AtomicLong notModifiedResponses = new AtomicLong();
+
+	/**
+	 * The request made on this thread, so its response headers can be read when the fetcher polls
+	 * the feed, before it recycles the request.
+	 */
+	private final ThreadLocal<HttpMethod> request = new ThreadLocal<HttpMethod>();
+	/**
+	 * The freshness lifetime upstream gave the feed fetched on this thread, in seconds.
+	 */
+	private final ThreadLocal<Long> maxAge = new ThreadLocal<Long>();
+	private volatile HttpClientMethodCallbackIntf methodCallback;
 	
 	public FeedCache getFeedCache() {
 		return feedCache;
@@ -28,37 +90,563 @@ public class CachingFeedFetcher extends HttpClientFeedFetcher {
 		super();
 		
 		addFetcherEventListener(new FetcherEventLogger());		
+		addFetcherEventListener(new ResponseListener());
+		super.setHttpClientMethodCallback(new RequestCallback());
 	}
 	
 	public CachingFeedFetcher(FeedFetcherCache feedInfoCache, FeedCache feedCache) {
 		super(feedInfoCache);		
 		
 		this.feedCache = feedCache;
+		addFetcherEventListener(new ResponseListener());
+		super.setHttpClientMethodCallback(new RequestCallback());
+	}
+
+	private class ResponseListener implements FetcherListener {
+		public void fetcherEvent(FetcherEvent event) {
+			if (FetcherEvent.EVENT_TYPE_FEED_UNCHANGED.equals(event.getEventType())) {
+				unchanged.set(Boolean.TRUE);
+			} else if (FetcherEvent.EVENT_TYPE_FEED_POLLED.equals(event.getEventType())) {
+				HttpMethod method = request.get();
+				if (method != null) {
+					maxAge.set(Long.valueOf(maxAgeSeconds(method)));
+				}
+			}
+		}
+	}
+
+	private class RequestCallback implements HttpClientMethodCallbackIntf {
+		public void afterHttpClientMethodCreate(HttpMethod method) {
+			request.set(method);
+			HttpClientMethodCallbackIntf callback = methodCallback;
+			if (callback != null) {
+				callback.afterHttpClientMethodCreate(method);
+			}
+		}
+	}
+
+	/**
+	 * @return the freshness lifetime of a response in seconds, from its Cache-Control s-maxage or
+	 *         max-age directive, or else its Expires header, or -1 if it has neither. no-cache,
+	 *         no-store and an Expires date which cannot be parsed mean it is already stale.
+	 */
+	static long maxAgeSeconds(HttpMethod method) {
+		Header cacheControl = method.getResponseHeader("Cache-Control");
+		if (cacheControl != null) {
+			long seconds = -1;
+			HeaderElement[] directives = cacheControl.getElements();
+			for (int i = 0; i < directives.length; i++) {
+				String name = directives[i].getName().toLowerCase();
+				if ("no-cache".equals(name) || "no-store".equals(name)) {
+					return 0;
+				} else if ("s-maxage".equals(name) || ("max-age".equals(name) && seconds < 0)) {
+					// a shared cache prefers s-maxage
+					try {
+						seconds = Math.max(0, Long.parseLong(String.valueOf(directives[i].getValue()).trim()));
+					} catch (NumberFormatException e) {
+						logger.debug("Ignoring " + cacheControl.getValue());
+					}
+				}
+			}
+			if (seconds >= 0) {
+				return seconds;
+			}
+		}
+		Header expires = method.getResponseHeader("Expires");
+		if (expires == null) {
+			return -1;
+		}
+		try {
+			Date expiry = DateUtil.parseDate(expires.getValue());
+			return Math.max(0, (expiry.getTime() - responseDate(method)) / 1000);
+		} catch (DateParseException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the time the server sent a response, or now if it did not say
+	 */
+	private static long responseDate(HttpMethod method) {
+		Header date = method.getResponseHeader("Date");
+		if (date != null) {
+			try {
+				return DateUtil.parseDate(date.getValue()).getTime();
+			} catch (DateParseException e) {
+				logger.debug("Ignoring Date " + date.getValue());
+			}
+		}
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public HttpClientMethodCallbackIntf getHttpClientMethodCallback() {
+		return methodCallback;
+	}
+
+	/**
+	 * Sets a callback to configure each request. It is called by the fetcher's own callback, which
+	 * reads the HTTP caching headers of the response.
+	 */
+	@Override
+	public synchronized void setHttpClientMethodCallback(HttpClientMethodCallbackIntf callback) {
+		this.methodCallback = callback;
 	}
 
 	@Override
 	public SyndFeed retrieveFeed(URL feedUrl) throws IllegalArgumentException, IOException, FeedException, FetcherException {
 		
-		SyndFeed result = feedCache.getFeed(feedUrl);
+		SyndFeed result = getCachedFeed(feedUrl);
 		if (result == null) {
+			result = fetchCoalesced(feedUrl, false);
+		}
+		
+		return result;
+	}
+
+	/**
+	 * Returns the cached feed, or a stale one (refreshing it in the background) if stale feeds may
+	 * be served, or null if the feed has to be fetched.
+	 */
+	private SyndFeed getCachedFeed(URL feedUrl) throws FetcherException {
+		SyndFeed result = feedCache.getFeed(feedUrl);
+		if (result == null && staleWhileRevalidate && feedCache instanceof RevalidatingFeedCache) {
+			result = ((RevalidatingFeedCache) feedCache).getStaleFeed(feedUrl);
+			if (result != null) {
+				staleResponses.incrementAndGet();
+				scheduleRefresh(feedUrl);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieves a number of feeds at once. Cached feeds are returned straight away, and the rest
+	 * are fetched concurrently, at most {@link #setMaxFetchesPerHost(int)} at a time from any one
+	 * host, so the time taken is bounded by the slowest feed rather than the sum of them all.
+	 *
+	 * Feeds which have not been retrieved when the timeout expires are reported as errors; their
+	 * fetches carry on in the background and are cached for next time.
+	 */
+	public FeedBatchResult retrieveFeeds(Collection<URL> feedUrls, long timeout, TimeUnit unit) {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		FeedBatchResult result = new FeedBatchResult();
+		// keyed by external form, as URL.equals() resolves host names
+		Map<String, Future<SyndFeed>> pending = new HashMap<String, Future<SyndFeed>>();
+
+		for (final URL feedUrl : feedUrls) {
+			if (pending.containsKey(feedUrl.toExternalForm()) || result.getFeed(feedUrl) != null || result.getError(feedUrl) != null) {
+				continue;
+			}
 			try {
-				result = super.retrieveFeed(feedUrl);
-				feedCache.setFeed(feedUrl, result);
-			} catch (IllegalArgumentException e) {
-				feedCache.setFeedError(feedUrl, e.getLocalizedMessage());
-				throw e;
-			} catch (IOException e) {
-				feedCache.setFeedError(feedUrl, e.getLocalizedMessage());
-				throw e;				
-			} catch (FeedException e) {
-				feedCache.setFeedError(feedUrl, e.getLocalizedMessage());
-				throw e;
+				SyndFeed feed = getCachedFeed(feedUrl);
+				if (feed != null) {
+					result.addFeed(feedUrl, feed);
+					continue;
+				}
 			} catch (FetcherException e) {
-				feedCache.setFeedError(feedUrl, e.getLocalizedMessage());
-				throw e;
+				result.addError(feedUrl, e);
+				continue;
+			}
+			try {
+				pending.put(feedUrl.toExternalForm(), getBatchExecutor().submit(new Callable<SyndFeed>() {
+					public SyndFeed call() throws Exception {
+						return fetchWithHostLimit(feedUrl, deadline);
+					}
+				}));
+			} catch (RejectedExecutionException e) {
+				result.addError(feedUrl, new FetcherException("Fetcher is shut down, not fetching " + feedUrl.toExternalForm()));
+			}
+		}
+
+		for (URL feedUrl : feedUrls) {
+			// removed, so a URL requested twice is only waited for once
+			Future<SyndFeed> future = pending.remove(feedUrl.toExternalForm());
+			if (future == null) {
+				continue;
+			}
+			try {
+				result.addFeed(feedUrl, getResult(feedUrl, future, deadline - System.nanoTime()));
+			} catch (Exception e) {
+				result.addError(feedUrl, e);
 			}
 		}
-		
 		return result;
 	}
+
+	private SyndFeed fetchWithHostLimit(URL feedUrl, long deadline) throws IOException, FeedException, FetcherException {
+		HostConcurrencyLimiter limiter = getHostLimiter();
+		try {
+			if (!limiter.tryAcquire(feedUrl, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				throw new FetcherException("Timed out waiting to fetch " + feedUrl.toExternalForm());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FetcherException("Interrupted waiting to fetch " + feedUrl.toExternalForm(), e);
+		}
+		try {
+			return fetchCoalesced(feedUrl, false);
+		} finally {
+			limiter.release(feedUrl);
+		}
+	}
+
+	private SyndFeed getResult(URL feedUrl, Future<SyndFeed> future, long timeoutNanos) throws IOException, FeedException, FetcherException {
+		try {
+			return future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			// leave a fetch which has started to finish and be cached, but don't start one
+			future.cancel(false);
+			throw new FetcherException("Timed out fetching " + feedUrl.toExternalForm(), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FetcherException("Interrupted waiting for " + feedUrl.toExternalForm(), e);
+		} catch (ExecutionException e) {
+			throw unwrap(feedUrl, e);
+		}
+	}
+
+	/**
+	 * Fetches a feed from upstream and caches it, whether or not the cached copy has expired.
+	 * Joins a fetch of the same feed which is already in progress.
+	 */
+	public SyndFeed refreshFeed(URL feedUrl) throws IllegalArgumentException, IOException, FeedException, FetcherException {
+		return fetchCoalesced(feedUrl, true);
+	}
+
+	/**
+	 * Refreshes a feed on the refresh executor, unless a refresh of it is already queued. If the
+	 * executor's queue is full the refresh is dropped; a later request will schedule it again.
+	 */
+	protected void scheduleRefresh(final URL feedUrl) {
+		final String key = feedUrl.toExternalForm();
+		if (pendingRefreshes.putIfAbsent(key, Boolean.TRUE) != null) {
+			return;
+		}
+		try {
+			getRefreshExecutor().execute(new Runnable() {
+				public void run() {
+					try {
+						fetchCoalesced(feedUrl, false);
+					} catch (Exception e) {
+						logger.warn("Background refresh of " + key + " failed: " + e.getLocalizedMessage());
+					} finally {
+						pendingRefreshes.remove(key);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			pendingRefreshes.remove(key);
+			logger.info("Refresh queue full, not refreshing " + key);
+		}
+	}
+
+	private synchronized ExecutorService getRefreshExecutor() {
+		if (refreshExecutor == null) {
+			refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(refreshQueueSize), new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "feed-refresh-" + count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return refreshExecutor;
+	}
+
+	private synchronized ExecutorService getBatchExecutor() {
+		if (batchExecutor == null) {
+			batchExecutor = new ThreadPoolExecutor(batchThreads, batchThreads, 60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "feed-batch-" + count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return batchExecutor;
+	}
+
+	/**
+	 * @return the limiter which bounds concurrent fetches per host, shared with anything else
+	 *         fetching through this fetcher (such as a {@link FeedRefreshScheduler}) so that together
+	 *         they stay within {@link #setMaxFetchesPerHost(int)}
+	 */
+	public synchronized HostConcurrencyLimiter getHostLimiter() {
+		if (hostLimiter == null) {
+			hostLimiter = new HostConcurrencyLimiter(maxFetchesPerHost);
+		}
+		return hostLimiter;
+	}
+
+	/**
+	 * Sets the limiter to use instead of one created from {@link #setMaxFetchesPerHost(int)}, eg
+	 * to share a per-host limit between several fetchers. Must be set before the first call.
+	 */
+	public synchronized void setHostLimiter(HostConcurrencyLimiter hostLimiter) {
+		this.hostLimiter = hostLimiter;
+	}
+
+	/**
+	 * Stops the background refresh and batch threads. Intended as a Spring destroy-method.
+	 */
+	public synchronized void shutdown() {
+		if (refreshExecutor != null) {
+			refreshExecutor.shutdown();
+			refreshExecutor = null;
+		}
+		if (batchExecutor != null) {
+			batchExecutor.shutdown();
+			batchExecutor = null;
+		}
+	}
+
+	public boolean isStaleWhileRevalidate() {
+		return staleWhileRevalidate;
+	}
+
+	/**
+	 * If true, a feed whose TTL has expired but which the cache still holds (see
+	 * {@link LinkedHashMapFeedCache#setMaxStaleMinutes(int)}) is returned immediately, and
+	 * refreshed in the background. Only applies to a {@link RevalidatingFeedCache}. Defaults to
+	 * false.
+	 */
+	public void setStaleWhileRevalidate(boolean staleWhileRevalidate) {
+		this.staleWhileRevalidate = staleWhileRevalidate;
+	}
+
+	public int getRefreshThreads() {
+		return refreshThreads;
+	}
+
+	/**
+	 * Sets the number of background refresh threads. Must be set before the first refresh.
+	 */
+	public void setRefreshThreads(int refreshThreads) {
+		this.refreshThreads = refreshThreads;
+	}
+
+	public int getRefreshQueueSize() {
+		return refreshQueueSize;
+	}
+
+	/**
+	 * Sets how many background refreshes may be queued. Must be set before the first refresh.
+	 */
+	public void setRefreshQueueSize(int refreshQueueSize) {
+		this.refreshQueueSize = refreshQueueSize;
+	}
+
+	public int getBatchThreads() {
+		return batchThreads;
+	}
+
+	/**
+	 * Sets the number of threads fetching for {@link #retrieveFeeds(Collection, long, TimeUnit)}.
+	 * Must be set before the first call.
+	 */
+	public void setBatchThreads(int batchThreads) {
+		this.batchThreads = batchThreads;
+	}
+
+	public int getMaxFetchesPerHost() {
+		return maxFetchesPerHost;
+	}
+
+	/**
+	 * Sets how many feeds {@link #retrieveFeeds(Collection, long, TimeUnit)} fetches from any one
+	 * host at the same time. Must be set before the first call.
+	 */
+	public void setMaxFetchesPerHost(int maxFetchesPerHost) {
+		this.maxFetchesPerHost = maxFetchesPerHost;
+	}
+
+	/**
+	 * @return the number of requests answered with a stale feed while it was refreshed
+	 */
+	public long getStaleResponses() {
+		return staleResponses.get();
+	}
+
+	/**
+	 * Fetches a feed, unless a fetch of the same URL is already in progress, in which case this
+	 * waits for and returns its result (or throws its exception) instead.
+	 *
+	 * Unless forced, the fetch is skipped if the feed is cached by the time it starts: a fetch which
+	 * completed between the caller's cache miss and this one starting has already refreshed it.
+	 */
+	protected SyndFeed fetchCoalesced(final URL feedUrl, final boolean force) throws IllegalArgumentException, IOException, FeedException, FetcherException {
+		String key = feedUrl.toExternalForm();
+		FutureTask<SyndFeed> task = new FutureTask<SyndFeed>(new Callable<SyndFeed>() {
+			public SyndFeed call() throws Exception {
+				if (!force) {
+					SyndFeed cached = feedCache.getFeed(feedUrl);
+					if (cached != null) {
+						return cached;
+					}
+				}
+				return fetchAndCache(feedUrl);
+			}
+		});
+		FutureTask<SyndFeed> inProgress = inFlight.putIfAbsent(key, task);
+		if (inProgress == null) {
+			try {
+				task.run();
+			} finally {
+				inFlight.remove(key, task);
+			}
+			return getResult(feedUrl, task);
+		} else {
+			coalescedRequests.incrementAndGet();
+			if (logger.isTraceEnabled()) {
+				logger.trace("waiting for in-flight fetch of " + key);
+			}
+			return getResult(feedUrl, inProgress);
+		}
+	}
+
+	/**
+	 * Fetches a feed from upstream and caches the result or the error.
+	 *
+	 * When a feed info cache is set, the fetch is a conditional request using the validators
+	 * (ETag/Last-Modified) saved from the last one. If upstream answers 304 Not Modified, the
+	 * previously parsed feed is returned and the cached copy is only marked as checked. Otherwise
+	 * the feed is cached for the freshness lifetime given by the response's Cache-Control or
+	 * Expires header, if it has one and the cache is a {@link RevalidatingFeedCache}.
+	 */
+	protected SyndFeed fetchAndCache(URL feedUrl) throws IllegalArgumentException, IOException, FeedException, FetcherException {
+		try {
+			unchanged.remove();
+			maxAge.remove();
+			SyndFeed result = fetchUpstream(feedUrl);
+			if (unchanged.get() != null && feedCache instanceof RevalidatingFeedCache
+					&& ((RevalidatingFeedCache) feedCache).touchFeed(feedUrl)) {
+				notModifiedResponses.incrementAndGet();
+				if (logger.isTraceEnabled()) {
+					logger.trace(feedUrl.toExternalForm() + " not modified, revalidated cached copy");
+				}
+			} else {
+				cacheFeed(feedUrl, result);
+			}
+			return result;
+		} catch (IllegalArgumentException e) {
+			cacheError(feedUrl, e);
+			throw e;
+		} catch (IOException e) {
+			cacheError(feedUrl, e);
+			throw e;				
+		} catch (FeedException e) {
+			cacheError(feedUrl, e);
+			throw e;
+		} catch (FetcherException e) {
+			cacheError(feedUrl, e);
+			throw e;
+		} finally {
+			unchanged.remove();
+			maxAge.remove();
+			request.remove();
+		}
+	}
+
+	private void cacheFeed(URL feedUrl, SyndFeed feed) {
+		Long seconds = maxAge.get();
+		if (seconds != null && feedCache instanceof RevalidatingFeedCache) {
+			((RevalidatingFeedCache) feedCache).setFeed(feedUrl, feed, seconds.longValue());
+		} else {
+			feedCache.setFeed(feedUrl, feed);
+		}
+	}
+
+	/**
+	 * Caches an error, classified as transient or permanent if the cache supports that.
+	 */
+	private void cacheError(URL feedUrl, Exception e) {
+		if (feedCache instanceof RevalidatingFeedCache) {
+			((RevalidatingFeedCache) feedCache).setFeedError(feedUrl, e.getLocalizedMessage(), FeedErrorType.classify(e));
+		} else {
+			feedCache.setFeedError(feedUrl, e.getLocalizedMessage());
+		}
+	}
+
+	private SyndFeed fetchUpstream(URL feedUrl) throws IllegalArgumentException, IOException, FeedException, FetcherException {
+		FeedCacheStatistics current = statistics;
+		if (current == null) {
+			return super.retrieveFeed(feedUrl);
+		}
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			SyndFeed result = super.retrieveFeed(feedUrl);
+			failed = false;
+			return result;
+		} finally {
+			current.recordFetch(System.nanoTime() - start, failed);
+		}
+	}
+
+	private SyndFeed getResult(URL feedUrl, Future<SyndFeed> future) throws IOException, FeedException, FetcherException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FetcherException("Interrupted waiting for " + feedUrl.toExternalForm(), e);
+		} catch (ExecutionException e) {
+			throw unwrap(feedUrl, e);
+		}
+	}
+
+	/**
+	 * Rethrows the cause of a failed fetch as itself where possible.
+	 */
+	private FetcherException unwrap(URL feedUrl, ExecutionException e) throws IOException, FeedException, FetcherException {
+		Throwable cause = e.getCause();
+		if (cause instanceof IOException) {
+			throw (IOException) cause;
+		} else if (cause instanceof FeedException) {
+			throw (FeedException) cause;
+		} else if (cause instanceof FetcherException) {
+			throw (FetcherException) cause;
+		} else if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new FetcherException("Fetching " + feedUrl.toExternalForm(), cause);
+	}
+
+	/**
+	 * @return the number of requests which waited for another thread's fetch of the same feed
+	 *         instead of fetching it themselves
+	 */
+	public long getCoalescedRequests() {
+		return coalescedRequests.get();
+	}
+
+	/**
+	 * @return the number of fetches answered 304 Not Modified, which only revalidated the cache
+	 */
+	public long getNotModifiedResponses() {
+		return notModifiedResponses.get();
+	}
+
+	public int getInFlightFetches() {
+		return inFlight.size();
+	}
+
+	public FeedCacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Sets where upstream fetch times and failures are recorded. Not recorded by default.
+	 */
+	public void setStatistics(FeedCacheStatistics statistics) {
+		this.statistics = statistics;
+	}
 }
@@ -0,0 +1,87 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+import au.edu.educationau.opensource.rome.diskcache.LinkedHashMapFeedCache.CacheInfo;
+
+/**
+ * Wraps another codec and writes the entry's last checked date in a fixed size header in front
+ * of it, so revalidating a feed can overwrite the date in place rather than rewrite the file.
+ *
+ * The header is a byte naming it followed by the date in milliseconds. Entries written without
+ * it start with a byte of the wrapped codec, which never clashes with the header byte, and are
+ * read as they were written.
+ */
+public class CheckedDateCacheCodec implements CacheCodec<CacheInfo> {
+	static final int HEADER_CHECKED_DATE = 0x02;
+	static final int HEADER_LENGTH = 9;
+
+	private final CacheCodec<CacheInfo> codec;
+
+	public CheckedDateCacheCodec(CacheCodec<CacheInfo> codec) {
+		this.codec = codec;
+	}
+
+	public void encode(CacheInfo value, OutputStream out) throws IOException {
+		DataOutputStream dos = new DataOutputStream(out);
+		dos.writeByte(HEADER_CHECKED_DATE);
+		dos.writeLong(value.getLastCheckedDate().getTime());
+		dos.flush();
+		codec.encode(value, out);
+	}
+
+	public CacheInfo decode(InputStream in) throws IOException {
+		if (!in.markSupported()) {
+			in = new BufferedInputStream(in);
+		}
+		in.mark(1);
+		if (in.read() != HEADER_CHECKED_DATE) {
+			in.reset();
+			return codec.decode(in);
+		}
+		long checked = new DataInputStream(in).readLong();
+		CacheInfo info = codec.decode(in);
+		info.setLastCheckedDate(new Date(checked));
+		return info;
+	}
+
+	/**
+	 * Overwrites the last checked date of an entry in place. The caller must stop the file being
+	 * read or replaced while this runs.
+	 *
+	 * @return false if the file has no header to overwrite, so must be rewritten instead
+	 */
+	public static boolean writeCheckedDate(File file, Date checked) throws IOException {
+		if (!file.exists()) {
+			return false;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.length() < HEADER_LENGTH || raf.read() != HEADER_CHECKED_DATE) {
+				return false;
+			}
+			byte[] date = new byte[HEADER_LENGTH - 1];
+			long millis = checked.getTime();
+			for (int i = date.length - 1; i >= 0; i--) {
+				date[i] = (byte) millis;
+				millis >>>= 8;
+			}
+			raf.write(date);
+			return true;
+		} finally {
+			raf.close();
+		}
+	}
+
+	public CacheCodec<CacheInfo> getCodec() {
+		return codec;
+	}
+}
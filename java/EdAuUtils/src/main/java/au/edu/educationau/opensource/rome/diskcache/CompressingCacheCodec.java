@@ -0,0 +1,73 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Wraps another codec and optionally compresses what it writes.
+ * 
+ * Compressed entries start with a header byte naming the compression. Uncompressed entries have
+ * no header; they start with the magic number of the wrapped codec, which never clashes with a
+ * header byte. Reading therefore works whatever mode an entry was written with, so the mode can
+ * be changed on an existing cache directory.
+ */
+public class CompressingCacheCodec<T> implements CacheCodec<T> {
+	static final int HEADER_DEFLATE = 0x01;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final CacheCodec<T> codec;
+	private final CompressionMode mode;
+
+	public CompressingCacheCodec(CacheCodec<T> codec, CompressionMode mode) {
+		this.codec = codec;
+		this.mode = mode;
+	}
+
+	public void encode(T value, OutputStream out) throws IOException {
+		if (mode == CompressionMode.DEFLATE) {
+			out.write(HEADER_DEFLATE);
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			try {
+				DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+				codec.encode(value, dos);
+				dos.finish();
+			} finally {
+				deflater.end();
+			}
+		} else {
+			codec.encode(value, out);
+		}
+	}
+
+	public T decode(InputStream in) throws IOException {
+		if (!in.markSupported()) {
+			in = new BufferedInputStream(in);
+		}
+		in.mark(1);
+		if (in.read() == HEADER_DEFLATE) {
+			Inflater inflater = new Inflater();
+			try {
+				return codec.decode(new BufferedInputStream(new InflaterInputStream(in, inflater, BUFFER_SIZE), BUFFER_SIZE));
+			} finally {
+				inflater.end();
+			}
+		}
+		in.reset();
+		return codec.decode(in);
+	}
+
+	public CacheCodec<T> getCodec() {
+		return codec;
+	}
+
+	public CompressionMode getMode() {
+		return mode;
+	}
+}
@@ -0,0 +1,12 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+/**
+ * Compression applied to cache files by {@link CompressingCacheCodec}.
+ */
+public enum CompressionMode {
+	/** Entries are written as the underlying codec produces them. */
+	NONE,
+
+	/** Entries are deflated at Deflater.BEST_SPEED, feed data typically shrinks to a fifth. */
+	DEFLATE
+}
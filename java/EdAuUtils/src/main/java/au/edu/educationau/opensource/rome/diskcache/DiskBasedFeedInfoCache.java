@@ -1,14 +1,19 @@
 package au.edu.educationau.opensource.rome.diskcache;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InvalidClassException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
 import java.net.URL;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.log4j.Logger;
@@ -19,13 +24,60 @@ import com.sun.syndication.fetcher.impl.SyndFeedInfo;
 public class DiskBasedFeedInfoCache implements FeedFetcherCache {
 
 	private static final String FILE_PREFIX = "_feedinfo";
+	private static final String GENERATION_FILE = "generation";
+	private static final String GENERATION_DIR_PREFIX = "gen-";
+
+	/**
+	 * The generation number, as decimal text.
+	 */
+	private static final CacheCodec<Integer> GENERATION_CODEC = new CacheCodec<Integer>() {
+		public void encode(Integer generation, OutputStream out) throws IOException {
+			out.write((generation.toString() + "\n").getBytes("US-ASCII"));
+		}
+
+		public Integer decode(InputStream in) throws IOException {
+			String line = new BufferedReader(new InputStreamReader(in, "US-ASCII")).readLine();
+			try {
+				return Integer.valueOf(line == null ? "" : line.trim());
+			} catch (NumberFormatException e) {
+				throw new StreamCorruptedException("Not a cache generation: " + line);
+			}
+		}
+	};
+
+	private static final FileFilter ENTRY_FILTER = new FileFilter() {
+		public boolean accept(File f) {
+			return f.getName().startsWith(FILE_PREFIX);
+		}
+	};
 
 	Logger logger = Logger.getLogger(getClass().getName());
 
 	private volatile String cachePath = null;
+	private volatile CachePathBuilder paths;
+	private volatile boolean readLegacyNames = true;
+	private int firstLevelShards = CacheUtils.DEFAULT_FIRST_LEVEL_SHARDS;
+	private int secondLevelShards = CacheUtils.DEFAULT_SECOND_LEVEL_SHARDS;
+	private boolean precreateShards;
+	private volatile int generation;
+
+	private final DiskCacheSweeper sweeper = new DiskCacheSweeper(ENTRY_FILTER);
+	private int sweepIntervalMinutes;
+	private ScheduledFuture<?> sweepTask;
 
+	private volatile boolean syncWrites;
+
+	private volatile CacheCodec<SyndFeedInfo> codec = new SerializingCacheCodec<SyndFeedInfo>();
+	private volatile CompressionMode compression = CompressionMode.NONE;
+	private volatile CompressingCacheCodec<SyndFeedInfo> fileCodec = new CompressingCacheCodec<SyndFeedInfo>(codec, compression);
+
+	/**
+	 * Guards the cache path and generation. Entries are guarded by entryLocks.
+	 */
 	protected ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
+	protected final StripedReadWriteLock entryLocks = new StripedReadWriteLock(DiskFeedCache.LOCK_STRIPES);
+
 	public DiskBasedFeedInfoCache() {
 		cachePath = System.getProperty("java.io.tmpdir") + File.separator + "feedinfocache" + File.separator;
 		initCache();
@@ -43,13 +95,84 @@ public class DiskBasedFeedInfoCache implements FeedFetcherCache {
 		if (!f.exists() && !f.mkdirs()) {
 			throw new RuntimeException("Could not create directory " + cachePath);
 		}
+		generation = readGeneration();
+		initGenerationLocked();
+	}
+
+	/**
+	 * MUST be called ONLY when lock.writeLock().lock() has been called
+	 */
+	private void initGenerationLocked() {
+		paths = new CachePathBuilder(getGenerationPath(), FILE_PREFIX, firstLevelShards, secondLevelShards, CachePathBuilder.DEFAULT_MEMO_SIZE);
+		if (precreateShards) {
+			paths.createAllShards();
+		}
+		deleteOldGenerations();
+	}
+
+	/**
+	 * Generation 0 is kept directly in the cache path, as it was before there were generations.
+	 */
+	private String getGenerationPath() {
+		if (generation == 0) {
+			return cachePath;
+		}
+		return cachePath + File.separator + GENERATION_DIR_PREFIX + generation + File.separator;
+	}
+
+	private int readGeneration() {
+		File file = new File(cachePath, GENERATION_FILE);
+		if (!file.exists()) {
+			return 0;
+		}
+		try {
+			FileInputStream fis = new FileInputStream(file);
+			try {
+				return GENERATION_CODEC.decode(fis).intValue();
+			} finally {
+				fis.close();
+			}
+		} catch (IOException e) {
+			// the entries of the lost generation are deleted as old ones
+			logger.warn("Unreadable cache generation in " + file.getAbsolutePath() + ", starting again from 0", e);
+			return 0;
+		}
+	}
+
+	/**
+	 * Deletes, in the background, the entries of any generation but the current one.
+	 */
+	private void deleteOldGenerations() {
+		final String current = GENERATION_DIR_PREFIX + generation;
+		File root = new File(cachePath);
+		File[] old = root.listFiles(new FileFilter() {
+			public boolean accept(File f) {
+				return f.isDirectory() && f.getName().startsWith(GENERATION_DIR_PREFIX) && !f.getName().equals(current);
+			}
+		});
+		if (old != null) {
+			for (File dir : old) {
+				DiskCacheSweeper.deleteInBackground(dir, null);
+			}
+		}
+		if (generation > 0) {
+			// generation 0, in the root; other caches may share the root, so only our own files
+			DiskCacheSweeper.deleteInBackground(root, new FileFilter() {
+				public boolean accept(File f) {
+					return f.isDirectory() ? !f.getName().startsWith(GENERATION_DIR_PREFIX) : ENTRY_FILTER.accept(f);
+				}
+			});
+		}
 	}
 
 	private void initCache() {
 		lock.writeLock().lock();
+		// wait for writes in progress, which build their file names under the entry locks
+		entryLocks.lockAllForWrite();
 		try {
 			initCacheLocked();
 		} finally {
+			entryLocks.unlockAllForWrite();
 			lock.writeLock().unlock();
 		}
 	}
@@ -65,159 +188,302 @@ public class DiskBasedFeedInfoCache implements FeedFetcherCache {
 
 	public void setCachePath(String cachePath) {
 		lock.writeLock().lock();
+		entryLocks.lockAllForWrite();
 		try {
 			this.cachePath = cachePath;
 			initCacheLocked();
 		} finally {
+			entryLocks.unlockAllForWrite();
 			lock.writeLock().unlock();
 		}
 	}
 
+	public boolean isSyncWrites() {
+		return syncWrites;
+	}
+
+	/**
+	 * If true every cache file is fsync'd before it is renamed into place. Defaults to false.
+	 */
+	public void setSyncWrites(boolean syncWrites) {
+		this.syncWrites = syncWrites;
+	}
+
+	public CacheCodec<SyndFeedInfo> getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Sets the format used for cache files. Defaults to Java serialization; use
+	 * {@link BinaryFeedInfoCodec} for smaller files which survive ROME upgrades.
+	 */
+	public void setCodec(CacheCodec<SyndFeedInfo> codec) {
+		this.codec = codec;
+		this.fileCodec = new CompressingCacheCodec<SyndFeedInfo>(codec, compression);
+	}
+
+	public CompressionMode getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Sets the compression used when writing cache files. Files are read whatever compression
+	 * they were written with, so this can be changed on an existing cache. Defaults to NONE.
+	 */
+	public void setCompression(CompressionMode compression) {
+		this.compression = compression;
+		this.fileCodec = new CompressingCacheCodec<SyndFeedInfo>(codec, compression);
+	}
+
+	public int getFirstLevelShards() {
+		return firstLevelShards;
+	}
+
+	/**
+	 * Sets the number of top level cache directories. Defaults to 41. Should be coprime with the
+	 * number of second level directories (eg, both prime). Entries written with a different
+	 * fan-out are not found.
+	 */
+	public void setFirstLevelShards(int firstLevelShards) {
+		this.firstLevelShards = firstLevelShards;
+		initCache();
+	}
+
+	public int getSecondLevelShards() {
+		return secondLevelShards;
+	}
+
+	/**
+	 * Sets the number of second level cache directories. Defaults to 373.
+	 * 
+	 * @see #setFirstLevelShards(int)
+	 */
+	public void setSecondLevelShards(int secondLevelShards) {
+		this.secondLevelShards = secondLevelShards;
+		initCache();
+	}
+
+	public boolean isPrecreateShards() {
+		return precreateShards;
+	}
+
+	/**
+	 * If true, every cache directory is created when the cache path is set, rather than when the
+	 * first entry is written to it. Defaults to false.
+	 */
+	public void setPrecreateShards(boolean precreateShards) {
+		this.precreateShards = precreateShards;
+		initCache();
+	}
+
+	public boolean isReadLegacyNames() {
+		return readLegacyNames;
+	}
+
+	/**
+	 * If true, an entry not found under its file name is looked for under the name older versions
+	 * used, and renamed if found. Costs an extra check on each miss. Defaults to true.
+	 */
+	public void setReadLegacyNames(boolean readLegacyNames) {
+		this.readLegacyNames = readLegacyNames;
+	}
+
 	protected String buildCachePath(URL url) {
-		return CacheUtils.buildCachePath(url, cachePath, FILE_PREFIX);
+		return paths.getPath(url);
 	}
 
-	public SyndFeedInfo getFeedInfo(URL url) {
-		lock.readLock().lock();
+	/**
+	 * Renames the file an older version wrote an entry to, if there is one, to its current name.
+	 * 
+	 * @return the file the entry is now in
+	 */
+	private File migrateLegacyFile(URL url, File file) {
+		File legacy = new File(paths.getLegacyPath(url));
+		if (legacy.equals(file) || !legacy.exists()) {
+			return file;
+		}
+		ReentrantReadWriteLock entryLock = entryLocks.forKey(url.toExternalForm());
+		entryLock.writeLock().lock();
 		try {
-			SyndFeedInfo info = null;
-			String fileName = buildCachePath(url);	
-			File file = new File(fileName);
-			if (file.exists()) {
-				FileInputStream fis = null;
-				boolean deleteFile = false;
+			if (!file.exists() && legacy.renameTo(file)) {
+				logger.debug("Migrated " + legacy.getAbsolutePath() + " to " + file.getAbsolutePath());
+			}
+			return file.exists() ? file : legacy;
+		} finally {
+			entryLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Deletes any file an older version wrote an entry to, so it cannot be migrated later.
+	 * MUST be called with the entry's write lock held.
+	 */
+	private void deleteLegacyFile(URL url, String fileName) {
+		if (readLegacyNames) {
+			File legacy = new File(paths.getLegacyPath(url));
+			if (!legacy.equals(new File(fileName)) && legacy.exists() && !legacy.delete()) {
+				logger.warn("Could not delete " + legacy.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Entries are only ever replaced by an atomic rename, so this does not need a lock.
+	 */
+	public SyndFeedInfo getFeedInfo(URL url) {
+		SyndFeedInfo info = null;
+		String fileName = buildCachePath(url);	
+		File file = new File(fileName);
+		if (!file.exists() && readLegacyNames) {
+			file = migrateLegacyFile(url, file);
+		}
+		if (file.exists()) {
+			FileInputStream fis = null;
+			boolean deleteFile = false;
+			try {
+				fis = new FileInputStream(file);				
+				info = fileCodec.decode(new BufferedInputStream(fis));
+			} catch (ObjectStreamException e) {
+				// this often happens if the serialized class has changed - eg, after an upgrade
+				logger.warn("Unreadable cache entry (class or format has changed) - cached item will be ignored");
+				deleteFile = true;					
+			} catch (FileNotFoundException e) {
+				// removed since the exists() check
+				logger.debug("Cache miss for " + url.toString());
+			} catch (Exception e) {
+				// Error writing to cache is fatal
+				logger.error("Attempting to read from cache", e);
+				throw new RuntimeException("Attempting to read from cache", e);
+			} finally {
+				if (fis != null) {
+					try {
+						fis.close();
+					} catch (IOException e) {
+						logger.warn("error closing file", e);
+					}
+				}					
+			}
+				
+			if (deleteFile) {
+				ReentrantReadWriteLock entryLock = entryLocks.forKey(url.toExternalForm());
+				entryLock.writeLock().lock();
 				try {
-					fis = new FileInputStream(fileName);				
-					ObjectInputStream ois = new ObjectInputStream(fis);
-					info = (SyndFeedInfo) ois.readObject();					
-				} catch (InvalidClassException ice) {
-					// this often happens if the serialized class has changed - eg, after an upgrade
-					logger.warn("Invalid class reading from cache - cached item will be ignored");
-					deleteFile = true;					
-				} catch (Exception e) {
-					// Error writing to cache is fatal
-					logger.error("Attempting to read from cache", e);
-					throw new RuntimeException("Attempting to read from cache", e);
-				} finally {
-					if (fis != null) {
-						try {
-							fis.close();
-						} catch (IOException e) {
-							logger.warn("error closing file", e);
-						}
-					}					
-				}
-					
-				if (deleteFile) {
 					file.delete();
-				} 
-				
-				if (info == null) {
-					logger.info("Cache miss for url " + url.toExternalForm());
+				} finally {
+					entryLock.writeLock().unlock();
 				}
-				
-			} else {
-				logger.debug("Cache miss for " + url.toString());
+			} 
+			
+			if (info == null) {
+				logger.info("Cache miss for url " + url.toExternalForm());
 			}
 			
-			return info;
-		} finally {
-			lock.readLock().unlock();
+		} else {
+			logger.debug("Cache miss for " + url.toString());
 		}
+		
+		return info;
 	}
 
 	public void setFeedInfo(URL url, SyndFeedInfo feedInfo) {
-		lock.readLock().lock();
+		ReentrantReadWriteLock entryLock = entryLocks.forKey(url.toExternalForm());
+		entryLock.writeLock().lock();
 		try {
+			// only now, so that clear() cannot change the generation between this and the write
 			String fileName = buildCachePath(url);
-			FileOutputStream fos;
-			// need a write lock. Must release read lock before acquiring write lock
-			lock.readLock().unlock();
-			lock.writeLock().lock();
-			try {
-				fos = new FileOutputStream(fileName);
-				ObjectOutputStream oos = new ObjectOutputStream(fos);
-				oos.writeObject(feedInfo);
-				fos.flush();
-				fos.close();
-			} catch (Exception e) {
-				// Error writing to cache is fatal
-				logger.error("Error writing cache", e);
-				throw new RuntimeException("Attempting to write to cache", e);
-			} finally {
-				// downgrade to a read lock
-				lock.readLock().lock();
-				lock.writeLock().unlock();
-			}
+			CacheUtils.writeAtomically(new File(fileName), feedInfo, fileCodec, syncWrites);
+			deleteLegacyFile(url, fileName);
+		} catch (Exception e) {
+			// Error writing to cache is fatal
+			logger.error("Error writing cache", e);
+			throw new RuntimeException("Attempting to write to cache", e);
 		} finally {
-			lock.readLock().unlock();
+			entryLock.writeLock().unlock();
 		}
 	}
 
 	/**
-	 * NOTE: <b>This will lock the cache while it is in progress. It maybe quite
-	 * slow!</b>
+	 * Starts a new, empty generation of the cache. Entries of the old generation are no longer
+	 * visible as soon as this returns, and their files are deleted in the background.
 	 */
 	public void clear() {
 		logger.info("Clearing feed info cache in " + cachePath);
 		lock.writeLock().lock();
+		// wait for writes in progress, so none lands in the old generation after it is deleted
+		entryLocks.lockAllForWrite();
 		try {
-			File cacheDir = new File(this.cachePath);
-			if (cacheDir.exists() && cacheDir.isDirectory()) {
-				deleteAllCacheFiles(cacheDir);
-			}
-
-			initCacheLocked();
+			generation++;
+			CacheUtils.writeAtomically(new File(cachePath, GENERATION_FILE), Integer.valueOf(generation), GENERATION_CODEC, true);
+			initGenerationLocked();
+		} catch (IOException e) {
+			generation--;
+			throw new RuntimeException("Attempting to clear cache", e);
 		} finally {
+			entryLocks.unlockAllForWrite();
 			lock.writeLock().unlock();
 		}
+	}
+
+	/**
+	 * Deletes entries until the cache is within its disk budget. Runs every
+	 * sweepIntervalMinutes if that is set.
+	 * 
+	 * @return the number of files deleted
+	 */
+	public int sweep() {
+		return sweeper.sweep(new File(getGenerationPath()));
+	}
 
+	public long getMaxDiskBytes() {
+		return sweeper.getMaxBytes();
 	}
 
-	private void deleteAllCacheFiles(File cacheDir) {
-		String[] filenames = cacheDir.list();
-		for (String name : filenames) {
-			File f = new File(cacheDir.getAbsolutePath() + File.separator + name);
-			if (f.isDirectory()) {
-				deleteAllCacheFiles(f);
-				if (f.list().length == 0) {
-					if (!f.delete()) {
-						logger.warn("Could not delete directory " + f.getAbsolutePath());
-					}
-				}
-			} else {
-				if (name.startsWith(FILE_PREFIX)) {
-					if (!f.delete()) {
-						logger.warn("Could not delete file " + f.getAbsolutePath());
-					}
+	/**
+	 * Sets the disk budget enforced by sweep(), deleting the least recently written entries
+	 * first, or 0 for no limit. Defaults to 0.
+	 */
+	public void setMaxDiskBytes(long maxDiskBytes) {
+		sweeper.setMaxBytes(maxDiskBytes);
+	}
+
+	public int getSweepIntervalMinutes() {
+		return sweepIntervalMinutes;
+	}
+
+	/**
+	 * Sets how often sweep() runs in the background, or 0 to never run it. Defaults to 0.
+	 */
+	public synchronized void setSweepIntervalMinutes(int sweepIntervalMinutes) {
+		this.sweepIntervalMinutes = sweepIntervalMinutes;
+		if (sweepTask != null) {
+			sweepTask.cancel(false);
+			sweepTask = null;
+		}
+		if (sweepIntervalMinutes > 0) {
+			sweepTask = DiskCacheSweeper.schedule(new Runnable() {
+				public void run() {
+					sweep();
 				}
-			}
+			}, sweepIntervalMinutes);
 		}
-
 	}
 
 	public SyndFeedInfo remove(URL feedUrl) {
-		lock.readLock().lock();
+		ReentrantReadWriteLock entryLock = entryLocks.forKey(feedUrl.toExternalForm());
+		entryLock.writeLock().lock();
 		try {
 			SyndFeedInfo result = getFeedInfo(feedUrl);
 			String fileName = buildCachePath(feedUrl);
 
-			lock.readLock().unlock();
-			lock.writeLock().lock();
-			try {
-				File file = new File(fileName);
-				if (file.exists() && !file.delete()) {
-					throw new RuntimeException("Could not delete file " + fileName);
-				}
-
-				return result;
-			} finally {
-				// downgrade to read lock
-				lock.readLock().lock();
-				lock.writeLock().unlock();
+			File file = new File(fileName);
+			if (file.exists() && !file.delete()) {
+				throw new RuntimeException("Could not delete file " + fileName);
 			}
+			deleteLegacyFile(feedUrl, fileName);
+
+			return result;
 		} finally {
-			lock.readLock().unlock();
+			entryLock.writeLock().unlock();
 		}
 	}
 }
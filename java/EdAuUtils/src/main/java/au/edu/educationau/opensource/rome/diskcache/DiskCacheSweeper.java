@@ -0,0 +1,205 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Housekeeping for the file per entry caches: deleting expired entries, keeping the cache within
+ * a disk budget, and deleting cleared generations of a cache in the background.
+ *
+ * An entry's age is taken from its file's modification time, which is when it was last written.
+ * When over budget, the oldest files are deleted first. Files are deleted without taking the
+ * cache's entry locks, so an entry rewritten at the same moment may be lost, which only costs a
+ * cache miss.
+ *
+ * All caches share a single daemon maintenance thread.
+ */
+public class DiskCacheSweeper {
+	static final Logger logger = Logger.getLogger(DiskCacheSweeper.class);
+
+	/**
+	 * Temporary files left by an interrupted write are deleted once they are this old.
+	 */
+	private static final long STALE_TEMP_FILE_MILLIS = 60L * 60L * 1000L;
+
+	private static ScheduledExecutorService executor;
+
+	private static final class Entry {
+		final File file;
+		final long lastModified;
+		final long length;
+
+		Entry(File file, long lastModified, long length) {
+			this.file = file;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+
+	private final FileFilter entryFilter;
+	private volatile long maxAgeMillis;
+	private volatile long maxBytes;
+
+	/**
+	 * @param entryFilter accepts the cache's entry files (and their temporary files)
+	 */
+	public DiskCacheSweeper(FileFilter entryFilter) {
+		this.entryFilter = entryFilter;
+	}
+
+	static synchronized ScheduledExecutorService getExecutor() {
+		if (executor == null) {
+			executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "disk-cache-maintenance");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Runs a cache's sweep every intervalMinutes on the maintenance thread.
+	 */
+	static ScheduledFuture<?> schedule(final Runnable sweep, int intervalMinutes) {
+		return getExecutor().scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					sweep.run();
+				} catch (RuntimeException e) {
+					logger.error("Sweeping disk cache", e);
+				}
+			}
+		}, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Deletes the files under a directory in the background, descending into its subdirectories
+	 * and deleting those which are left empty.
+	 *
+	 * @param filter selects the files to delete and the directories to descend into, or null for
+	 *            everything
+	 */
+	static void deleteInBackground(final File dir, final FileFilter filter) {
+		getExecutor().execute(new Runnable() {
+			public void run() {
+				long start = System.currentTimeMillis();
+				int deleted = deleteTree(dir, filter);
+				logger.info("Deleted " + deleted + " files from " + dir.getAbsolutePath() + " in " + (System.currentTimeMillis() - start) + "ms");
+			}
+		});
+	}
+
+	private static int deleteTree(File dir, FileFilter filter) {
+		File[] children = filter == null ? dir.listFiles() : dir.listFiles(filter);
+		int deleted = 0;
+		if (children != null) {
+			for (File child : children) {
+				if (child.isDirectory()) {
+					deleted += deleteTree(child, filter);
+				} else if (child.delete()) {
+					deleted++;
+				} else {
+					logger.warn("Could not delete file " + child.getAbsolutePath());
+				}
+			}
+		}
+		// only succeeds if nothing else was left in it
+		dir.delete();
+		return deleted;
+	}
+
+	/**
+	 * Deletes the expired entries under a cache directory, then the oldest entries until the
+	 * rest fit within the disk budget.
+	 *
+	 * @return the number of files deleted
+	 */
+	public int sweep(File root) {
+		long start = System.currentTimeMillis();
+		long expiredBefore = maxAgeMillis > 0 ? start - maxAgeMillis : Long.MIN_VALUE;
+		List<Entry> kept = maxBytes > 0 ? new ArrayList<Entry>() : null;
+		long[] totals = new long[2]; // deleted, bytes kept
+		walk(root, start, expiredBefore, kept, totals);
+
+		int deleted = (int) totals[0];
+		long bytes = totals[1];
+		if (kept != null && bytes > maxBytes) {
+			Collections.sort(kept, new Comparator<Entry>() {
+				public int compare(Entry a, Entry b) {
+					return a.lastModified < b.lastModified ? -1 : (a.lastModified == b.lastModified ? 0 : 1);
+				}
+			});
+			for (int i = 0; i < kept.size() && bytes > maxBytes; i++) {
+				Entry entry = kept.get(i);
+				if (entry.file.delete()) {
+					bytes -= entry.length;
+					deleted++;
+				}
+			}
+		}
+		logger.info("Swept " + root.getAbsolutePath() + ": deleted " + deleted + " files, " + bytes + " bytes remain, in "
+				+ (System.currentTimeMillis() - start) + "ms");
+		return deleted;
+	}
+
+	private void walk(File dir, long now, long expiredBefore, List<Entry> kept, long[] totals) {
+		File[] children = dir.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				walk(child, now, expiredBefore, kept, totals);
+			} else if (entryFilter.accept(child)) {
+				long lastModified = child.lastModified();
+				boolean staleTemp = child.getName().endsWith(".tmp") && lastModified < now - STALE_TEMP_FILE_MILLIS;
+				if ((lastModified < expiredBefore || staleTemp) && child.delete()) {
+					totals[0]++;
+				} else {
+					long length = child.length();
+					totals[1] += length;
+					if (kept != null) {
+						kept.add(new Entry(child, lastModified, length));
+					}
+				}
+			}
+		}
+	}
+
+	public long getMaxAgeMillis() {
+		return maxAgeMillis;
+	}
+
+	/**
+	 * Sets the age after which entries are deleted, or 0 to keep entries whatever their age.
+	 */
+	public void setMaxAgeMillis(long maxAgeMillis) {
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Sets the disk budget, or 0 for no limit.
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+}
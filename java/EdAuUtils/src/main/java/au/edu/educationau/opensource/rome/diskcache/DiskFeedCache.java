@@ -1,35 +1,99 @@
 package au.edu.educationau.opensource.rome.diskcache;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.lang.ref.SoftReference;
+import java.io.ObjectStreamException;
 import java.net.URL;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.log4j.Logger;
 
+import au.edu.educationau.opensource.collections.SegmentedLruCache;
+
 import com.sun.syndication.feed.synd.SyndFeed;
 import com.sun.syndication.fetcher.FetcherException;
 
 public class DiskFeedCache extends LinkedHashMapFeedCache {
+	static final int LOCK_STRIPES = 64;
+	static final long DEFAULT_MEMORY_CACHE_WEIGHT = 20000;
+
+	/**
+	 * Weighs a cached feed by its number of entries, which tracks its memory use far better than
+	 * counting feeds does.
+	 */
+	static final SegmentedLruCache.Weigher<CacheInfo> ENTRY_COUNT_WEIGHER = new SegmentedLruCache.Weigher<CacheInfo>() {
+		public int weigh(CacheInfo info) {
+			if (info.getFeed() == null || info.getFeed().getEntries() == null) {
+				return 1;
+			}
+			return 1 + info.getFeed().getEntries().size();
+		}
+	};
+
+	private static final String FILE_PREFIX = "_feed";
+
+	private static final FileFilter ENTRY_FILTER = new FileFilter() {
+		public boolean accept(File f) {
+			// not the files of a DiskBasedFeedInfoCache sharing the directory
+			return f.getName().startsWith(FILE_PREFIX) && !f.getName().startsWith("_feedinfo");
+		}
+	};
+
 	Logger logger = Logger.getLogger(getClass().getName());
 
 	private volatile String cachePath = null;
-	private volatile long diskCacheHits;
-	private volatile long memoryCacheHits;
-	private volatile long cacheMisses;
-	private volatile long cacheExpiries;
+	private volatile CachePathBuilder paths;
+	private volatile boolean readLegacyNames = true;
+	private int firstLevelShards = CacheUtils.DEFAULT_FIRST_LEVEL_SHARDS;
+	private int secondLevelShards = CacheUtils.DEFAULT_SECOND_LEVEL_SHARDS;
+	private boolean precreateShards;
+
+	private final DiskCacheSweeper sweeper = new DiskCacheSweeper(ENTRY_FILTER);
+	private int sweepIntervalMinutes;
+	private ScheduledFuture<?> sweepTask;
+	private volatile FeedCacheStatistics statistics = new FeedCacheStatistics();
+
+	private static final class PendingWrite {
+		final URL url;
+		final CacheInfo info;
+
+		PendingWrite(URL url, CacheInfo info) {
+			this.url = url;
+			this.info = info;
+		}
+	}
 
+	private volatile boolean syncWrites;
+	private volatile CacheCodec<CacheInfo> codec = new SerializingCacheCodec<CacheInfo>();
+	private volatile CompressionMode compression = CompressionMode.NONE;
+	private volatile CacheCodec<CacheInfo> fileCodec = fileCodec(codec, compression);
+
+	/**
+	 * Guards the cache path configuration only. Entries are guarded by entryLocks.
+	 */
 	protected volatile ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
-	private Map<String, SoftReference<CacheInfo>> memCache = Collections.synchronizedMap(new HashMap<String, SoftReference<CacheInfo>>());
+	protected final StripedReadWriteLock entryLocks = new StripedReadWriteLock(LOCK_STRIPES);
+
+	private final WriteBehindQueue<PendingWrite> pendingWrites = new WriteBehindQueue<PendingWrite>("feed-cache-writer", entryLocks,
+			new WriteBehindQueue.Writer<PendingWrite>() {
+				public void write(String key, PendingWrite pending) throws IOException {
+					String fileName = buildCachePath(pending.url);
+					writeToDisk(new File(fileName), pending.info);
+					deleteLegacyFile(pending.url, fileName);
+				}
+
+				public PendingWrite coalesce(PendingWrite waiting, PendingWrite latest) {
+					return latest;
+				}
+			});
+
+	private volatile SegmentedLruCache<String, CacheInfo> memCache = new SegmentedLruCache<String, CacheInfo>(DEFAULT_MEMORY_CACHE_WEIGHT, ENTRY_COUNT_WEIGHER);
 
 	public DiskFeedCache() {
 		cachePath = System.getProperty("java.io.tmpdir") + File.separator + "feedinfo" + File.separator;
@@ -42,6 +106,10 @@ public class DiskFeedCache extends LinkedHashMapFeedCache {
 	 */	
 	private void initCacheLocked() {
 		logger.info("Feed Cache path set to " + cachePath);
+		paths = new CachePathBuilder(cachePath, FILE_PREFIX, firstLevelShards, secondLevelShards, CachePathBuilder.DEFAULT_MEMO_SIZE);
+		if (precreateShards) {
+			paths.createAllShards();
+		}
 		File f = new File(cachePath);
 		if (f.exists() && !f.isDirectory()) {
 			throw new RuntimeException("Configured cache directory already exists as a file: " + cachePath);
@@ -54,28 +122,67 @@ public class DiskFeedCache extends LinkedHashMapFeedCache {
 	
 	private void initCache() {
 		lock.writeLock().lock();
+		// wait for writes in progress, which build their file names under the entry locks
+		entryLocks.lockAllForWrite();
 		try {	
 			initCacheLocked();
 		} finally {
+			entryLocks.unlockAllForWrite();
 			lock.writeLock().unlock();
 		}
 	}
 	
 
+	public FeedCacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Sets where hits, misses and disk latencies are counted, eg, to share them with a
+	 * {@link CachingFeedFetcher} or export them as an MBean.
+	 */
+	public void setStatistics(FeedCacheStatistics statistics) {
+		this.statistics = statistics;
+	}
+
 	public long getMemoryCacheHits() {
-		return memoryCacheHits;
+		return statistics.getMemoryHits();
 	}
 
 	public long getCacheExpiries() {
-		return cacheExpiries;
+		return statistics.getExpiries();
 	}
 
 	public long getDiskCacheHits() {
-		return diskCacheHits;
+		return statistics.getDiskHits();
 	}
 
 	public long getCacheMisses() {
-		return cacheMisses;
+		return statistics.getMisses();
+	}
+
+	public long getMemoryCacheEvictions() {
+		return memCache.getEvictionCount();
+	}
+
+	public int getMemoryCacheSize() {
+		return memCache.size();
+	}
+
+	public long getMemoryCacheWeight() {
+		return memCache.getWeightedSize();
+	}
+
+	public long getMemoryCacheMaxWeight() {
+		return memCache.getMaxWeight();
+	}
+
+	/**
+	 * Sets the capacity of the in-memory tier, as a total number of feed entries (each cached
+	 * feed weighs one plus its number of entries). Replaces, and so empties, the memory tier.
+	 */
+	public void setMemoryCacheMaxWeight(long maxWeight) {
+		memCache = new SegmentedLruCache<String, CacheInfo>(maxWeight, ENTRY_COUNT_WEIGHER);
 	}
 
 	public String getCachePath() {
@@ -89,90 +196,357 @@ public class DiskFeedCache extends LinkedHashMapFeedCache {
 
 	public void setCachePath(String cachePath) {
 		lock.writeLock().lock();
+		entryLocks.lockAllForWrite();
 		try {			
 			this.cachePath = cachePath;
 			initCacheLocked();
 		} finally {
+			entryLocks.unlockAllForWrite();
 			lock.writeLock().unlock();
 		}			
 	}
 
+	public boolean isSyncWrites() {
+		return syncWrites;
+	}
+
+	/**
+	 * If true every cache file is fsync'd before it is renamed into place. Safer across power
+	 * loss, but considerably slower. Defaults to false.
+	 */
+	public void setSyncWrites(boolean syncWrites) {
+		this.syncWrites = syncWrites;
+	}
+
+	public CacheCodec<CacheInfo> getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Sets the format used for cache files. Defaults to Java serialization; use
+	 * {@link BinaryCacheInfoCodec} for smaller files which survive ROME upgrades.
+	 */
+	public void setCodec(CacheCodec<CacheInfo> codec) {
+		this.codec = codec;
+		this.fileCodec = fileCodec(codec, compression);
+	}
+
+	public CompressionMode getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Sets the compression used when writing cache files. Files are read whatever compression
+	 * they were written with, so this can be changed on an existing cache. Defaults to NONE.
+	 */
+	public void setCompression(CompressionMode compression) {
+		this.compression = compression;
+		this.fileCodec = fileCodec(codec, compression);
+	}
+
+	private static CacheCodec<CacheInfo> fileCodec(CacheCodec<CacheInfo> codec, CompressionMode compression) {
+		return new CheckedDateCacheCodec(new CompressingCacheCodec<CacheInfo>(codec, compression));
+	}
+
+	/**
+	 * Deletes the files of entries which have expired and are past their stale period, then the
+	 * least recently written entries until the cache is within its disk budget. Runs every
+	 * sweepIntervalMinutes if that is set.
+	 * 
+	 * @return the number of files deleted
+	 */
+	public int sweep() {
+		int maxTtl = Math.max(Math.max(getTtlMinutes(), getMaxFeedTtlMinutes()), Math.max(getTransientErrorTtlMinutes(), getPermanentErrorTtlMinutes()));
+		sweeper.setMaxAgeMillis((maxTtl + getMaxStaleMinutes()) * 60L * 1000L);
+		return sweeper.sweep(new File(cachePath));
+	}
+
+	public long getMaxDiskBytes() {
+		return sweeper.getMaxBytes();
+	}
+
+	/**
+	 * Sets the disk budget enforced by sweep(), deleting the least recently written entries
+	 * first, or 0 for no limit. Defaults to 0.
+	 */
+	public void setMaxDiskBytes(long maxDiskBytes) {
+		sweeper.setMaxBytes(maxDiskBytes);
+	}
+
+	public int getSweepIntervalMinutes() {
+		return sweepIntervalMinutes;
+	}
+
+	/**
+	 * Sets how often sweep() runs in the background, or 0 to never run it. Defaults to 0.
+	 */
+	public synchronized void setSweepIntervalMinutes(int sweepIntervalMinutes) {
+		this.sweepIntervalMinutes = sweepIntervalMinutes;
+		if (sweepTask != null) {
+			sweepTask.cancel(false);
+			sweepTask = null;
+		}
+		if (sweepIntervalMinutes > 0) {
+			sweepTask = DiskCacheSweeper.schedule(new Runnable() {
+				public void run() {
+					sweep();
+				}
+			}, sweepIntervalMinutes);
+		}
+	}
+
+	public boolean isWriteBehind() {
+		return pendingWrites.isEnabled();
+	}
+
+	/**
+	 * If true, entries are written to disk by a background thread rather than the thread caching
+	 * them, which only updates the memory tier. Entries queued again before they are written are
+	 * only written once, in their latest version. When maxPendingWrites entries are waiting,
+	 * callers block until the writer catches up. Entries still waiting are written on
+	 * shutdown(), or by a JVM shutdown hook. Defaults to false.
+	 */
+	public void setWriteBehind(boolean writeBehind) {
+		if (writeBehind) {
+			pendingWrites.start();
+		} else {
+			shutdown();
+		}
+	}
+
+	public int getMaxPendingWrites() {
+		return pendingWrites.getMaxPending();
+	}
+
+	/**
+	 * Sets how many entries may be waiting to be written before callers block. Defaults to 1000.
+	 * Must be set before write behind is turned on.
+	 */
+	public void setMaxPendingWrites(int maxPendingWrites) {
+		pendingWrites.setMaxPending(maxPendingWrites);
+	}
+
+	/**
+	 * @return the number of entries waiting to be written
+	 */
+	public int getPendingWrites() {
+		return pendingWrites.size();
+	}
+
+	/**
+	 * Turns write behind off, writing any entries still waiting. Call when the cache is no longer
+	 * used, eg, as a Spring destroy-method.
+	 */
+	public void shutdown() {
+		pendingWrites.shutdown();
+	}
+
+	/**
+	 * Writes every entry waiting to be written, on the calling thread.
+	 */
+	public void flush() {
+		pendingWrites.flush();
+	}
+
 	public void resetCacheInfo() {
-		diskCacheHits = 0;
-		cacheMisses = 0;
-		cacheExpiries = 0;
+		statistics.reset();
+	}
+
+	public int getFirstLevelShards() {
+		return firstLevelShards;
+	}
+
+	/**
+	 * Sets the number of top level cache directories. Defaults to 41. Should be coprime with the
+	 * number of second level directories (eg, both prime). Entries written with a different
+	 * fan-out are not found.
+	 */
+	public void setFirstLevelShards(int firstLevelShards) {
+		this.firstLevelShards = firstLevelShards;
+		initCache();
+	}
+
+	public int getSecondLevelShards() {
+		return secondLevelShards;
+	}
+
+	/**
+	 * Sets the number of second level cache directories. Defaults to 373.
+	 * 
+	 * @see #setFirstLevelShards(int)
+	 */
+	public void setSecondLevelShards(int secondLevelShards) {
+		this.secondLevelShards = secondLevelShards;
+		initCache();
+	}
+
+	public boolean isPrecreateShards() {
+		return precreateShards;
+	}
+
+	/**
+	 * If true, every cache directory is created when the cache path is set, rather than when the
+	 * first entry is written to it. Defaults to false.
+	 */
+	public void setPrecreateShards(boolean precreateShards) {
+		this.precreateShards = precreateShards;
+		initCache();
+	}
+
+	public boolean isReadLegacyNames() {
+		return readLegacyNames;
+	}
+
+	/**
+	 * If true, an entry not found under its file name is looked for under the name older versions
+	 * used, and renamed if found. Costs an extra check on each miss. Defaults to true.
+	 */
+	public void setReadLegacyNames(boolean readLegacyNames) {
+		this.readLegacyNames = readLegacyNames;
 	}
 
 	protected String buildCachePath(URL url) {
-		return CacheUtils.buildCachePath(url, cachePath, "_feed");		
+		return paths.getPath(url);		
 	}
 
-	private CacheInfo getFromCache(URL url) throws IOException, ClassNotFoundException {
-		lock.readLock().lock();
+	/**
+	 * Renames the file an older version wrote an entry to, if there is one, to its current name.
+	 * 
+	 * @return the file the entry is now in
+	 */
+	private File migrateLegacyFile(URL url, File file) {
+		File legacy = new File(paths.getLegacyPath(url));
+		if (legacy.equals(file) || !legacy.exists()) {
+			return file;
+		}
+		ReentrantReadWriteLock entryLock = entryLocks.forKey(url.toExternalForm());
+		entryLock.writeLock().lock();
 		try {
-			CacheInfo cacheInfo = getFromMemCache(url);
-			if (cacheInfo == null) {
-				String fileName = buildCachePath(url);
-				File file = new File(fileName);
-				if (file.exists()) {
-					diskCacheHits++;
-					boolean deleteFile = false;
-					FileInputStream fis = null;
-					try {
-						fis = new FileInputStream(file);
-						ObjectInputStream ois = new ObjectInputStream(fis);
-						try {
-							cacheInfo = (CacheInfo) ois.readObject();
-						} catch (java.io.InvalidClassException e) {
-							// this often happens if the serialized class has changed - eg, after an upgrade
-							logger.warn("Invalid class reading from cache - cached item will be ignored");
-							deleteFile = true;
-						} catch (java.io.EOFException e) {
-							// this may happen if the file cached becomes corrupt
-							logger.warn("EOF Exception caught fetching feed from cache, possible corruption, deleting file");
-							deleteFile = true;
-						}
-					} finally {
-						if (fis != null) {
-							try {
-								fis.close();
-							} catch (IOException e) {
-								logger.warn("error closing file", e);
-							}
-						}
-					}
-					
-					if (deleteFile) {
-						file.delete();
-					}
-				}
-			} else {
-				memoryCacheHits++;
+			if (!file.exists() && legacy.renameTo(file)) {
+				logger.debug("Migrated " + legacy.getAbsolutePath() + " to " + file.getAbsolutePath());
+			}
+			return file.exists() ? file : legacy;
+		} finally {
+			entryLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Deletes any file an older version wrote an entry to, so it cannot be migrated later.
+	 * MUST be called with the entry's write lock held.
+	 */
+	private void deleteLegacyFile(URL url, String fileName) {
+		if (readLegacyNames) {
+			File legacy = new File(paths.getLegacyPath(url));
+			if (!legacy.equals(new File(fileName)) && legacy.exists() && !legacy.delete()) {
+				logger.warn("Could not delete " + legacy.getAbsolutePath());
 			}
+		}
+	}
+
+	/**
+	 * Entries are replaced by an atomic rename, but touchFeed() overwrites the last checked date in
+	 * place, so files are read under the entry's read lock.
+	 */
+	private CacheInfo getFromCache(URL url) throws IOException {
+		CacheInfo cacheInfo = getFromMemory(url);
+		return cacheInfo != null ? cacheInfo : readFromDisk(url);
+	}
+
+	/**
+	 * @return the entry from the memory tier, or waiting to be written to disk
+	 */
+	private CacheInfo getFromMemory(URL url) {
+		// not yet on disk, and may have been evicted from memory
+		PendingWrite pending = pendingWrites.get(url.toExternalForm());
+		if (pending != null) {
+			return pending.info;
+		}
+		return getFromMemCache(url);
+	}
 
-			return cacheInfo;
+	private CacheInfo readFromDisk(URL url) throws IOException {
+		String fileName = buildCachePath(url);
+		File file = new File(fileName);
+		if (!file.exists() && readLegacyNames) {
+			file = migrateLegacyFile(url, file);
+		}
+		if (!file.exists()) {
+			return null;
+		}
+		CacheInfo cacheInfo = null;
+		long start = System.nanoTime();
+		boolean deleteFile = false;
+		FileInputStream fis = null;
+		ReentrantReadWriteLock entryLock = entryLocks.forKey(url.toExternalForm());
+		entryLock.readLock().lock();
+		try {
+			fis = new FileInputStream(file);
+			try {
+				CountingInputStream in = new CountingInputStream(fis);
+				cacheInfo = fileCodec.decode(new BufferedInputStream(in));
+				statistics.recordDiskRead(in.getCount(), System.nanoTime() - start);
+			} catch (ObjectStreamException e) {
+				// this often happens if the serialized class has changed - eg, after an upgrade
+				logger.warn("Unreadable cache entry (class or format has changed) - cached item will be ignored");
+				deleteFile = true;
+			} catch (java.io.EOFException e) {
+				// this may happen if the file cached becomes corrupt
+				logger.warn("EOF Exception caught fetching feed from cache, possible corruption, deleting file");
+				deleteFile = true;
+			}
+		} catch (FileNotFoundException e) {
+			// removed since the exists() check
+			return null;
 		} finally {
-			lock.readLock().unlock();
+			if (fis != null) {
+				try {
+					fis.close();
+				} catch (IOException e) {
+					logger.warn("error closing file", e);
+				}
+			}
+			entryLock.readLock().unlock();
 		}
+		
+		if (deleteFile) {
+			entryLock.writeLock().lock();
+			try {
+				file.delete();
+			} finally {
+				entryLock.writeLock().unlock();
+			}
+		}
+		return cacheInfo;
 	}
 
+	/**
+	 * Counts exactly one of a memory hit, disk hit, expiry or miss.
+	 */
 	@Override
 	public SyndFeed getFeed(URL url) throws FetcherException {		
+		recordAccess(url);
 		try {
-			CacheInfo cacheInfo = getFromCache(url);
+			CacheInfo cacheInfo = getFromMemory(url);
+			boolean fromDisk = cacheInfo == null;
+			if (fromDisk) {
+				cacheInfo = readFromDisk(url);
+			}
 			if (cacheInfo == null) {
-				cacheMisses++;
+				statistics.recordMiss();
 				// not in cache yet
 				logger.info("cache miss: " + url.toExternalForm());
 				return null;
 			} else {
 				if (cacheHasExpired(cacheInfo)) {
-					// has expired
-					// remove old version
-					removeFromCache(url);
+					// has expired, but a feed is kept so a 304 from upstream can revalidate it
+					if (cacheInfo.getFeed() == null && staleCacheHasExpired(cacheInfo)) {
+						// remove old version
+						removeFromCache(url);
+					}
 
 					logger.info("cache expired: " + url.toExternalForm());
-					cacheExpiries++;
+					statistics.recordExpiry();
 					return null;
 				} else {
 					if (logger.isTraceEnabled()) {
@@ -180,8 +554,13 @@ public class DiskFeedCache extends LinkedHashMapFeedCache {
 					}
 
 					// not expired
+					if (fromDisk) {
+						statistics.recordDiskHit();
+					} else {
+						statistics.recordMemoryHit();
+					}
 					addToMemCache(url, cacheInfo);
-					if (cacheInfo.isHasError()) {
+					if (cacheInfo.isHasError() && cacheInfo.getFeed() == null) {
 						logger.info(url.toExternalForm() + " has cached errors!");
 						throw new FetcherException("cached " + cacheInfo.getErrorMessage());
 					}
@@ -191,130 +570,183 @@ public class DiskFeedCache extends LinkedHashMapFeedCache {
 		} catch (IOException e) {
 			logger.error("Attempting to read from cache", e);
 			throw new FetcherException("Attempting to read from cache", e);
-		} catch (ClassNotFoundException e) {
+		} 
+	}
+
+	@Override
+	public SyndFeed getStaleFeed(URL url) throws FetcherException {
+		try {
+			CacheInfo cacheInfo = getFromCache(url);
+			if (cacheInfo == null || cacheInfo.getFeed() == null || staleCacheHasExpired(cacheInfo)) {
+				return null;
+			}
+			return cacheInfo.getFeed();
+		} catch (IOException e) {
 			logger.error("Attempting to read from cache", e);
 			throw new FetcherException("Attempting to read from cache", e);
-		} 
+		}
 	}
 
 	private void addToMemCache(URL url, CacheInfo cacheInfo) {
-		// this does not need to use the lock, because memCache is synchronized
-		memCache.put(url.toExternalForm(), new SoftReference<CacheInfo>(cacheInfo));
+		// this does not need to use the lock, because memCache is thread safe
+		memCache.put(url.toExternalForm(), cacheInfo);
 	}
 
 	private CacheInfo getFromMemCache(URL url) {
-		// this does not need to use the lock, because memCache is synchronized
-		SoftReference<CacheInfo> sr = memCache.get(url.toExternalForm());
-		if (sr != null) {
-			CacheInfo info = sr.get(); // may return null if has been collected
-			if (info == null) {
-				memCache.remove(url.toExternalForm());
-			}
-			return info;
-		} else {
-			return null;
-		}
+		// this does not need to use the lock, because memCache is thread safe
+		return memCache.get(url.toExternalForm());
 	}
 
 	private void removeFromCache(URL url) {
-		lock.readLock().lock();
+		ReentrantReadWriteLock entryLock = entryLocks.forKey(url.toExternalForm());
+		entryLock.writeLock().lock();
 		try {
 			String fileName = buildCachePath(url);
+			pendingWrites.cancel(url.toExternalForm());
 			File file = new File(fileName);
-			lock.readLock().unlock();
-			lock.writeLock().lock();
-			try {
-				if (file.exists() && !file.delete()) {
-					throw new RuntimeException("Could not delete file " + fileName);
-				}
-				// remove from memory cache
-				memCache.remove(url.toExternalForm());
-			} finally {
-				// downgrade the lock
-				lock.readLock().lock();
-				lock.writeLock().unlock();				
+			if (file.exists() && !file.delete()) {
+				throw new RuntimeException("Could not delete file " + fileName);
 			}
+			deleteLegacyFile(url, fileName);
+			// remove from memory cache
+			memCache.remove(url.toExternalForm());
 		} finally {
-			lock.readLock().unlock();
-		}			
+			entryLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * MUST be called with the entry's write lock held.
+	 */
+	private void writeToDisk(File file, CacheInfo info) throws IOException {
+		long start = System.nanoTime();
+		long bytes = CacheUtils.writeAtomically(file, info, fileCodec, syncWrites);
+		statistics.recordDiskWrite(bytes, System.nanoTime() - start);
 	}
 
 	@Override
-	public void setFeedError(URL url, String error) {		
+	public void setFeedError(URL url, String error, FeedErrorType errorType) {		
 		try {
-			logger.info("Caching error for " + url.toExternalForm() + " (Error msg is " + error + ")");
-			CacheInfo cacheInfo = getFromCache(url);
-			if (cacheInfo == null) {				
-				lock.writeLock().lock();
-				try {
-				
-					// not already in cache
-					CacheInfo info = new CacheInfo(error);
-					addToMemCache(url, info);
-	
-					String fileName = buildCachePath(url);
-					FileOutputStream fos = null;
-					try {
-						fos = new FileOutputStream(fileName);
-						ObjectOutputStream oos = new ObjectOutputStream(fos);
-						oos.writeObject(info);
-						fos.flush();
-					} finally {
-						try {
-							if (fos != null) {
-								fos.close();
-							}
-						} catch (IOException e) {
-							logger.warn("error closing file", e);
-						}
-					}
-				} finally {
-					lock.writeLock().unlock();					
+			logger.info("Caching " + errorType + " error for " + url.toExternalForm() + " (Error msg is " + error + ")");
+			if (pendingWrites.isEnabled()) {
+				// queued without the entry lock, which the writer thread needs
+				CacheInfo info = CacheInfo.forError(getFromCache(url), error, errorType);
+				addToMemCache(url, info);
+				if (pendingWrites.queue(url.toExternalForm(), new PendingWrite(url, info))) {
+					return;
 				}
-			} else {
-				logger.info("Error for " + url.toExternalForm() + " already cached");
+			}
+			ReentrantReadWriteLock entryLock = entryLocks.forKey(url.toExternalForm());
+			entryLock.writeLock().lock();
+			try {
+				// a transient error keeps the last good feed
+				CacheInfo info = CacheInfo.forError(getFromCache(url), error, errorType);
+				addToMemCache(url, info);
+
+				pendingWrites.cancel(url.toExternalForm());
+				writeToDisk(new File(buildCachePath(url)), info);
+			} finally {
+				entryLock.writeLock().unlock();
 			}
 		} catch (Exception e) {
 			logger.error("Error writing to cache for " + url.toExternalForm(), e);
 		}	
 	}
 
+	/**
+	 * Overwrites the last checked date in the file's header rather than rewriting it. An entry with
+	 * a cached error, or written before the header was added, is rewritten.
+	 */
 	@Override
-	public void setFeed(URL url, SyndFeed syndFeed) {
-		lock.readLock().lock();
+	public boolean touchFeed(URL url) {
+		ReentrantReadWriteLock entryLock = entryLocks.forKey(url.toExternalForm());
+		entryLock.writeLock().lock();
 		try {
-			CacheInfo info = new CacheInfo(syndFeed);
-	
+			CacheInfo cached = getFromCache(url);
+			if (cached == null || cached.getFeed() == null) {
+				return false;
+			}
+			CacheInfo info = createRevalidatedCacheInfo(cached);
+			if (pendingWrites.replace(url.toExternalForm(), new PendingWrite(url, info))) {
+				// not on disk yet, so write the revalidated entry instead
+				addToMemCache(url, info);
+				return true;
+			}
+			File file = new File(buildCachePath(url));
+			if (cached.isHasError() || !CheckedDateCacheCodec.writeCheckedDate(file, info.getLastCheckedDate())) {
+				writeToDisk(file, info);
+			}
 			addToMemCache(url, info);
-	
+			return true;
+		} catch (IOException e) {
+			logger.error("Error touching cache entry for " + url.toExternalForm(), e);
+			return false;
+		} finally {
+			entryLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void setFeed(URL url, SyndFeed syndFeed, long maxAgeSeconds) {
+		try {
+			putCacheInfo(url, createCacheInfo(syndFeed, maxAgeSeconds));
+		} catch (Exception e) {
+			// Error writing to cache is fatal
+			logger.error("Error writing cache", e);
+			throw new RuntimeException("Attempting to write to cache", e);
+		}
+	}
+
+	/**
+	 * Reads an entry from disk into the memory tier, unless it is there already or has expired
+	 * past its stale period.
+	 */
+	@Override
+	public boolean preload(URL url) throws IOException {
+		if (getFromMemCache(url) != null) {
+			return true;
+		}
+		CacheInfo cacheInfo = getFromCache(url);
+		if (cacheInfo == null || staleCacheHasExpired(cacheInfo)) {
+			return false;
+		}
+		addToMemCache(url, cacheInfo);
+		return true;
+	}
+
+	@Override
+	public boolean canPreload() {
+		return true;
+	}
+
+	@Override
+	public CacheInfo getCacheInfo(URL url) throws IOException {
+		return getFromCache(url);
+	}
+
+	@Override
+	public void putCacheInfo(URL url, CacheInfo info) throws IOException {
+		addToMemCache(url, info);
+		if (pendingWrites.queue(url.toExternalForm(), new PendingWrite(url, info))) {
+			return;
+		}
+
+		ReentrantReadWriteLock entryLock = entryLocks.forKey(url.toExternalForm());
+		entryLock.writeLock().lock();
+		try {
 			String fileName = buildCachePath(url);
-			FileOutputStream fos = null;
-			lock.readLock().unlock();
-			lock.writeLock().lock();
-			try {
-				fos = new FileOutputStream(fileName);
-				ObjectOutputStream oos = new ObjectOutputStream(fos);
-				oos.writeObject(info);
-				fos.flush();
-			} catch (Exception e) {
-				// Error writing to cache is fatal
-				logger.error("Error writing cache", e);
-				throw new RuntimeException("Attempting to write to cache", e);
-			} finally {
-				try {
-					if (fos != null) {
-						fos.close();
-					}
-				} catch (IOException e) {
-					logger.warn("error closing file", e);
-				}
-				// downgrade the lock				
-				lock.readLock().lock();
-				lock.writeLock().unlock();				
-			}
+			// not overwritten later by an older entry queued before write behind was turned off
+			pendingWrites.cancel(url.toExternalForm());
+			writeToDisk(new File(fileName), info);
+			deleteLegacyFile(url, fileName);
 		} finally {
-			lock.readLock().unlock();
-		}			
+			entryLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void removeCacheInfo(URL url) {
+		removeFromCache(url);
 	}
 
 }
@@ -0,0 +1,52 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+
+/**
+ * The outcome of {@link CachingFeedFetcher#retrieveFeeds(java.util.Collection, long, java.util.concurrent.TimeUnit)}:
+ * the feeds which were retrieved, and the error for each which was not, in request order.
+ *
+ * They are keyed by URL.toExternalForm(), like the caches, as URL.equals() resolves host names:
+ * two virtual hosts on the same address would otherwise be one feed.
+ */
+public class FeedBatchResult {
+	private final Map<String, SyndFeed> feeds = new LinkedHashMap<String, SyndFeed>();
+	private final Map<String, Exception> errors = new LinkedHashMap<String, Exception>();
+
+	void addFeed(URL url, SyndFeed feed) {
+		feeds.put(url.toExternalForm(), feed);
+	}
+
+	void addError(URL url, Exception error) {
+		errors.put(url.toExternalForm(), error);
+	}
+
+	public Map<String, SyndFeed> getFeeds() {
+		return Collections.unmodifiableMap(feeds);
+	}
+
+	/**
+	 * @return the error for each URL which could not be retrieved, including those which did not
+	 *         complete before the deadline
+	 */
+	public Map<String, Exception> getErrors() {
+		return Collections.unmodifiableMap(errors);
+	}
+
+	public SyndFeed getFeed(URL url) {
+		return feeds.get(url.toExternalForm());
+	}
+
+	public Exception getError(URL url) {
+		return errors.get(url.toExternalForm());
+	}
+
+	public boolean hasErrors() {
+		return !errors.isEmpty();
+	}
+}
@@ -4,6 +4,10 @@ import java.net.URL;
 import com.sun.syndication.feed.synd.SyndFeed;
 import com.sun.syndication.fetcher.FetcherException;
 
+/**
+ * A cache of parsed feeds for {@link CachingFeedFetcher}. Caches which can also classify errors,
+ * serve stale feeds and revalidate feeds implement {@link RevalidatingFeedCache}.
+ */
 public interface FeedCache {
 	public SyndFeed getFeed(URL url) throws FetcherException;
 	public void setFeed(URL url, SyndFeed syndFeed);
@@ -0,0 +1,328 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StreamCorruptedException;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Lets a feed cache start warm after a restart. While the cache is used, this counts how often
+ * each feed is looked up, and every intervalMinutes writes the most looked up feeds, with their
+ * counts, to a manifest file. On start() the feeds in the manifest are loaded into the cache's
+ * memory tier from the storage behind it (see {@link LinkedHashMapFeedCache#preload(URL)}), on
+ * several threads. Only caches with storage behind their memory tier can be snapshotted: a
+ * {@link DiskFeedCache}, or a {@link TieredFeedCache} with more than one tier.
+ *
+ * Counts are halved each time the manifest is written, so it follows the feeds which are popular
+ * now rather than those which ever were.
+ *
+ * Configure, then call start() (eg, as a Spring init-method) and shutdown() when done.
+ */
+public class FeedCacheSnapshot {
+	static final Logger logger = Logger.getLogger(FeedCacheSnapshot.class);
+
+	private static final String CHARSET = "UTF-8";
+
+	private static final class ManifestEntry {
+		final String url;
+		final int count;
+
+		ManifestEntry(String url, int count) {
+			this.url = url;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * One entry per line, most looked up first: the count, a tab, then the URL.
+	 */
+	private static final CacheCodec<List<ManifestEntry>> MANIFEST_CODEC = new CacheCodec<List<ManifestEntry>>() {
+		public void encode(List<ManifestEntry> entries, OutputStream out) throws IOException {
+			Writer writer = new OutputStreamWriter(out, CHARSET);
+			for (ManifestEntry entry : entries) {
+				writer.write(entry.count + "\t" + entry.url + "\n");
+			}
+			writer.flush();
+		}
+
+		public List<ManifestEntry> decode(InputStream in) throws IOException {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, CHARSET));
+			List<ManifestEntry> entries = new ArrayList<ManifestEntry>();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if (tab <= 0) {
+					throw new StreamCorruptedException("Not a manifest line: " + line);
+				}
+				try {
+					entries.add(new ManifestEntry(line.substring(tab + 1), Integer.parseInt(line.substring(0, tab))));
+				} catch (NumberFormatException e) {
+					throw new StreamCorruptedException("Not a manifest line: " + line);
+				}
+			}
+			return entries;
+		}
+	};
+
+	private LinkedHashMapFeedCache cache;
+	private String manifestPath;
+	private int maxEntries = 1000;
+	private int intervalMinutes = 10;
+	private int preloadThreads = 4;
+	private int preloadTimeoutSeconds = 60;
+
+	// immutable counts, so aging one cannot lose an increment made at the same time
+	private final ConcurrentMap<String, Integer> accessCounts = new ConcurrentHashMap<String, Integer>();
+	private ScheduledFuture<?> writeTask;
+
+	public synchronized void start() {
+		if (cache == null || manifestPath == null) {
+			throw new IllegalStateException("cache and manifestPath must be set");
+		}
+		preload();
+		cache.setSnapshot(this);
+		if (intervalMinutes > 0 && writeTask == null) {
+			writeTask = DiskCacheSweeper.schedule(new Runnable() {
+				public void run() {
+					writeManifest();
+				}
+			}, intervalMinutes);
+		}
+	}
+
+	/**
+	 * Stops writing the manifest, after writing it one last time.
+	 */
+	public synchronized void shutdown() {
+		if (writeTask != null) {
+			writeTask.cancel(false);
+			writeTask = null;
+		}
+		if (cache != null) {
+			cache.setSnapshot(null);
+		}
+		writeManifest();
+	}
+
+	/**
+	 * Called by the cache on each lookup.
+	 */
+	public void recordAccess(URL url) {
+		String key = url.toExternalForm();
+		while (true) {
+			Integer count = accessCounts.get(key);
+			if (count == null ? accessCounts.putIfAbsent(key, Integer.valueOf(1)) == null
+					: accessCounts.replace(key, count, Integer.valueOf(count.intValue() + 1))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Writes the most looked up feeds to the manifest, then halves every count.
+	 */
+	public void writeManifest() {
+		List<ManifestEntry> entries = new ArrayList<ManifestEntry>();
+		for (String key : accessCounts.keySet()) {
+			Integer count;
+			boolean aged;
+			do {
+				count = accessCounts.get(key);
+				if (count == null) {
+					break;
+				}
+				// forget feeds no longer looked up, and age the rest
+				int half = count.intValue() / 2;
+				aged = half > 0 ? accessCounts.replace(key, count, Integer.valueOf(half)) : accessCounts.remove(key, count);
+			} while (!aged);
+			if (count != null) {
+				entries.add(new ManifestEntry(key, count.intValue()));
+			}
+		}
+		Collections.sort(entries, new Comparator<ManifestEntry>() {
+			public int compare(ManifestEntry a, ManifestEntry b) {
+				return a.count > b.count ? -1 : (a.count == b.count ? 0 : 1);
+			}
+		});
+		if (entries.size() > maxEntries) {
+			entries = new ArrayList<ManifestEntry>(entries.subList(0, maxEntries));
+		}
+		try {
+			File file = new File(manifestPath);
+			if (file.getParentFile() != null) {
+				CacheUtils.ensureDirectory(file.getParent());
+			}
+			CacheUtils.writeAtomically(file, entries, MANIFEST_CODEC, false);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Wrote " + entries.size() + " feeds to " + manifestPath);
+			}
+		} catch (IOException e) {
+			logger.error("Writing cache manifest " + manifestPath, e);
+		}
+	}
+
+	/**
+	 * @return the URLs in the manifest, most looked up first, or none if there is no manifest
+	 */
+	public List<URL> readManifest() {
+		List<URL> urls = new ArrayList<URL>();
+		File file = new File(manifestPath);
+		if (!file.exists()) {
+			return urls;
+		}
+		List<ManifestEntry> entries;
+		try {
+			FileInputStream fis = new FileInputStream(file);
+			try {
+				entries = MANIFEST_CODEC.decode(fis);
+			} finally {
+				fis.close();
+			}
+		} catch (IOException e) {
+			logger.warn("Ignoring unreadable cache manifest " + manifestPath + ": " + e.getLocalizedMessage());
+			return urls;
+		}
+		for (ManifestEntry entry : entries) {
+			try {
+				urls.add(new URL(entry.url));
+				// carry the counts over, so the manifest survives restarts between writes
+				accessCounts.putIfAbsent(entry.url, Integer.valueOf(entry.count));
+			} catch (MalformedURLException e) {
+				logger.warn("Ignoring " + entry.url + " in cache manifest");
+			}
+		}
+		return urls;
+	}
+
+	/**
+	 * Loads the feeds in the manifest into the cache, waiting at most preloadTimeoutSeconds.
+	 * 
+	 * @return the number of feeds loaded
+	 */
+	public int preload() {
+		List<URL> urls = readManifest();
+		if (urls.isEmpty()) {
+			return 0;
+		}
+		long start = System.currentTimeMillis();
+		final AtomicInteger loaded = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(preloadThreads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "feed-cache-preload-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			for (final URL url : urls) {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							if (cache.preload(url)) {
+								loaded.incrementAndGet();
+							}
+						} catch (Exception e) {
+							logger.warn("Preloading " + url.toExternalForm() + ": " + e.getLocalizedMessage());
+						}
+					}
+				});
+			}
+			executor.shutdown();
+			if (!executor.awaitTermination(preloadTimeoutSeconds, TimeUnit.SECONDS)) {
+				logger.warn("Gave up waiting for the feed cache to preload");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+		logger.info("Preloaded " + loaded.get() + " of " + urls.size() + " feeds in " + (System.currentTimeMillis() - start) + "ms");
+		return loaded.get();
+	}
+
+	public LinkedHashMapFeedCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Sets the cache to keep warm, which must be able to preload (see
+	 * {@link LinkedHashMapFeedCache#canPreload()}); a snapshot of any other would do nothing.
+	 */
+	public void setCache(LinkedHashMapFeedCache cache) {
+		if (cache != null && !cache.canPreload()) {
+			throw new IllegalArgumentException(cache.getClass().getName() + " has no storage behind it to preload from");
+		}
+		this.cache = cache;
+	}
+
+	public String getManifestPath() {
+		return manifestPath;
+	}
+
+	public void setManifestPath(String manifestPath) {
+		this.manifestPath = manifestPath;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Sets how many feeds the manifest lists, which should be about what the memory tier holds.
+	 * Defaults to 1000.
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	public int getIntervalMinutes() {
+		return intervalMinutes;
+	}
+
+	/**
+	 * Sets how often the manifest is written, or 0 to only write it on shutdown(). Defaults to 10.
+	 */
+	public void setIntervalMinutes(int intervalMinutes) {
+		this.intervalMinutes = intervalMinutes;
+	}
+
+	public int getPreloadThreads() {
+		return preloadThreads;
+	}
+
+	public void setPreloadThreads(int preloadThreads) {
+		this.preloadThreads = preloadThreads;
+	}
+
+	public int getPreloadTimeoutSeconds() {
+		return preloadTimeoutSeconds;
+	}
+
+	public void setPreloadTimeoutSeconds(int preloadTimeoutSeconds) {
+		this.preloadTimeoutSeconds = preloadTimeoutSeconds;
+	}
+}
@@ -0,0 +1,184 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Hit, miss and latency statistics for a feed cache and the fetcher in front of it. The counters
+ * can be updated by any number of threads without losing counts.
+ *
+ * To watch them live, share one instance between the cache and the fetcher (see
+ * {@link DiskFeedCache#setStatistics(FeedCacheStatistics)} and
+ * {@link CachingFeedFetcher#setStatistics(FeedCacheStatistics)}) and declare it as a Spring bean
+ * alongside the jmx.HttpAdaptor, with an MBeanExporter whose assembler and naming strategy read
+ * the annotations (MetadataMBeanInfoAssembler and MetadataNamingStrategy with an
+ * AnnotationJmxAttributeSource). It is registered under the object name below, like the
+ * HttpAdaptor, so only one instance can be exported from a server.
+ *
+ * Each lookup of a feed counts as exactly one of a memory hit, disk hit, expiry or miss. Disk
+ * reads, and their bytes and times, are recorded separately, as the caches also read entries
+ * which are not being looked up, eg to revalidate them.
+ */
+@ManagedResource(objectName = "bean:name=au.edu.educationau.opensource.rome.diskcache.FeedCacheStatistics", description = "Feed cache statistics")
+public class FeedCacheStatistics {
+	private final StripedCounter memoryHits = new StripedCounter();
+	private final StripedCounter diskHits = new StripedCounter();
+	private final StripedCounter misses = new StripedCounter();
+	private final StripedCounter expiries = new StripedCounter();
+	private final StripedCounter writes = new StripedCounter();
+	private final StripedCounter bytesRead = new StripedCounter();
+	private final StripedCounter bytesWritten = new StripedCounter();
+	private final StripedCounter fetchErrors = new StripedCounter();
+	private final LatencyHistogram diskReads = new LatencyHistogram();
+	private final LatencyHistogram diskWrites = new LatencyHistogram();
+	private final LatencyHistogram fetches = new LatencyHistogram();
+
+	public void recordMemoryHit() {
+		memoryHits.increment();
+	}
+
+	public void recordDiskHit() {
+		diskHits.increment();
+	}
+
+	public void recordDiskRead(long bytes, long nanos) {
+		bytesRead.add(bytes);
+		diskReads.record(nanos);
+	}
+
+	public void recordMiss() {
+		misses.increment();
+	}
+
+	public void recordExpiry() {
+		expiries.increment();
+	}
+
+	public void recordDiskWrite(long bytes, long nanos) {
+		writes.increment();
+		bytesWritten.add(bytes);
+		diskWrites.record(nanos);
+	}
+
+	public void recordFetch(long nanos, boolean failed) {
+		fetches.record(nanos);
+		if (failed) {
+			fetchErrors.increment();
+		}
+	}
+
+	@ManagedAttribute(description = "Lookups answered from memory")
+	public long getMemoryHits() {
+		return memoryHits.sum();
+	}
+
+	@ManagedAttribute(description = "Lookups answered from disk")
+	public long getDiskHits() {
+		return diskHits.sum();
+	}
+
+	@ManagedAttribute(description = "Lookups of feeds not in the cache")
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@ManagedAttribute(description = "Lookups of feeds which had expired")
+	public long getExpiries() {
+		return expiries.sum();
+	}
+
+	@ManagedAttribute(description = "Fraction of lookups answered from the cache")
+	public double getHitRatio() {
+		long hits = getMemoryHits() + getDiskHits();
+		long lookups = hits + getMisses() + getExpiries();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	@ManagedAttribute(description = "Entries read from disk")
+	public long getDiskReads() {
+		return diskReads.getCount();
+	}
+
+	@ManagedAttribute(description = "Entries written to disk")
+	public long getWrites() {
+		return writes.sum();
+	}
+
+	@ManagedAttribute(description = "Bytes read from disk")
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	@ManagedAttribute(description = "Bytes written to disk")
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	@ManagedAttribute(description = "Upstream fetches")
+	public long getFetches() {
+		return fetches.getCount();
+	}
+
+	@ManagedAttribute(description = "Upstream fetches which failed")
+	public long getFetchErrors() {
+		return fetchErrors.sum();
+	}
+
+	@ManagedAttribute(description = "Mean disk read time in microseconds")
+	public long getDiskReadMeanMicros() {
+		return diskReads.getMeanMicros();
+	}
+
+	@ManagedAttribute(description = "99th percentile disk read time in microseconds")
+	public long getDiskRead99thPercentileMicros() {
+		return diskReads.getPercentileMicros(99);
+	}
+
+	@ManagedAttribute(description = "Mean disk write time in microseconds")
+	public long getDiskWriteMeanMicros() {
+		return diskWrites.getMeanMicros();
+	}
+
+	@ManagedAttribute(description = "99th percentile disk write time in microseconds")
+	public long getDiskWrite99thPercentileMicros() {
+		return diskWrites.getPercentileMicros(99);
+	}
+
+	@ManagedAttribute(description = "Mean upstream fetch time in microseconds")
+	public long getFetchMeanMicros() {
+		return fetches.getMeanMicros();
+	}
+
+	@ManagedAttribute(description = "99th percentile upstream fetch time in microseconds")
+	public long getFetch99thPercentileMicros() {
+		return fetches.getPercentileMicros(99);
+	}
+
+	public LatencyHistogram getDiskReadLatency() {
+		return diskReads;
+	}
+
+	public LatencyHistogram getDiskWriteLatency() {
+		return diskWrites;
+	}
+
+	public LatencyHistogram getFetchLatency() {
+		return fetches;
+	}
+
+	@ManagedOperation(description = "Resets all counters and histograms")
+	public void reset() {
+		memoryHits.reset();
+		diskHits.reset();
+		misses.reset();
+		expiries.reset();
+		writes.reset();
+		bytesRead.reset();
+		bytesWritten.reset();
+		fetchErrors.reset();
+		diskReads.reset();
+		diskWrites.reset();
+		fetches.reset();
+	}
+}
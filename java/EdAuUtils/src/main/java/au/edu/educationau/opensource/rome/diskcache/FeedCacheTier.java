@@ -0,0 +1,22 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.IOException;
+import java.net.URL;
+
+import au.edu.educationau.opensource.rome.diskcache.LinkedHashMapFeedCache.CacheInfo;
+
+/**
+ * Storage for cache entries as they are, without any expiry rules, so they can be moved between
+ * the tiers of a {@link TieredFeedCache} without losing their age. Every {@link FeedCache} in this
+ * package is also a tier; a store shared over the network only needs to implement this.
+ */
+public interface FeedCacheTier {
+	/**
+	 * @return the entry, whether or not it has expired, or null if there is none
+	 */
+	public CacheInfo getCacheInfo(URL url) throws IOException;
+
+	public void putCacheInfo(URL url, CacheInfo info) throws IOException;
+
+	public void removeCacheInfo(URL url) throws IOException;
+}
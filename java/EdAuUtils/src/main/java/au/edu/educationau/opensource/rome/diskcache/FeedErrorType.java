@@ -0,0 +1,29 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import com.sun.syndication.fetcher.FetcherException;
+import com.sun.syndication.io.FeedException;
+
+/**
+ * Whether a feed error is expected to clear up by itself. Transient errors are cached briefly
+ * and the last good copy of the feed is served meanwhile; permanent ones replace it.
+ */
+public enum FeedErrorType {
+	TRANSIENT, PERMANENT;
+
+	/**
+	 * Client errors (other than timeouts and rate limiting), bad URLs and unparseable feeds are
+	 * permanent; anything else, such as I/O failures and server errors, is transient.
+	 */
+	public static FeedErrorType classify(Throwable error) {
+		if (error instanceof FetcherException) {
+			int code = ((FetcherException) error).getResponseCode();
+			if (code >= 400 && code < 500 && code != 408 && code != 429) {
+				return PERMANENT;
+			}
+			return TRANSIENT;
+		} else if (error instanceof FeedException || error instanceof IllegalArgumentException) {
+			return PERMANENT;
+		}
+		return TRANSIENT;
+	}
+}
@@ -0,0 +1,371 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.sun.syndication.feed.synd.SyndEntry;
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.fetcher.impl.FeedFetcherCache;
+import com.sun.syndication.fetcher.impl.SyndFeedInfo;
+
+/**
+ * Keeps a set of registered feeds fresh by refreshing them in the background through a
+ * {@link CachingFeedFetcher}, ahead of their cache TTL, so user requests are served from the cache.
+ *
+ * Each feed's refresh interval adapts to how often it actually changes: it shrinks when a refresh
+ * finds the feed changed (by its ETag/Last-Modified validators if the fetcher has a feed info
+ * cache, otherwise by its newest entry) and grows when it does not. The first interval is
+ * estimated from the spacing of the feed's entries. Intervals are kept between the configured
+ * bounds, and below 90% of the TTL the feed is cached for. Feeds which keep failing are backed off
+ * exponentially. Refreshes are spread with random jitter, and share the fetcher's per-host limit
+ * ({@link CachingFeedFetcher#setMaxFetchesPerHost(int)}) with its other fetches.
+ *
+ * Configure, then call start() (eg, as a Spring init-method) and shutdown() when done.
+ */
+public class FeedRefreshScheduler {
+	static final Logger logger = Logger.getLogger(FeedRefreshScheduler.class);
+
+	private static final long MINUTE = 60L * 1000L;
+	private static final long STARTUP_SPREAD_MILLIS = MINUTE;
+	private static final long HOST_BUSY_RETRY_MILLIS = 5000;
+	private static final int MAX_BACKOFF_SHIFT = 16;
+
+	private final class FeedState implements Runnable {
+		final URL url;
+		// only changed by the single scheduled run of this feed at any one time, but read by others
+		volatile long intervalMillis;
+		// only touched by the single scheduled run of this feed at any one time
+		int consecutiveErrors;
+		String signature;
+		volatile ScheduledFuture<?> next;
+		volatile boolean cancelled;
+
+		FeedState(URL url) {
+			this.url = url;
+			this.intervalMillis = defaultIntervalMinutes * MINUTE;
+		}
+
+		public void run() {
+			if (cancelled) {
+				return;
+			}
+			if (!hostLimiter.tryAcquire(url)) {
+				schedule(this, HOST_BUSY_RETRY_MILLIS);
+				return;
+			}
+			long delay;
+			try {
+				delay = refresh(this);
+			} finally {
+				hostLimiter.release(url);
+			}
+			schedule(this, withJitter(delay));
+		}
+	}
+
+	private CachingFeedFetcher feedFetcher;
+	private int threads = 4;
+	private int minIntervalMinutes = 5;
+	private int maxIntervalMinutes = 24 * 60;
+	private int defaultIntervalMinutes = 30;
+	private int maxBackoffMinutes = 24 * 60;
+	private int jitterPercent = 10;
+
+	private final ConcurrentMap<String, FeedState> feeds = new ConcurrentHashMap<String, FeedState>();
+	private final Random random = new Random();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong refreshErrors = new AtomicLong();
+
+	private volatile ScheduledExecutorService executor;
+	private volatile HostConcurrencyLimiter hostLimiter;
+
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		if (feedFetcher == null) {
+			throw new IllegalStateException("feedFetcher has not been set");
+		}
+		hostLimiter = feedFetcher.getHostLimiter();
+		executor = createExecutor();
+		logger.info("Starting feed refresh scheduler for " + feeds.size() + " feeds");
+		for (FeedState state : feeds.values()) {
+			schedule(state, nextLong(STARTUP_SPREAD_MILLIS));
+		}
+	}
+
+	/**
+	 * Creates the executor the refreshes are scheduled on.
+	 */
+	protected ScheduledExecutorService createExecutor() {
+		return new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "feed-prefetch-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Starts refreshing a feed. Does nothing if it is already registered. Synchronized with
+	 * start(), which would otherwise schedule a feed registered meanwhile a second time.
+	 */
+	public synchronized void register(URL url) {
+		FeedState state = new FeedState(url);
+		if (feeds.putIfAbsent(url.toExternalForm(), state) == null && executor != null) {
+			schedule(state, nextLong(STARTUP_SPREAD_MILLIS));
+		}
+	}
+
+	public void unregister(URL url) {
+		FeedState state = feeds.remove(url.toExternalForm());
+		if (state != null) {
+			state.cancelled = true;
+			ScheduledFuture<?> next = state.next;
+			if (next != null) {
+				next.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Registers each of the feeds, for configuration from Spring.
+	 */
+	public void setFeedUrls(Collection<URL> urls) {
+		for (URL url : urls) {
+			register(url);
+		}
+	}
+
+	public Set<URL> getRegisteredFeeds() {
+		Set<URL> result = new HashSet<URL>();
+		for (FeedState state : feeds.values()) {
+			result.add(state.url);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the current refresh interval of a registered feed, or -1 if it is not registered
+	 */
+	public long getRefreshIntervalMinutes(URL url) {
+		FeedState state = feeds.get(url.toExternalForm());
+		return state == null ? -1 : state.intervalMillis / MINUTE;
+	}
+
+	private void schedule(FeedState state, long delayMillis) {
+		ScheduledExecutorService current = executor;
+		if (current == null || state.cancelled) {
+			return;
+		}
+		try {
+			state.next = current.schedule(state, delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// shutting down
+		}
+	}
+
+	/**
+	 * Refreshes a feed and works out when it should next be refreshed.
+	 *
+	 * @return the delay before the next refresh, in milliseconds
+	 */
+	private long refresh(FeedState state) {
+		try {
+			SyndFeed feed = feedFetcher.refreshFeed(state.url);
+			refreshes.incrementAndGet();
+			state.consecutiveErrors = 0;
+
+			String signature = signature(state.url, feed);
+			if (state.signature == null) {
+				state.intervalMillis = estimateInterval(feed);
+			} else if (signature.equals(state.signature)) {
+				state.intervalMillis = state.intervalMillis * 3 / 2;
+			} else {
+				state.intervalMillis = state.intervalMillis * 2 / 3;
+			}
+			state.signature = signature;
+			state.intervalMillis = clampInterval(state.url, state.intervalMillis);
+
+			if (logger.isTraceEnabled()) {
+				logger.trace("refreshed " + state.url.toExternalForm() + ", next in " + state.intervalMillis / MINUTE + " minutes");
+			}
+			return state.intervalMillis;
+		} catch (Exception e) {
+			refreshErrors.incrementAndGet();
+			state.consecutiveErrors++;
+			long backoff = state.intervalMillis << Math.min(state.consecutiveErrors, MAX_BACKOFF_SHIFT);
+			backoff = Math.min(backoff, maxBackoffMinutes * MINUTE);
+			logger.warn("Refresh of " + state.url.toExternalForm() + " failed " + state.consecutiveErrors + " times, retrying in "
+					+ backoff / MINUTE + " minutes: " + e.getLocalizedMessage());
+			return backoff;
+		}
+	}
+
+	private String signature(URL url, SyndFeed feed) {
+		FeedFetcherCache feedInfoCache = feedFetcher.getFeedInfoCache();
+		if (feedInfoCache != null) {
+			SyndFeedInfo info = feedInfoCache.getFeedInfo(url);
+			if (info != null && (info.getETag() != null || info.getLastModified() != null)) {
+				return info.getETag() + "|" + info.getLastModified();
+			}
+		}
+
+		List<?> entries = feed == null ? null : feed.getEntries();
+		if (entries == null || entries.isEmpty()) {
+			return "empty";
+		}
+		SyndEntry newest = (SyndEntry) entries.get(0);
+		return entries.size() + "|" + newest.getUri() + "|" + newest.getLink() + "|" + entryDate(newest);
+	}
+
+	/**
+	 * Estimates how often a feed is updated from the median gap between its entries' dates.
+	 */
+	private long estimateInterval(SyndFeed feed) {
+		List<Long> dates = new ArrayList<Long>();
+		if (feed != null && feed.getEntries() != null) {
+			for (Object o : feed.getEntries()) {
+				Date date = entryDate((SyndEntry) o);
+				if (date != null) {
+					dates.add(Long.valueOf(date.getTime()));
+				}
+			}
+		}
+		if (dates.size() < 2) {
+			return defaultIntervalMinutes * MINUTE;
+		}
+		Collections.sort(dates);
+		List<Long> gaps = new ArrayList<Long>();
+		for (int i = 1; i < dates.size(); i++) {
+			gaps.add(Long.valueOf(dates.get(i).longValue() - dates.get(i - 1).longValue()));
+		}
+		Collections.sort(gaps);
+		return gaps.get(gaps.size() / 2).longValue();
+	}
+
+	private Date entryDate(SyndEntry entry) {
+		return entry.getUpdatedDate() != null ? entry.getUpdatedDate() : entry.getPublishedDate();
+	}
+
+	private long clampInterval(URL url, long intervalMillis) {
+		long max = maxIntervalMinutes * MINUTE;
+		FeedCache feedCache = feedFetcher.getFeedCache();
+		if (feedCache instanceof LinkedHashMapFeedCache) {
+			// refresh before the cached copy expires, which may be sooner than the cache's TTL if the
+			// feed asked for a shorter one
+			max = Math.min(max, ((LinkedHashMapFeedCache) feedCache).getFeedTtlMinutes(url) * MINUTE * 9 / 10);
+		}
+		return Math.max(minIntervalMinutes * MINUTE, Math.min(max, intervalMillis));
+	}
+
+	private long withJitter(long delayMillis) {
+		long range = delayMillis * jitterPercent / 100;
+		if (range <= 0) {
+			return delayMillis;
+		}
+		return delayMillis - range + nextLong(2 * range);
+	}
+
+	private long nextLong(long bound) {
+		synchronized (random) {
+			return (long) (random.nextDouble() * bound);
+		}
+	}
+
+	public long getRefreshCount() {
+		return refreshes.get();
+	}
+
+	public long getRefreshErrorCount() {
+		return refreshErrors.get();
+	}
+
+	public CachingFeedFetcher getFeedFetcher() {
+		return feedFetcher;
+	}
+
+	public void setFeedFetcher(CachingFeedFetcher feedFetcher) {
+		this.feedFetcher = feedFetcher;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getMinIntervalMinutes() {
+		return minIntervalMinutes;
+	}
+
+	public void setMinIntervalMinutes(int minIntervalMinutes) {
+		this.minIntervalMinutes = minIntervalMinutes;
+	}
+
+	public int getMaxIntervalMinutes() {
+		return maxIntervalMinutes;
+	}
+
+	public void setMaxIntervalMinutes(int maxIntervalMinutes) {
+		this.maxIntervalMinutes = maxIntervalMinutes;
+	}
+
+	public int getDefaultIntervalMinutes() {
+		return defaultIntervalMinutes;
+	}
+
+	/**
+	 * Sets the interval used for a feed until its update cadence has been estimated.
+	 */
+	public void setDefaultIntervalMinutes(int defaultIntervalMinutes) {
+		this.defaultIntervalMinutes = defaultIntervalMinutes;
+	}
+
+	public int getMaxBackoffMinutes() {
+		return maxBackoffMinutes;
+	}
+
+	public void setMaxBackoffMinutes(int maxBackoffMinutes) {
+		this.maxBackoffMinutes = maxBackoffMinutes;
+	}
+
+	public int getJitterPercent() {
+		return jitterPercent;
+	}
+
+	public void setJitterPercent(int jitterPercent) {
+		this.jitterPercent = jitterPercent;
+	}
+}
@@ -0,0 +1,54 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of concurrent requests made to any one host.
+ */
+public class HostConcurrencyLimiter {
+	private final int maxPerHost;
+	private final ConcurrentMap<String, Semaphore> permits = new ConcurrentHashMap<String, Semaphore>();
+
+	public HostConcurrencyLimiter(int maxPerHost) {
+		if (maxPerHost <= 0) {
+			throw new IllegalArgumentException("maxPerHost must be positive: " + maxPerHost);
+		}
+		this.maxPerHost = maxPerHost;
+	}
+
+	private Semaphore permitsFor(URL url) {
+		String host = url.getHost().toLowerCase();
+		Semaphore semaphore = permits.get(host);
+		if (semaphore == null) {
+			Semaphore created = new Semaphore(maxPerHost);
+			semaphore = permits.putIfAbsent(host, created);
+			if (semaphore == null) {
+				semaphore = created;
+			}
+		}
+		return semaphore;
+	}
+
+	/**
+	 * @return true if a permit for the URL's host was acquired, in which case release() must be called
+	 */
+	public boolean tryAcquire(URL url) {
+		return permitsFor(url).tryAcquire();
+	}
+
+	public boolean tryAcquire(URL url, long timeout, TimeUnit unit) throws InterruptedException {
+		return permitsFor(url).tryAcquire(timeout, unit);
+	}
+
+	public void release(URL url) {
+		permitsFor(url).release();
+	}
+
+	public int getMaxPerHost() {
+		return maxPerHost;
+	}
+}
@@ -0,0 +1,67 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies in power of two buckets of microseconds, cheaply enough for every cache
+ * operation. Percentiles are reported as the upper bound of the bucket they fall in, so are
+ * accurate to within a factor of two.
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 32;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final StripedCounter count = new StripedCounter();
+	private final StripedCounter totalNanos = new StripedCounter();
+
+	public void record(long nanos) {
+		long micros = nanos / 1000;
+		// bucket i holds [2^i, 2^(i+1)) microseconds, bucket 0 everything under 2
+		int bucket = 63 - Long.numberOfLeadingZeros(Math.max(micros, 1));
+		buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+		count.increment();
+		totalNanos.add(nanos);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMeanMicros() {
+		long n = count.sum();
+		return n == 0 ? 0 : totalNanos.sum() / n / 1000;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the latency, in microseconds, which that percentage of operations took at most
+	 */
+	public long getPercentileMicros(double percentile) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= target && counts[i] > 0) {
+				return 1L << (i + 1);
+			}
+		}
+		return 1L << BUCKETS;
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.reset();
+		totalNanos.reset();
+	}
+}
@@ -1,39 +1,37 @@
 package au.edu.educationau.opensource.rome.diskcache;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.net.URL;
-import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedHashMap;
-import java.util.Map;
 
 import org.apache.log4j.Logger;
 
+import au.edu.educationau.opensource.collections.ClockCache;
+
+import com.sun.syndication.feed.WireFeed;
+import com.sun.syndication.feed.module.Module;
+import com.sun.syndication.feed.module.SyModule;
+import com.sun.syndication.feed.rss.Channel;
 import com.sun.syndication.feed.synd.SyndFeed;
 import com.sun.syndication.fetcher.FetcherException;
 
-public class LinkedHashMapFeedCache implements FeedCache {
+public class LinkedHashMapFeedCache implements RevalidatingFeedCache, FeedCacheTier {
 	static final Logger logger = Logger.getLogger(LinkedHashMapFeedCache.class);
 	
-	private final class CacheImpl extends LinkedHashMap<String, CacheInfo> {
-		private static final long serialVersionUID = -6977191330127794920L;
+	private static final int DEFAULT_MAX_ENTRIES = 20;
 
-		public CacheImpl() {
-			super(16, 0.75F, true);
-		}
-		
-		@Override
-		protected boolean removeEldestEntry(Map.Entry<String, CacheInfo> eldest) {
-			return size() > getMaxEntries();
-		}
-	}	
-	
-	private Map<String, CacheInfo> feedCache;
+	// reads do not lock, so lookups of cached feeds do not contend
+	private final ClockCache<String, CacheInfo> feedCache = new ClockCache<String, CacheInfo>(DEFAULT_MAX_ENTRIES);
 	private int ttlMinutes;
-	private int maxEntries = 20;
+	private int maxStaleMinutes;
+	private int transientErrorTtlMinutes = 2;
+	private int permanentErrorTtlMinutes = 30;
+	private int minFeedTtlMinutes = 1;
+	private int maxFeedTtlMinutes = 24 * 60;
+	private volatile FeedCacheSnapshot snapshot;
 
 	public LinkedHashMapFeedCache() {
-		feedCache = Collections.synchronizedMap(new CacheImpl());
 		ttlMinutes = 30;		
 	}
 
@@ -45,31 +43,237 @@ public class LinkedHashMapFeedCache implements FeedCache {
 		this.ttlMinutes = ttlMinutes;
 	}	
 	
+	public int getMaxStaleMinutes() {
+		return maxStaleMinutes;
+	}
+
+	/**
+	 * Sets how long after its TTL an entry may still be returned by getStaleFeed() while it is
+	 * being refreshed. Cached errors are only discarded once this has passed too; cached feeds are
+	 * kept until replaced or evicted, so they can be revalidated. Defaults to 0.
+	 */
+	public void setMaxStaleMinutes(int maxStaleMinutes) {
+		this.maxStaleMinutes = maxStaleMinutes;
+	}
+
+	public int getTransientErrorTtlMinutes() {
+		return transientErrorTtlMinutes;
+	}
+
+	/**
+	 * Sets how long a transient error (see {@link FeedErrorType}) is cached. Defaults to 2.
+	 */
+	public void setTransientErrorTtlMinutes(int transientErrorTtlMinutes) {
+		this.transientErrorTtlMinutes = transientErrorTtlMinutes;
+	}
+
+	public int getPermanentErrorTtlMinutes() {
+		return permanentErrorTtlMinutes;
+	}
+
+	/**
+	 * Sets how long a permanent error (see {@link FeedErrorType}) is cached. Defaults to 30.
+	 */
+	public void setPermanentErrorTtlMinutes(int permanentErrorTtlMinutes) {
+		this.permanentErrorTtlMinutes = permanentErrorTtlMinutes;
+	}
+
+	public int getMinFeedTtlMinutes() {
+		return minFeedTtlMinutes;
+	}
+
+	/**
+	 * Sets the shortest TTL a feed may ask for with its RSS ttl or syndication module, or upstream
+	 * may give it with HTTP caching headers. Defaults to 1.
+	 */
+	public void setMinFeedTtlMinutes(int minFeedTtlMinutes) {
+		this.minFeedTtlMinutes = minFeedTtlMinutes;
+	}
+
+	public int getMaxFeedTtlMinutes() {
+		return maxFeedTtlMinutes;
+	}
+
+	/**
+	 * Sets the longest TTL a feed may ask for with its RSS ttl or syndication module, or upstream
+	 * may give it with HTTP caching headers. Defaults to a day.
+	 */
+	public void setMaxFeedTtlMinutes(int maxFeedTtlMinutes) {
+		this.maxFeedTtlMinutes = maxFeedTtlMinutes;
+	}
+
+	/**
+	 * Works out how long a feed should be cached from what it says about how often it is
+	 * updated: the RSS ttl element, if the fetcher preserves the wire feed, or else the
+	 * syndication module's update period and frequency. Clamped to the min and max feed TTL.
+	 * 
+	 * @return the TTL in minutes, or 0 if the feed does not say, in which case ttlMinutes is used
+	 */
+	protected int feedTtlMinutes(SyndFeed feed) {
+		if (feed == null) {
+			return 0;
+		}
+		long minutes = 0;
+		WireFeed wireFeed = feed.originalWireFeed();
+		if (wireFeed instanceof Channel) {
+			minutes = ((Channel) wireFeed).getTtl();
+		}
+		if (minutes <= 0) {
+			Module module = feed.getModule(SyModule.URI);
+			if (module instanceof SyModule) {
+				SyModule sy = (SyModule) module;
+				minutes = updatePeriodMinutes(sy.getUpdatePeriod()) / Math.max(1, sy.getUpdateFrequency());
+			}
+		}
+		if (minutes <= 0) {
+			return 0;
+		}
+		return clampFeedTtl(minutes);
+	}
+
+	/**
+	 * Works out how long a feed should be cached from the freshness lifetime upstream gave it with
+	 * Cache-Control max-age or Expires, which overrides what the feed itself says. Clamped to the
+	 * min and max feed TTL.
+	 * 
+	 * @param maxAgeSeconds the freshness lifetime, or negative if upstream did not give one
+	 * @return the TTL in minutes, or 0 if neither upstream nor the feed say, in which case
+	 *         ttlMinutes is used
+	 */
+	protected int feedTtlMinutes(SyndFeed feed, long maxAgeSeconds) {
+		if (maxAgeSeconds < 0) {
+			return feedTtlMinutes(feed);
+		}
+		return clampFeedTtl(maxAgeSeconds / 60);
+	}
+
+	private int clampFeedTtl(long minutes) {
+		return (int) Math.max(minFeedTtlMinutes, Math.min(maxFeedTtlMinutes, minutes));
+	}
+
+	private static long updatePeriodMinutes(String period) {
+		if (SyModule.HOURLY.equals(period)) {
+			return 60;
+		} else if (SyModule.WEEKLY.equals(period)) {
+			return 7 * 24 * 60;
+		} else if (SyModule.MONTHLY.equals(period)) {
+			return 30 * 24 * 60;
+		} else if (SyModule.YEARLY.equals(period)) {
+			return 365 * 24 * 60;
+		} else if (period == null || SyModule.DAILY.equals(period)) {
+			// the module's default
+			return 24 * 60;
+		}
+		return 0;
+	}
+
+	/**
+	 * Creates the entry for a newly fetched feed, with the TTL the feed asks for.
+	 */
+	protected CacheInfo createCacheInfo(SyndFeed feed) {
+		return createCacheInfo(feed, -1);
+	}
+
+	/**
+	 * Creates the entry for a newly fetched feed, with the TTL upstream gave it, or else the one
+	 * the feed asks for.
+	 * 
+	 * @param maxAgeSeconds the freshness lifetime from the HTTP response, or negative if none
+	 */
+	protected CacheInfo createCacheInfo(SyndFeed feed, long maxAgeSeconds) {
+		CacheInfo info = new CacheInfo(feed);
+		info.setTtlMinutes(feedTtlMinutes(feed, maxAgeSeconds));
+		return info;
+	}
+
+	/**
+	 * Creates the entry for a cached feed which upstream reports unchanged. The TTL is carried over,
+	 * as the hints it came from may not survive being cached.
+	 */
+	protected CacheInfo createRevalidatedCacheInfo(CacheInfo cached) {
+		CacheInfo info = new CacheInfo(cached.getFeed());
+		info.setTtlMinutes(cached.getTtlMinutes());
+		return info;
+	}
+
+	private int feedTtlMinutesFor(CacheInfo cacheInfo) {
+		return cacheInfo.getTtlMinutes() > 0 ? cacheInfo.getTtlMinutes() : ttlMinutes;
+	}
+
+	/**
+	 * @return the TTL of the feed cached for a URL, as it asked for, or the cache's TTL if it is not
+	 *         cached or cannot be read
+	 */
+	public int getFeedTtlMinutes(URL url) {
+		CacheInfo cacheInfo;
+		try {
+			cacheInfo = getCacheInfo(url);
+		} catch (IOException e) {
+			return ttlMinutes;
+		}
+		return cacheInfo == null ? ttlMinutes : feedTtlMinutesFor(cacheInfo);
+	}
+
+	/**
+	 * @return the TTL of an entry, which depends on whether it is an error and of what type, and
+	 *         otherwise on what the feed asked for
+	 */
+	protected int ttlMinutesFor(CacheInfo cacheInfo) {
+		if (!cacheInfo.isHasError()) {
+			return feedTtlMinutesFor(cacheInfo);
+		}
+		return cacheInfo.getErrorType() == FeedErrorType.TRANSIENT ? transientErrorTtlMinutes : permanentErrorTtlMinutes;
+	}
+
 	protected boolean cacheHasExpired(CacheInfo cacheInfo) {
+		return cacheInfo == null || cacheHasExpired(cacheInfo, ttlMinutesFor(cacheInfo));
+	}
+
+	/**
+	 * @return true if the entry is past both its TTL and the stale period, so should be discarded.
+	 *         An entry holding a feed is kept for at least the normal TTL, so a short lived
+	 *         transient error does not discard the last good copy.
+	 */
+	protected boolean staleCacheHasExpired(CacheInfo cacheInfo) {
+		if (cacheInfo == null) {
+			return true;
+		}
+		int minutes = ttlMinutesFor(cacheInfo);
+		if (cacheInfo.getFeed() != null) {
+			minutes = Math.max(minutes, feedTtlMinutesFor(cacheInfo));
+		}
+		return cacheHasExpired(cacheInfo, minutes + maxStaleMinutes);
+	}
+
+	private boolean cacheHasExpired(CacheInfo cacheInfo, int minutes) {
 		if (cacheInfo == null) {
 			return true;
 		} else {
 			Date now = new Date();	
 			long diff = now.getTime() - cacheInfo.getLastCheckedDate().getTime(); // difference in milliseconds
-			return (diff >= (ttlMinutes * 60l * 1000l));
+			return (diff >= (minutes * 60l * 1000l));
 		}
 	}
 
 	public SyndFeed getFeed(URL url) throws FetcherException {		
+		recordAccess(url);
 		CacheInfo cacheInfo = feedCache.get(url.toExternalForm());
 		if (cacheInfo != null) {
 			// check if expired
 			if (cacheHasExpired(cacheInfo)) {
 				// has expired
-				// remove from cache
 				logger.info("Cache expired for " + url.toExternalForm());				
-				feedCache.put(url.toExternalForm(), null);
+				// an expired feed is kept, so a 304 from upstream can revalidate it
+				if (cacheInfo.getFeed() == null && staleCacheHasExpired(cacheInfo)) {
+					// remove from cache
+					feedCache.remove(url.toExternalForm());
+				}
 				return null;
 			} else {
 				// has not expired
 				logger.info("Cache NOT expired for " + url.toExternalForm());		
-				// check if is an error
-				if (cacheInfo.hasError) {
+				// check if is an error, with no last good copy to fall back on
+				if (cacheInfo.hasError && cacheInfo.getFeed() == null) {
 					logger.warn(url.toExternalForm() + " has errors!");					
 					throw new FetcherException(cacheInfo.getErrorMessage());
 				}
@@ -81,20 +285,99 @@ public class LinkedHashMapFeedCache implements FeedCache {
 		}
 	}
 
+	public SyndFeed getStaleFeed(URL url) throws FetcherException {
+		CacheInfo cacheInfo = feedCache.get(url.toExternalForm());
+		if (cacheInfo == null || cacheInfo.getFeed() == null || staleCacheHasExpired(cacheInfo)) {
+			return null;
+		}
+		return cacheInfo.getFeed();
+	}
+
 	public void setFeed(URL url, SyndFeed syndFeed) {
-		feedCache.put(url.toExternalForm(), new CacheInfo(syndFeed));		
+		setFeed(url, syndFeed, -1);
+	}
+
+	public void setFeed(URL url, SyndFeed syndFeed, long maxAgeSeconds) {
+		feedCache.put(url.toExternalForm(), createCacheInfo(syndFeed, maxAgeSeconds));		
+	}
+
+	public boolean touchFeed(URL url) {
+		CacheInfo cacheInfo = feedCache.get(url.toExternalForm());
+		if (cacheInfo == null || cacheInfo.getFeed() == null) {
+			return false;
+		}
+		feedCache.put(url.toExternalForm(), createRevalidatedCacheInfo(cacheInfo));
+		return true;
 	}
 	
+	public FeedCacheSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Sets where lookups are counted for a warm start; {@link FeedCacheSnapshot#start()} sets this.
+	 */
+	public void setSnapshot(FeedCacheSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	protected void recordAccess(URL url) {
+		FeedCacheSnapshot current = snapshot;
+		if (current != null) {
+			current.recordAccess(url);
+		}
+	}
+
+	/**
+	 * Loads an entry into the memory tier from the slower storage behind it. There is none behind
+	 * this cache, so this does nothing.
+	 * 
+	 * @return true if the entry is now in memory
+	 */
+	public boolean preload(URL url) throws IOException {
+		return false;
+	}
+
+	/**
+	 * @return true if {@link #preload(URL)} can load entries from slower storage, so a
+	 *         {@link FeedCacheSnapshot} of this cache is worth having
+	 */
+	public boolean canPreload() {
+		return false;
+	}
+
+	public CacheInfo getCacheInfo(URL url) throws IOException {
+		return feedCache.get(url.toExternalForm());
+	}
+
+	public void putCacheInfo(URL url, CacheInfo info) throws IOException {
+		feedCache.put(url.toExternalForm(), info);
+	}
+
+	public void removeCacheInfo(URL url) throws IOException {
+		feedCache.remove(url.toExternalForm());
+	}
+
+	/**
+	 * Caches an unclassified error, which is treated as transient.
+	 */
 	public void setFeedError(URL url, String error) {
-		feedCache.put(url.toExternalForm(), new CacheInfo(error));			
+		setFeedError(url, error, FeedErrorType.TRANSIENT);
 	}	
 
+	public void setFeedError(URL url, String error, FeedErrorType errorType) {
+		CacheInfo previous = feedCache.get(url.toExternalForm());
+		feedCache.put(url.toExternalForm(), CacheInfo.forError(previous, error, errorType));
+	}
+
 	public static class CacheInfo implements Serializable {
 		private static final long serialVersionUID = 2474473583196872498L;
 		private Date lastCheckedDate;
 		private SyndFeed feed;
 		private boolean hasError;
 		private String errorMessage;
+		private FeedErrorType errorType;
+		private int ttlMinutes;
 		
 		public CacheInfo(SyndFeed feed) {
 			lastCheckedDate = new Date();
@@ -106,6 +389,25 @@ public class LinkedHashMapFeedCache implements FeedCache {
 			this.hasError = true;
 			this.errorMessage = errorMessage;
 		}
+
+		public CacheInfo(SyndFeed lastGoodFeed, String errorMessage, FeedErrorType errorType) {
+			this(errorMessage);
+			this.feed = lastGoodFeed;
+			this.errorType = errorType;
+		}
+
+		/**
+		 * Creates the entry recording an error, keeping the feed of the previous entry if the
+		 * error is transient.
+		 */
+		public static CacheInfo forError(CacheInfo previous, String errorMessage, FeedErrorType errorType) {
+			if (errorType == FeedErrorType.TRANSIENT && previous != null) {
+				CacheInfo info = new CacheInfo(previous.getFeed(), errorMessage, errorType);
+				info.setTtlMinutes(previous.getTtlMinutes());
+				return info;
+			}
+			return new CacheInfo(null, errorMessage, errorType);
+		}
 		
 		public String getErrorMessage() {
 			return errorMessage;
@@ -122,7 +424,30 @@ public class LinkedHashMapFeedCache implements FeedCache {
 		public void setHasError(boolean hasError) {
 			this.hasError = hasError;
 		}
+
+		/**
+		 * @return the type of the error, or null if there is no error or it was cached by an
+		 *         older version, in which case it is treated as permanent
+		 */
+		public FeedErrorType getErrorType() {
+			return errorType;
+		}
+
+		public void setErrorType(FeedErrorType errorType) {
+			this.errorType = errorType;
+		}
 		
+		/**
+		 * @return the TTL the feed asked for, or 0 to use the cache's
+		 */
+		public int getTtlMinutes() {
+			return ttlMinutes;
+		}
+
+		public void setTtlMinutes(int ttlMinutes) {
+			this.ttlMinutes = ttlMinutes;
+		}
+
 		public SyndFeed getFeed() {
 			return feed;
 		}
@@ -138,10 +463,14 @@ public class LinkedHashMapFeedCache implements FeedCache {
 	}
 
 	public int getMaxEntries() {
-		return maxEntries;
+		return feedCache.getMaxEntries();
 	}
 
+	/**
+	 * Sets the number of feeds held, evicting the least recently used (approximately) beyond it.
+	 * Defaults to 20.
+	 */
 	public void setMaxEntries(int maxSize) {
-		this.maxEntries = maxSize;
+		feedCache.setMaxEntries(maxSize);
 	}
 }
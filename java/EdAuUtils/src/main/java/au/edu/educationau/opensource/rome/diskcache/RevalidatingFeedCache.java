@@ -0,0 +1,43 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.net.URL;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.fetcher.FetcherException;
+
+/**
+ * A {@link FeedCache} which keeps expired feeds so they can be served stale or revalidated, and
+ * caches errors by type. {@link CachingFeedFetcher} uses these methods when its cache implements
+ * this interface, and falls back to plain {@link FeedCache} behaviour otherwise.
+ */
+public interface RevalidatingFeedCache extends FeedCache {
+
+	/**
+	 * Caches a feed for the freshness lifetime upstream gave it with HTTP Cache-Control max-age or
+	 * Expires, rather than the TTL the feed asks for.
+	 * 
+	 * @param maxAgeSeconds the freshness lifetime, or negative if upstream did not give one
+	 */
+	public void setFeed(URL url, SyndFeed syndFeed, long maxAgeSeconds);
+
+	/**
+	 * Caches an error for the TTL of its type. A transient error keeps any cached feed, which is
+	 * served until the error expires; a permanent one replaces it.
+	 */
+	public void setFeedError(URL url, String error, FeedErrorType errorType);
+
+	/**
+	 * Returns a feed whose TTL has expired but which may still be served while it is refreshed,
+	 * or null if there is no such feed (including when the cached entry is an error without a
+	 * last good feed).
+	 */
+	public SyndFeed getStaleFeed(URL url) throws FetcherException;
+
+	/**
+	 * Marks the cached feed as checked now, without replacing it, eg, when upstream answered a
+	 * conditional request with 304 Not Modified. Clears any transient error cached over it.
+	 * 
+	 * @return false if there is no cached feed to keep, in which case the caller should setFeed()
+	 */
+	public boolean touchFeed(URL url);
+}
@@ -0,0 +1,253 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.log4j.Logger;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.fetcher.FetcherException;
+
+/**
+ * A {@link FeedCache} which keeps its entries in a {@link SegmentStore}: a handful of large
+ * append-only files in one directory, rather than a file per feed as {@link DiskFeedCache} does.
+ *
+ * The store is opened, and its index rebuilt, on first use. Call close() (eg, as a Spring
+ * destroy-method) when done.
+ */
+public class SegmentFeedCache extends LinkedHashMapFeedCache {
+	Logger logger = Logger.getLogger(getClass().getName());
+
+	private final SegmentStoreHolder<CacheInfo> segments = new SegmentStoreHolder<CacheInfo>("feed store",
+			System.getProperty("java.io.tmpdir") + File.separator + "feedstore" + File.separator, new SerializingCacheCodec<CacheInfo>());
+	private volatile FeedCacheStatistics statistics = new FeedCacheStatistics();
+
+	public SegmentFeedCache() {
+		segments.setStatistics(statistics);
+	}
+
+	protected SegmentStore getStore() {
+		return segments.getStore();
+	}
+
+	/**
+	 * Closes the store. It is reopened if the cache is used again.
+	 */
+	public void close() {
+		segments.close();
+	}
+
+	private CacheInfo getFromStore(URL url) throws IOException {
+		return segments.get(url.toExternalForm());
+	}
+
+	private void putInStore(URL url, CacheInfo info) {
+		segments.put(url.toExternalForm(), info);
+	}
+
+	@Override
+	public SyndFeed getFeed(URL url) throws FetcherException {
+		recordAccess(url);
+		try {
+			CacheInfo cacheInfo = getFromStore(url);
+			if (cacheInfo == null) {
+				statistics.recordMiss();
+				logger.info("cache miss: " + url.toExternalForm());
+				return null;
+			}
+			if (cacheHasExpired(cacheInfo)) {
+				// a feed is kept so a 304 from upstream can revalidate it
+				if (cacheInfo.getFeed() == null && staleCacheHasExpired(cacheInfo)) {
+					segments.remove(url.toExternalForm());
+				}
+				statistics.recordExpiry();
+				logger.info("cache expired: " + url.toExternalForm());
+				return null;
+			}
+			statistics.recordDiskHit();
+			if (cacheInfo.isHasError() && cacheInfo.getFeed() == null) {
+				logger.info(url.toExternalForm() + " has cached errors!");
+				throw new FetcherException("cached " + cacheInfo.getErrorMessage());
+			}
+			return cacheInfo.getFeed();
+		} catch (IOException e) {
+			logger.error("Attempting to read from cache", e);
+			throw new FetcherException("Attempting to read from cache", e);
+		}
+	}
+
+	@Override
+	public SyndFeed getStaleFeed(URL url) throws FetcherException {
+		try {
+			CacheInfo cacheInfo = getFromStore(url);
+			if (cacheInfo == null || cacheInfo.getFeed() == null || staleCacheHasExpired(cacheInfo)) {
+				return null;
+			}
+			return cacheInfo.getFeed();
+		} catch (IOException e) {
+			logger.error("Attempting to read from cache", e);
+			throw new FetcherException("Attempting to read from cache", e);
+		}
+	}
+
+	/**
+	 * The store is append only, so this appends the entry again, but without fetching or parsing
+	 * the feed.
+	 */
+	@Override
+	public boolean touchFeed(URL url) {
+		try {
+			CacheInfo cached = getFromStore(url);
+			if (cached == null || cached.getFeed() == null) {
+				return false;
+			}
+			putInStore(url, createRevalidatedCacheInfo(cached));
+			return true;
+		} catch (IOException e) {
+			logger.error("Error touching cache entry for " + url.toExternalForm(), e);
+			return false;
+		}
+	}
+
+	@Override
+	public void setFeed(URL url, SyndFeed syndFeed, long maxAgeSeconds) {
+		putInStore(url, createCacheInfo(syndFeed, maxAgeSeconds));
+	}
+
+	@Override
+	public CacheInfo getCacheInfo(URL url) throws IOException {
+		return getFromStore(url);
+	}
+
+	@Override
+	public void putCacheInfo(URL url, CacheInfo info) {
+		putInStore(url, info);
+	}
+
+	@Override
+	public void removeCacheInfo(URL url) throws IOException {
+		segments.remove(url.toExternalForm());
+	}
+
+	@Override
+	public void setFeedError(URL url, String error, FeedErrorType errorType) {
+		logger.info("Caching " + errorType + " error for " + url.toExternalForm() + " (Error msg is " + error + ")");
+		try {
+			// not atomic with a concurrent setFeed, at worst the last good copy is lost
+			putInStore(url, CacheInfo.forError(getFromStore(url), error, errorType));
+		} catch (Exception e) {
+			logger.error("Error writing to cache for " + url.toExternalForm(), e);
+		}
+	}
+
+	public void clear() {
+		segments.clear();
+	}
+
+	/**
+	 * Compacts the store now, rather than waiting for it to be needed.
+	 */
+	public void compact() {
+		segments.compact();
+	}
+
+	public String getCachePath() {
+		return segments.getCachePath();
+	}
+
+	/**
+	 * Sets the directory holding the store. Closes any store open in the previous directory.
+	 */
+	public void setCachePath(String cachePath) {
+		segments.setCachePath(cachePath);
+	}
+
+	public long getMaxSegmentBytes() {
+		return segments.getMaxSegmentBytes();
+	}
+
+	/**
+	 * Sets the size at which a segment file is sealed and a new one started. Must be set before
+	 * the store is opened. Defaults to 16MB.
+	 */
+	public void setMaxSegmentBytes(long maxSegmentBytes) {
+		segments.setMaxSegmentBytes(maxSegmentBytes);
+	}
+
+	public int getCompactionPercent() {
+		return segments.getCompactionPercent();
+	}
+
+	/**
+	 * Sets the percentage of garbage in the sealed segments which triggers a compaction. Must be
+	 * set before the store is opened. Defaults to 50.
+	 */
+	public void setCompactionPercent(int compactionPercent) {
+		segments.setCompactionPercent(compactionPercent);
+	}
+
+	public boolean isMemoryMapped() {
+		return segments.isMemoryMapped();
+	}
+
+	/**
+	 * See {@link SegmentStore#setMemoryMapped(boolean)}. Defaults to true.
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		segments.setMemoryMapped(memoryMapped);
+	}
+
+	public boolean isSyncWrites() {
+		return segments.isSyncWrites();
+	}
+
+	/**
+	 * If true every write is fsync'd before it returns. Defaults to false.
+	 */
+	public void setSyncWrites(boolean syncWrites) {
+		segments.setSyncWrites(syncWrites);
+	}
+
+	public CacheCodec<CacheInfo> getCodec() {
+		return segments.getCodec();
+	}
+
+	/**
+	 * Sets the format of the stored entries. Defaults to Java serialization, as for
+	 * {@link DiskFeedCache}. {@link BinaryCacheInfoCodec} is smaller and faster, but does not keep
+	 * feed modules or foreign markup.
+	 */
+	public void setCodec(CacheCodec<CacheInfo> codec) {
+		segments.setCodec(codec);
+	}
+
+	public CompressionMode getCompression() {
+		return segments.getCompression();
+	}
+
+	/**
+	 * Sets the compression used when writing entries. Entries are read whatever compression they
+	 * were written with. Defaults to NONE.
+	 */
+	public void setCompression(CompressionMode compression) {
+		segments.setCompression(compression);
+	}
+
+	public FeedCacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	public void setStatistics(FeedCacheStatistics statistics) {
+		this.statistics = statistics;
+		segments.setStatistics(statistics);
+	}
+
+	public int getEntryCount() {
+		return getStore().size();
+	}
+
+	public int getSegmentCount() {
+		return getStore().getSegmentCount();
+	}
+}
@@ -0,0 +1,150 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.log4j.Logger;
+
+import com.sun.syndication.fetcher.impl.FeedFetcherCache;
+import com.sun.syndication.fetcher.impl.SyndFeedInfo;
+
+/**
+ * A FeedFetcherCache which keeps its entries in a {@link SegmentStore}, rather than a file per
+ * feed as {@link DiskBasedFeedInfoCache} does.
+ *
+ * The store is opened, and its index rebuilt, on first use. Call close() (eg, as a Spring
+ * destroy-method) when done.
+ */
+public class SegmentFeedInfoCache implements FeedFetcherCache {
+	Logger logger = Logger.getLogger(getClass().getName());
+
+	private final SegmentStoreHolder<SyndFeedInfo> segments = new SegmentStoreHolder<SyndFeedInfo>("feed info store",
+			System.getProperty("java.io.tmpdir") + File.separator + "feedinfostore" + File.separator, new BinaryFeedInfoCodec());
+
+	protected SegmentStore getStore() {
+		return segments.getStore();
+	}
+
+	/**
+	 * Closes the store. It is reopened if the cache is used again.
+	 */
+	public void close() {
+		segments.close();
+	}
+
+	public SyndFeedInfo getFeedInfo(URL url) {
+		try {
+			SyndFeedInfo info = segments.get(url.toExternalForm());
+			if (info == null) {
+				logger.debug("Cache miss for " + url.toString());
+			}
+			return info;
+		} catch (IOException e) {
+			logger.error("Attempting to read from cache", e);
+			throw new RuntimeException("Attempting to read from cache", e);
+		}
+	}
+
+	public void setFeedInfo(URL url, SyndFeedInfo feedInfo) {
+		segments.put(url.toExternalForm(), feedInfo);
+	}
+
+	public void clear() {
+		segments.clear();
+	}
+
+	public SyndFeedInfo remove(URL feedUrl) {
+		SyndFeedInfo result = getFeedInfo(feedUrl);
+		try {
+			segments.remove(feedUrl.toExternalForm());
+		} catch (IOException e) {
+			throw new RuntimeException("Attempting to remove from cache", e);
+		}
+		return result;
+	}
+
+	/**
+	 * Compacts the store now, rather than waiting for it to be needed.
+	 */
+	public void compact() {
+		segments.compact();
+	}
+
+	public String getCachePath() {
+		return segments.getCachePath();
+	}
+
+	/**
+	 * Sets the directory holding the store. Closes any store open in the previous directory.
+	 */
+	public void setCachePath(String cachePath) {
+		segments.setCachePath(cachePath);
+	}
+
+	public long getMaxSegmentBytes() {
+		return segments.getMaxSegmentBytes();
+	}
+
+	/**
+	 * See {@link SegmentFeedCache#setMaxSegmentBytes(long)}.
+	 */
+	public void setMaxSegmentBytes(long maxSegmentBytes) {
+		segments.setMaxSegmentBytes(maxSegmentBytes);
+	}
+
+	public int getCompactionPercent() {
+		return segments.getCompactionPercent();
+	}
+
+	/**
+	 * See {@link SegmentFeedCache#setCompactionPercent(int)}.
+	 */
+	public void setCompactionPercent(int compactionPercent) {
+		segments.setCompactionPercent(compactionPercent);
+	}
+
+	public boolean isMemoryMapped() {
+		return segments.isMemoryMapped();
+	}
+
+	/**
+	 * See {@link SegmentStore#setMemoryMapped(boolean)}. Defaults to true.
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		segments.setMemoryMapped(memoryMapped);
+	}
+
+	public boolean isSyncWrites() {
+		return segments.isSyncWrites();
+	}
+
+	/**
+	 * If true every write is fsync'd before it returns. Defaults to false.
+	 */
+	public void setSyncWrites(boolean syncWrites) {
+		segments.setSyncWrites(syncWrites);
+	}
+
+	public CacheCodec<SyndFeedInfo> getCodec() {
+		return segments.getCodec();
+	}
+
+	/**
+	 * Sets the format of the stored entries. Defaults to {@link BinaryFeedInfoCodec}.
+	 */
+	public void setCodec(CacheCodec<SyndFeedInfo> codec) {
+		segments.setCodec(codec);
+	}
+
+	public CompressionMode getCompression() {
+		return segments.getCompression();
+	}
+
+	/**
+	 * See {@link SegmentFeedCache#setCompression(CompressionMode)}.
+	 */
+	public void setCompression(CompressionMode compression) {
+		segments.setCompression(compression);
+	}
+}
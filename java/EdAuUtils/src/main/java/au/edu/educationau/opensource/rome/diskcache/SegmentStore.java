@@ -0,0 +1,719 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A persistent map of string keys to byte arrays, kept as a log of records appended to a few
+ * large segment files instead of one file per entry.
+ *
+ * Every put or remove appends a record to the active segment, which is sealed and replaced by a
+ * new one once it reaches the maximum segment size. An in-memory index maps each key to the
+ * location of its latest value, and is rebuilt on startup by replaying the segments in order; a
+ * torn record at the end of the last segment is truncated away.
+ *
+ * When enough of the sealed segments is garbage (overwritten or removed records), their live
+ * records are copied into the active segment in the background and the sealed segments deleted,
+ * oldest first so that a removal record never disappears before the value it removes. If a
+ * segment cannot be deleted (eg, on Windows, while it is still mapped), it and every newer one
+ * are kept until the next compaction.
+ *
+ * Sealed segments never change, so they are memory-mapped on first read (unless disabled) and
+ * values are read straight from the mapping, avoiding a system call and a copy per read.
+ *
+ * Record format: type byte, key length int, value length int, key (UTF-8), value, CRC32 of all
+ * the preceding bytes as an int.
+ */
+public class SegmentStore {
+	static final Logger logger = Logger.getLogger(SegmentStore.class);
+
+	static final long DEFAULT_MAX_SEGMENT_BYTES = 16L * 1024L * 1024L;
+	static final int DEFAULT_COMPACTION_PERCENT = 50;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+	private static final int HEADER_LENGTH = 9;
+	private static final int CRC_LENGTH = 4;
+
+	static final class Segment {
+		final int id;
+		final File file;
+		final RandomAccessFile raf;
+		final FileChannel channel;
+		// guarded by appendLock once the store is open
+		long size;
+		long liveBytes;
+		volatile boolean sealed;
+		// being compacted away, so not worth mapping
+		volatile boolean retiring;
+		private volatile ByteBuffer mapped;
+
+		Segment(int id, File file) throws IOException {
+			this.id = id;
+			this.file = file;
+			this.raf = new RandomAccessFile(file, "rw");
+			this.channel = raf.getChannel();
+		}
+
+		/**
+		 * @return a read only mapping of the whole segment, which must be sealed, or null if it is
+		 *         about to be deleted and has not been mapped already
+		 */
+		ByteBuffer map() throws IOException {
+			ByteBuffer result = mapped;
+			if (result == null) {
+				synchronized (this) {
+					result = mapped;
+					if (result == null) {
+						if (retiring) {
+							return null;
+						}
+						result = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+						mapped = result;
+					}
+				}
+			}
+			return result;
+		}
+
+		void close() {
+			// the mapping itself is only released once it has been garbage collected
+			mapped = null;
+			try {
+				raf.close();
+			} catch (IOException e) {
+				logger.warn("error closing " + file.getAbsolutePath(), e);
+			}
+		}
+	}
+
+	static final class Location {
+		final Segment segment;
+		final long valueOffset;
+		final int valueLength;
+		final int recordLength;
+
+		Location(Segment segment, long valueOffset, int valueLength, int recordLength) {
+			this.segment = segment;
+			this.valueOffset = valueOffset;
+			this.valueLength = valueLength;
+			this.recordLength = recordLength;
+		}
+	}
+
+	private final File directory;
+	private final long maxSegmentBytes;
+	private final int compactionPercent;
+	private volatile boolean syncWrites;
+	private volatile boolean memoryMapped = true;
+
+	private final ConcurrentMap<String, Location> index = new ConcurrentHashMap<String, Location>();
+	private final ConcurrentMap<Integer, Segment> segments = new ConcurrentHashMap<Integer, Segment>();
+	private Segment active;
+	// closed segments which could not be deleted, oldest first; replaced with segmentsLock held
+	private volatile List<Segment> undeleted = Collections.emptyList();
+
+	/**
+	 * Serialises appends, and so every change to the index and to segment sizes.
+	 */
+	private final ReentrantLock appendLock = new ReentrantLock();
+
+	/**
+	 * Held for reading while a segment is read, and for writing while segments are deleted.
+	 */
+	private final ReentrantReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+
+	private final AtomicBoolean compacting = new AtomicBoolean();
+	private final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "segment-store-compactor");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	public SegmentStore(File directory) throws IOException {
+		this(directory, DEFAULT_MAX_SEGMENT_BYTES, DEFAULT_COMPACTION_PERCENT);
+	}
+
+	/**
+	 * Opens the store in a directory, creating it if necessary, and rebuilds the index from any
+	 * existing segments.
+	 *
+	 * @param compactionPercent compact once this percentage of the sealed segments is garbage
+	 */
+	public SegmentStore(File directory, long maxSegmentBytes, int compactionPercent) throws IOException {
+		this.directory = directory;
+		this.maxSegmentBytes = maxSegmentBytes;
+		this.compactionPercent = compactionPercent;
+		if (directory.exists() && !directory.isDirectory()) {
+			throw new IOException("Configured cache directory already exists as a file: " + directory.getAbsolutePath());
+		}
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Could not create directory " + directory.getAbsolutePath());
+		}
+		rebuild();
+	}
+
+	private void rebuild() throws IOException {
+		int[] ids = listSegmentIds();
+		for (int i = 0; i < ids.length; i++) {
+			Segment segment = new Segment(ids[i], segmentFile(ids[i]));
+			segments.put(Integer.valueOf(segment.id), segment);
+			replay(segment, i == ids.length - 1);
+			segment.sealed = i < ids.length - 1;
+		}
+		if (ids.length == 0) {
+			active = newSegment(0);
+		} else {
+			active = segments.get(Integer.valueOf(ids[ids.length - 1]));
+		}
+		logger.info("Opened segment store " + directory.getAbsolutePath() + " with " + index.size() + " entries in " + segments.size()
+				+ " segments");
+	}
+
+	private int[] listSegmentIds() {
+		List<Integer> ids = new ArrayList<Integer>();
+		String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+					try {
+						ids.add(Integer.valueOf(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+					} catch (NumberFormatException e) {
+						logger.warn("Ignoring unexpected file " + name + " in segment store");
+					}
+				}
+			}
+		}
+		int[] result = new int[ids.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = ids.get(i).intValue();
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	private File segmentFile(int id) {
+		// zero padded so the files list in order
+		String number = Integer.toString(id);
+		while (number.length() < 10) {
+			number = "0" + number;
+		}
+		return new File(directory, SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+	}
+
+	private Segment newSegment(int id) throws IOException {
+		Segment segment = new Segment(id, segmentFile(id));
+		segments.put(Integer.valueOf(id), segment);
+		return segment;
+	}
+
+	/**
+	 * Applies a segment's records to the index. Reading stops at the first damaged record; in
+	 * the last segment the damage is assumed to be a torn write, and is truncated away.
+	 */
+	private void replay(Segment segment, boolean last) throws IOException {
+		long length = segment.file.length();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+		long offset = 0;
+		try {
+			CRC32 crc = new CRC32();
+			while (offset < length) {
+				byte type;
+				byte[] key;
+				int valueLength;
+				try {
+					type = in.readByte();
+					int keyLength = in.readInt();
+					valueLength = in.readInt();
+					if ((type != PUT && type != REMOVE) || keyLength < 0 || valueLength < 0
+							|| offset + HEADER_LENGTH + keyLength + valueLength + CRC_LENGTH > length) {
+						break;
+					}
+					key = new byte[keyLength];
+					in.readFully(key);
+					byte[] value = new byte[valueLength];
+					in.readFully(value);
+					int storedCrc = in.readInt();
+
+					crc.reset();
+					crc.update(header(type, keyLength, valueLength));
+					crc.update(key);
+					crc.update(value);
+					if ((int) crc.getValue() != storedCrc) {
+						break;
+					}
+				} catch (EOFException e) {
+					break;
+				}
+
+				int recordLength = HEADER_LENGTH + key.length + valueLength + CRC_LENGTH;
+				String k = new String(key, "UTF-8");
+				Location previous;
+				if (type == PUT) {
+					segment.liveBytes += recordLength;
+					previous = index.put(k, new Location(segment, offset + HEADER_LENGTH + key.length, valueLength, recordLength));
+				} else {
+					previous = index.remove(k);
+				}
+				if (previous != null) {
+					previous.segment.liveBytes -= previous.recordLength;
+				}
+				offset += recordLength;
+			}
+		} finally {
+			in.close();
+		}
+
+		segment.size = offset;
+		if (offset < length) {
+			if (last) {
+				logger.warn("Truncating damaged tail of " + segment.file.getAbsolutePath() + " at " + offset + " of " + length + " bytes");
+				segment.raf.setLength(offset);
+			} else {
+				logger.warn("Ignoring damaged records in " + segment.file.getAbsolutePath() + " after " + offset + " of " + length
+						+ " bytes");
+			}
+		}
+	}
+
+	private static byte[] header(byte type, int keyLength, int valueLength) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.put(type).putInt(keyLength).putInt(valueLength);
+		return header.array();
+	}
+
+	private static byte[] toBytes(String key) {
+		try {
+			return key.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException("UTF-8 not supported", e);
+		}
+	}
+
+	/**
+	 * @return the value stored for the key, or null if there is none
+	 */
+	public byte[] get(String key) throws IOException {
+		segmentsLock.readLock().lock();
+		try {
+			Location location = index.get(key);
+			if (location == null) {
+				return null;
+			}
+			return read(location);
+		} finally {
+			segmentsLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a stream over the value stored for the key, read directly from the mapped segment
+	 * where possible, or null if there is none. The stream does not need to be closed, and can
+	 * still be read if the value is overwritten or compacted away meanwhile, but only because it
+	 * holds the segment's mapping: until the stream is garbage collected the mapping keeps the
+	 * segment's address space, and its disk space if the file has been deleted, and on Windows
+	 * stops the file being deleted at all. Read it straight away rather than holding on to it.
+	 */
+	public InputStream getInputStream(String key) throws IOException {
+		segmentsLock.readLock().lock();
+		try {
+			Location location = index.get(key);
+			if (location == null) {
+				return null;
+			}
+			ByteBuffer value = mappedValue(location);
+			if (value != null) {
+				return new ByteBufferInputStream(value);
+			}
+			return new ByteArrayInputStream(readFromChannel(location));
+		} finally {
+			segmentsLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * MUST be called with segmentsLock held
+	 *
+	 * @return a view of the value in the segment's mapping, or null if it cannot be mapped
+	 */
+	private ByteBuffer mappedValue(Location location) throws IOException {
+		Segment segment = location.segment;
+		if (!memoryMapped || !segment.sealed || segment.size > Integer.MAX_VALUE) {
+			return null;
+		}
+		ByteBuffer mapping = segment.map();
+		if (mapping == null) {
+			return null;
+		}
+		ByteBuffer value = mapping.duplicate();
+		value.position((int) location.valueOffset);
+		value.limit((int) location.valueOffset + location.valueLength);
+		return value.slice();
+	}
+
+	/**
+	 * MUST be called with segmentsLock held
+	 */
+	private byte[] read(Location location) throws IOException {
+		ByteBuffer mapped = mappedValue(location);
+		if (mapped != null) {
+			byte[] value = new byte[location.valueLength];
+			mapped.get(value);
+			return value;
+		}
+		return readFromChannel(location);
+	}
+
+	private byte[] readFromChannel(Location location) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(location.valueLength);
+		long position = location.valueOffset;
+		while (buffer.hasRemaining()) {
+			int read = location.segment.channel.read(buffer, position);
+			if (read < 0) {
+				throw new EOFException("Segment " + location.segment.file.getAbsolutePath() + " is shorter than its index");
+			}
+			position += read;
+		}
+		return buffer.array();
+	}
+
+	public void put(String key, byte[] value) throws IOException {
+		appendLock.lock();
+		try {
+			append(PUT, key, value);
+		} finally {
+			appendLock.unlock();
+		}
+		compactIfNeeded();
+	}
+
+	/**
+	 * @return true if there was a value for the key
+	 */
+	public boolean remove(String key) throws IOException {
+		appendLock.lock();
+		try {
+			if (!index.containsKey(key)) {
+				return false;
+			}
+			append(REMOVE, key, new byte[0]);
+			return true;
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/**
+	 * MUST be called ONLY when appendLock is held
+	 */
+	private void append(byte type, String key, byte[] value) throws IOException {
+		if (active.size >= maxSegmentBytes) {
+			rollSegment();
+		}
+
+		byte[] keyBytes = toBytes(key);
+		byte[] header = header(type, keyBytes.length, value.length);
+		CRC32 crc = new CRC32();
+		crc.update(header);
+		crc.update(keyBytes);
+		crc.update(value);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(header.length + keyBytes.length + value.length + CRC_LENGTH);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.write(header);
+		out.write(keyBytes);
+		out.write(value);
+		out.writeInt((int) crc.getValue());
+		out.flush();
+
+		ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+		long offset = active.size;
+		long position = offset;
+		while (record.hasRemaining()) {
+			position += active.channel.write(record, position);
+		}
+		if (syncWrites) {
+			active.channel.force(false);
+		}
+		active.size = position;
+
+		int recordLength = record.capacity();
+		Location previous;
+		if (type == PUT) {
+			active.liveBytes += recordLength;
+			previous = index.put(key, new Location(active, offset + HEADER_LENGTH + keyBytes.length, value.length, recordLength));
+		} else {
+			previous = index.remove(key);
+		}
+		if (previous != null) {
+			previous.segment.liveBytes -= previous.recordLength;
+		}
+	}
+
+	/**
+	 * MUST be called ONLY when appendLock is held
+	 */
+	private void rollSegment() throws IOException {
+		Segment previous = active;
+		active = newSegment(previous.id + 1);
+		previous.sealed = true;
+	}
+
+	/**
+	 * Removes every entry and deletes all the segments. Should a segment not be deleted, the
+	 * entries are removed in a new segment instead, so they are not read back from it.
+	 */
+	public void clear() throws IOException {
+		segmentsLock.writeLock().lock();
+		appendLock.lock();
+		try {
+			int nextId = active.id + 1;
+			List<String> keys = new ArrayList<String>(index.keySet());
+			index.clear();
+			boolean deleted = deleteSegments(new ArrayList<Segment>(segments.values()));
+			active = newSegment(nextId);
+			if (!deleted) {
+				for (String key : keys) {
+					append(REMOVE, key, new byte[0]);
+				}
+			}
+		} finally {
+			appendLock.unlock();
+			segmentsLock.writeLock().unlock();
+		}
+	}
+
+	private void compactIfNeeded() {
+		if (getGarbagePercent() < compactionPercent || !compacting.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			compactor.execute(new Runnable() {
+				public void run() {
+					try {
+						compact();
+					} catch (IOException e) {
+						logger.error("Compacting segment store " + directory.getAbsolutePath(), e);
+					} finally {
+						compacting.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// closed
+			compacting.set(false);
+		}
+	}
+
+	/**
+	 * @return the percentage of the sealed segments taken up by overwritten or removed records
+	 */
+	public int getGarbagePercent() {
+		appendLock.lock();
+		try {
+			long total = 0;
+			long live = 0;
+			for (Segment segment : segments.values()) {
+				if (segment != active) {
+					total += segment.size;
+					live += segment.liveBytes;
+				}
+			}
+			return total == 0 ? 0 : (int) ((total - live) * 100 / total);
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/**
+	 * Copies the live records of all the sealed segments into the active segment, then deletes
+	 * the sealed segments. Normally run in the background when needed, but may be called directly.
+	 */
+	public synchronized void compact() throws IOException {
+		List<Segment> sealed = new ArrayList<Segment>();
+		appendLock.lock();
+		try {
+			// start a new segment so everything written so far can be compacted
+			if (active.size > 0) {
+				rollSegment();
+			}
+			for (Segment segment : segments.values()) {
+				if (segment != active) {
+					segment.retiring = true;
+					sealed.add(segment);
+				}
+			}
+		} finally {
+			appendLock.unlock();
+		}
+		if (sealed.isEmpty() && undeleted.isEmpty()) {
+			return;
+		}
+
+		int copied = 0;
+		segmentsLock.readLock().lock();
+		try {
+			for (Map.Entry<String, Location> entry : index.entrySet()) {
+				Location location = entry.getValue();
+				if (!sealed.contains(location.segment)) {
+					continue;
+				}
+				byte[] value = read(location);
+				appendLock.lock();
+				try {
+					// only if it has not been replaced or removed meanwhile
+					if (index.get(entry.getKey()) == location) {
+						append(PUT, entry.getKey(), value);
+						copied++;
+					}
+				} finally {
+					appendLock.unlock();
+				}
+			}
+		} finally {
+			segmentsLock.readLock().unlock();
+		}
+
+		segmentsLock.writeLock().lock();
+		try {
+			if (!deleteSegments(sealed)) {
+				throw new IOException("Could not delete all the compacted segments of " + directory.getAbsolutePath() + ", "
+						+ undeleted.size() + " kept until the next compaction");
+			}
+		} finally {
+			segmentsLock.writeLock().unlock();
+		}
+		logger.info("Compacted " + sealed.size() + " segments of " + directory.getAbsolutePath() + ", " + copied + " live entries copied");
+	}
+
+	/**
+	 * Closes and deletes segments, along with any left over from before, oldest first. A removal
+	 * must not be deleted before the value it removes, so deleting stops at the first segment
+	 * which cannot be deleted, and it and every newer one are kept for next time.
+	 *
+	 * MUST be called with segmentsLock held for writing
+	 *
+	 * @return false if any were kept
+	 */
+	private boolean deleteSegments(List<Segment> toDelete) {
+		List<Segment> ordered = new ArrayList<Segment>(undeleted);
+		ordered.addAll(toDelete);
+		Collections.sort(ordered, new Comparator<Segment>() {
+			public int compare(Segment a, Segment b) {
+				return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < ordered.size(); i++) {
+			Segment segment = ordered.get(i);
+			segments.remove(Integer.valueOf(segment.id));
+			segment.close();
+			if (!deleteFile(segment.file)) {
+				logger.warn("Could not delete " + segment.file.getAbsolutePath() + ", keeping it and " + (ordered.size() - i - 1)
+						+ " newer segments until the next compaction");
+				List<Segment> kept = new ArrayList<Segment>(ordered.subList(i, ordered.size()));
+				for (Segment newer : kept) {
+					segments.remove(Integer.valueOf(newer.id));
+					newer.close();
+				}
+				undeleted = kept;
+				return false;
+			}
+		}
+		undeleted = Collections.emptyList();
+		return true;
+	}
+
+	/**
+	 * Deletes a segment file; overridden by tests.
+	 */
+	boolean deleteFile(File file) {
+		return file.delete();
+	}
+
+	/**
+	 * Stops background compaction and closes the segment files.
+	 */
+	public void close() {
+		compactor.shutdown();
+		segmentsLock.writeLock().lock();
+		appendLock.lock();
+		try {
+			for (Segment segment : segments.values()) {
+				segment.close();
+			}
+		} finally {
+			appendLock.unlock();
+			segmentsLock.writeLock().unlock();
+		}
+	}
+
+	public int size() {
+		return index.size();
+	}
+
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public boolean isMemoryMapped() {
+		return memoryMapped;
+	}
+
+	/**
+	 * If true, sealed segments are memory-mapped on first read and read through the mapping.
+	 * Defaults to true; turn off where address space is scarce, eg on a 32 bit JVM with a large
+	 * store.
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+
+	public boolean isSyncWrites() {
+		return syncWrites;
+	}
+
+	/**
+	 * If true every append is fsync'd before it returns. Defaults to false.
+	 */
+	public void setSyncWrites(boolean syncWrites) {
+		this.syncWrites = syncWrites;
+	}
+}
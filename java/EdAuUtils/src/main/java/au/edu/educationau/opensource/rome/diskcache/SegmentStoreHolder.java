@@ -0,0 +1,209 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The {@link SegmentStore} behind {@link SegmentFeedCache} and {@link SegmentFeedInfoCache}, with
+ * its configuration and the codec entries are stored with. The caches delegate their settings
+ * here.
+ *
+ * The store is opened, and its index rebuilt, on first use.
+ */
+final class SegmentStoreHolder<T> {
+	static final Logger logger = Logger.getLogger(SegmentStoreHolder.class);
+
+	private final String name;
+	private volatile String cachePath;
+	private long maxSegmentBytes = SegmentStore.DEFAULT_MAX_SEGMENT_BYTES;
+	private int compactionPercent = SegmentStore.DEFAULT_COMPACTION_PERCENT;
+	private volatile boolean syncWrites;
+	private volatile boolean memoryMapped = true;
+	private volatile CacheCodec<T> codec;
+	private volatile CompressionMode compression = CompressionMode.NONE;
+	private volatile CompressingCacheCodec<T> storeCodec;
+	private volatile FeedCacheStatistics statistics;
+
+	private volatile SegmentStore store;
+
+	/**
+	 * @param name what the store holds, for messages
+	 */
+	SegmentStoreHolder(String name, String cachePath, CacheCodec<T> codec) {
+		this.name = name;
+		this.cachePath = cachePath;
+		setCodec(codec);
+	}
+
+	SegmentStore getStore() {
+		SegmentStore result = store;
+		if (result == null) {
+			synchronized (this) {
+				result = store;
+				if (result == null) {
+					try {
+						result = new SegmentStore(new File(cachePath), maxSegmentBytes, compactionPercent);
+					} catch (IOException e) {
+						throw new RuntimeException("Could not open " + name + " in " + cachePath, e);
+					}
+					result.setSyncWrites(syncWrites);
+					result.setMemoryMapped(memoryMapped);
+					store = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	synchronized void close() {
+		if (store != null) {
+			store.close();
+			store = null;
+		}
+	}
+
+	/**
+	 * @return the entry, or null if there is none or it could not be read, in which case it is
+	 *         removed
+	 */
+	T get(String key) throws IOException {
+		InputStream in = getStore().getInputStream(key);
+		if (in == null) {
+			return null;
+		}
+		long start = System.nanoTime();
+		try {
+			CountingInputStream counter = new CountingInputStream(in);
+			T value = storeCodec.decode(counter);
+			if (statistics != null) {
+				statistics.recordDiskRead(counter.getCount(), System.nanoTime() - start);
+			}
+			return value;
+		} catch (ObjectStreamException e) {
+			logger.warn("Unreadable " + name + " entry (class or format has changed) - cached item will be ignored");
+		} catch (EOFException e) {
+			logger.warn("EOF Exception caught reading " + name + " entry, possible corruption, removing entry");
+		}
+		getStore().remove(key);
+		return null;
+	}
+
+	void put(String key, T value) {
+		try {
+			long start = System.nanoTime();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			storeCodec.encode(value, out);
+			getStore().put(key, out.toByteArray());
+			if (statistics != null) {
+				statistics.recordDiskWrite(out.size(), System.nanoTime() - start);
+			}
+		} catch (IOException e) {
+			// Error writing to cache is fatal
+			logger.error("Error writing cache", e);
+			throw new RuntimeException("Attempting to write to cache", e);
+		}
+	}
+
+	void remove(String key) throws IOException {
+		getStore().remove(key);
+	}
+
+	void clear() {
+		logger.info("Clearing " + name + " in " + cachePath);
+		try {
+			getStore().clear();
+		} catch (IOException e) {
+			throw new RuntimeException("Attempting to clear cache", e);
+		}
+	}
+
+	void compact() {
+		try {
+			getStore().compact();
+		} catch (IOException e) {
+			throw new RuntimeException("Attempting to compact cache", e);
+		}
+	}
+
+	String getCachePath() {
+		return cachePath;
+	}
+
+	/**
+	 * Closes any store open in the previous directory.
+	 */
+	synchronized void setCachePath(String cachePath) {
+		close();
+		this.cachePath = cachePath;
+	}
+
+	long getMaxSegmentBytes() {
+		return maxSegmentBytes;
+	}
+
+	void setMaxSegmentBytes(long maxSegmentBytes) {
+		this.maxSegmentBytes = maxSegmentBytes;
+	}
+
+	int getCompactionPercent() {
+		return compactionPercent;
+	}
+
+	void setCompactionPercent(int compactionPercent) {
+		this.compactionPercent = compactionPercent;
+	}
+
+	boolean isMemoryMapped() {
+		return memoryMapped;
+	}
+
+	synchronized void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+		if (store != null) {
+			store.setMemoryMapped(memoryMapped);
+		}
+	}
+
+	boolean isSyncWrites() {
+		return syncWrites;
+	}
+
+	synchronized void setSyncWrites(boolean syncWrites) {
+		this.syncWrites = syncWrites;
+		if (store != null) {
+			store.setSyncWrites(syncWrites);
+		}
+	}
+
+	CacheCodec<T> getCodec() {
+		return codec;
+	}
+
+	void setCodec(CacheCodec<T> codec) {
+		this.codec = codec;
+		this.storeCodec = new CompressingCacheCodec<T>(codec, compression);
+	}
+
+	CompressionMode getCompression() {
+		return compression;
+	}
+
+	void setCompression(CompressionMode compression) {
+		this.compression = compression;
+		this.storeCodec = new CompressingCacheCodec<T>(codec, compression);
+	}
+
+	/**
+	 * Sets where the bytes and time taken by disk reads and writes are recorded, or null not to
+	 * record them. Hits are counted by the cache, which knows whether the entry it read was used.
+	 */
+	void setStatistics(FeedCacheStatistics statistics) {
+		this.statistics = statistics;
+	}
+}
@@ -0,0 +1,31 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Stores entries using standard Java serialization. This is the original cache file format.
+ */
+public class SerializingCacheCodec<T> implements CacheCodec<T> {
+
+	public void encode(T value, OutputStream out) throws IOException {
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+		oos.writeObject(value);
+		oos.flush();
+	}
+
+	@SuppressWarnings("unchecked")
+	public T decode(InputStream in) throws IOException {
+		ObjectInputStream ois = new ObjectInputStream(in);
+		try {
+			return (T) ois.readObject();
+		} catch (ClassNotFoundException e) {
+			// eg, written by a different version of ROME
+			throw new InvalidClassException(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which many threads can update at once without losing updates or contending on a
+ * single value. Each thread adds to one of several cells, spread a cache line apart, and
+ * reading sums them, so a read is only exact when there are no concurrent updates.
+ */
+public class StripedCounter {
+	private static final int MAX_CELLS = 64;
+	// longs per cache line, so neighbouring cells do not share one
+	private static final int PADDING = 8;
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	public StripedCounter() {
+		int count = 1;
+		while (count < MAX_CELLS && count < Runtime.getRuntime().availableProcessors() * 2) {
+			count <<= 1;
+		}
+		cells = new AtomicLongArray(count * PADDING);
+		mask = count - 1;
+	}
+
+	private int cell() {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32));
+		h ^= (h >>> 16);
+		h *= 0x85EBCA6B;
+		h ^= (h >>> 13);
+		return (h & mask) * PADDING;
+	}
+
+	public void increment() {
+		cells.incrementAndGet(cell());
+	}
+
+	public void add(long delta) {
+		cells.addAndGet(cell(), delta);
+	}
+
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < cells.length(); i += PADDING) {
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+
+	public void reset() {
+		for (int i = 0; i < cells.length(); i += PADDING) {
+			cells.set(i, 0);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(sum());
+	}
+}
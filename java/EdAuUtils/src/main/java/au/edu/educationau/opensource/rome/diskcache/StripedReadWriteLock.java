@@ -0,0 +1,57 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed array of read/write locks, one of which is picked for each key by hash.
+ *
+ * Operations on keys which fall into different stripes never block each other, so a slow
+ * write of one cache entry does not stall readers of the others.
+ */
+public class StripedReadWriteLock {
+	private final ReentrantReadWriteLock[] locks;
+	private final int mask;
+
+	public StripedReadWriteLock(int stripes) {
+		if (stripes <= 0) {
+			throw new IllegalArgumentException("stripes must be positive: " + stripes);
+		}
+		// round up to a power of two so the stripe can be picked with a mask
+		int size = 1;
+		while (size < stripes) {
+			size <<= 1;
+		}
+		locks = new ReentrantReadWriteLock[size];
+		for (int i = 0; i < size; i++) {
+			locks[i] = new ReentrantReadWriteLock();
+		}
+		mask = size - 1;
+	}
+
+	public ReentrantReadWriteLock forKey(Object key) {
+		int h = key.hashCode();
+		// spread the bits, String.hashCode() is weak in the low bits for similar URLs
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return locks[h & mask];
+	}
+
+	/**
+	 * Acquires the write lock of every stripe, always in the same order.
+	 */
+	public void lockAllForWrite() {
+		for (int i = 0; i < locks.length; i++) {
+			locks[i].writeLock().lock();
+		}
+	}
+
+	public void unlockAllForWrite() {
+		for (int i = locks.length - 1; i >= 0; i--) {
+			locks[i].writeLock().unlock();
+		}
+	}
+
+	public int getStripes() {
+		return locks.length;
+	}
+}
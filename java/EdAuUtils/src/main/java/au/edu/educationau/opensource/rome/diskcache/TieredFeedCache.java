@@ -0,0 +1,359 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.fetcher.FetcherException;
+
+/**
+ * A read-through cache over an ordered list of tiers, fastest first: for example a
+ * {@link LinkedHashMapFeedCache} in memory, then a {@link DiskFeedCache}, then a store shared over
+ * the network. Lookups try each tier in turn, and an entry found in a lower tier is copied up into
+ * the tiers above it. Writes go to every tier, to the lower tiers either straight away or, with
+ * writeBehind, on a background thread which writes only the latest change to each URL.
+ *
+ * The TTL settings of this cache decide when entries expire; those of the tiers are ignored, as
+ * entries are moved between them with their original age.
+ */
+public class TieredFeedCache extends LinkedHashMapFeedCache {
+	static final Logger logger = Logger.getLogger(TieredFeedCache.class);
+
+	/**
+	 * A change to one URL's entry: storing it, touching it, or removing it (info is null).
+	 */
+	private static final class TierWrite {
+		final URL url;
+		final CacheInfo info;
+		final boolean touch;
+
+		TierWrite(URL url, CacheInfo info, boolean touch) {
+			this.url = url;
+			this.info = info;
+			this.touch = touch;
+		}
+
+		void apply(FeedCacheTier tier) throws IOException {
+			if (info == null) {
+				tier.removeCacheInfo(url);
+			} else if (!touch || !(tier instanceof RevalidatingFeedCache) || !((RevalidatingFeedCache) tier).touchFeed(url)) {
+				tier.putCacheInfo(url, info);
+			}
+		}
+	}
+
+	private volatile List<FeedCacheTier> tiers = new ArrayList<FeedCacheTier>();
+	private volatile StripedCounter[] tierHits = new StripedCounter[0];
+	private volatile StripedCounter[] tierWrites = new StripedCounter[0];
+	private final StripedCounter misses = new StripedCounter();
+	private final StripedCounter expiries = new StripedCounter();
+
+	private final StripedReadWriteLock writeLocks = new StripedReadWriteLock(DiskFeedCache.LOCK_STRIPES);
+	// changes waiting to be written to the lower tiers
+	private final WriteBehindQueue<TierWrite> pendingWrites = new WriteBehindQueue<TierWrite>("feed-cache-write-behind", writeLocks, new WriteBehindQueue.Writer<TierWrite>() {
+		public void write(String key, TierWrite write) {
+			writeLower(write, tiers);
+		}
+
+		public TierWrite coalesce(TierWrite waiting, TierWrite latest) {
+			// in full, as the lower tiers have not seen the version a touch refers to
+			return latest.touch ? new TierWrite(latest.url, latest.info, false) : latest;
+		}
+	});
+
+	public TieredFeedCache() {
+	}
+
+	public TieredFeedCache(List<? extends FeedCacheTier> tiers) {
+		setTiers(tiers);
+	}
+
+	public List<FeedCacheTier> getTiers() {
+		return tiers;
+	}
+
+	/**
+	 * Sets the tiers, fastest first.
+	 */
+	public void setTiers(List<? extends FeedCacheTier> tiers) {
+		StripedCounter[] hits = new StripedCounter[tiers.size()];
+		StripedCounter[] writes = new StripedCounter[tiers.size()];
+		for (int i = 0; i < hits.length; i++) {
+			hits[i] = new StripedCounter();
+			writes[i] = new StripedCounter();
+		}
+		this.tierHits = hits;
+		this.tierWrites = writes;
+		this.tiers = new ArrayList<FeedCacheTier>(tiers);
+	}
+
+	public boolean isWriteBehind() {
+		return pendingWrites.isEnabled();
+	}
+
+	/**
+	 * If true, only the first tier is written to by the calling thread, and the rest by a
+	 * background thread. Changes to a URL made again before they are written are only written
+	 * once, in their latest version. When maxPendingWrites URLs are waiting, callers block until
+	 * the writer catches up. Changes still waiting are written on shutdown(), or by a JVM shutdown
+	 * hook shared with the other caches. Defaults to false.
+	 */
+	public void setWriteBehind(boolean writeBehind) {
+		if (writeBehind) {
+			pendingWrites.start();
+		} else {
+			pendingWrites.shutdown();
+		}
+	}
+
+	public int getMaxPendingWrites() {
+		return pendingWrites.getMaxPending();
+	}
+
+	/**
+	 * Sets how many URLs may be waiting to be written before callers block. Defaults to 1000.
+	 * Must be set before write behind is turned on.
+	 */
+	public void setMaxPendingWrites(int maxPendingWrites) {
+		pendingWrites.setMaxPending(maxPendingWrites);
+	}
+
+	/**
+	 * @return the number of URLs waiting to be written to the lower tiers
+	 */
+	public int getPendingWrites() {
+		return pendingWrites.size();
+	}
+
+	/**
+	 * Turns write behind off, writing any changes still waiting. Call when the cache is no longer
+	 * used, eg, as a Spring destroy-method.
+	 */
+	public void shutdown() {
+		pendingWrites.shutdown();
+	}
+
+	/**
+	 * Writes every change waiting to be written to the lower tiers, on the calling thread.
+	 */
+	public void flush() {
+		pendingWrites.flush();
+	}
+
+	/**
+	 * Finds the entry in the first tier which has it, copying it up into the tiers above. A tier
+	 * which fails is treated as not having the entry.
+	 */
+	private CacheInfo lookup(URL url) {
+		List<FeedCacheTier> current = tiers;
+		StripedCounter[] hits = tierHits;
+		for (int i = 0; i < current.size(); i++) {
+			if (i == 1) {
+				// a change not yet written is newer than anything below
+				TierWrite pending = pendingWrites.get(url.toExternalForm());
+				if (pending != null) {
+					if (pending.info == null) {
+						break;
+					}
+					hits[0].increment();
+					promote(url, pending.info, current, 1);
+					return pending.info;
+				}
+			}
+			CacheInfo info;
+			try {
+				info = current.get(i).getCacheInfo(url);
+			} catch (IOException e) {
+				logger.error("Attempting to read from cache tier " + i + " for " + url.toExternalForm(), e);
+				continue;
+			}
+			if (info != null) {
+				hits[i].increment();
+				if (i > 0 && !staleCacheHasExpired(info)) {
+					promote(url, info, current, i);
+				}
+				return info;
+			}
+		}
+		misses.increment();
+		return null;
+	}
+
+	private void promote(URL url, CacheInfo info, List<FeedCacheTier> current, int found) {
+		for (int i = 0; i < found; i++) {
+			try {
+				current.get(i).putCacheInfo(url, info);
+			} catch (IOException e) {
+				logger.error("Error promoting " + url.toExternalForm() + " to cache tier " + i, e);
+			}
+		}
+	}
+
+	@Override
+	public SyndFeed getFeed(URL url) throws FetcherException {
+		recordAccess(url);
+		CacheInfo cacheInfo = lookup(url);
+		if (cacheInfo == null) {
+			logger.info("cache miss: " + url.toExternalForm());
+			return null;
+		}
+		if (cacheHasExpired(cacheInfo)) {
+			// a feed is kept so a 304 from upstream can revalidate it
+			if (cacheInfo.getFeed() == null && staleCacheHasExpired(cacheInfo)) {
+				remove(url);
+			}
+			expiries.increment();
+			logger.info("cache expired: " + url.toExternalForm());
+			return null;
+		}
+		if (cacheInfo.isHasError() && cacheInfo.getFeed() == null) {
+			logger.info(url.toExternalForm() + " has cached errors!");
+			throw new FetcherException("cached " + cacheInfo.getErrorMessage());
+		}
+		return cacheInfo.getFeed();
+	}
+
+	@Override
+	public SyndFeed getStaleFeed(URL url) throws FetcherException {
+		CacheInfo cacheInfo = lookup(url);
+		if (cacheInfo == null || cacheInfo.getFeed() == null || staleCacheHasExpired(cacheInfo)) {
+			return null;
+		}
+		return cacheInfo.getFeed();
+	}
+
+	/**
+	 * Copies an entry up from the tier which has it into the tiers above.
+	 */
+	@Override
+	public boolean preload(URL url) {
+		return lookup(url) != null;
+	}
+
+	@Override
+	public boolean canPreload() {
+		return tiers.size() > 1;
+	}
+
+	@Override
+	public void setFeed(URL url, SyndFeed syndFeed, long maxAgeSeconds) {
+		store(url, createCacheInfo(syndFeed, maxAgeSeconds));
+	}
+
+	@Override
+	public void setFeedError(URL url, String error, FeedErrorType errorType) {
+		logger.info("Caching " + errorType + " error for " + url.toExternalForm() + " (Error msg is " + error + ")");
+		try {
+			store(url, CacheInfo.forError(lookup(url), error, errorType));
+		} catch (Exception e) {
+			logger.error("Error writing to cache for " + url.toExternalForm(), e);
+		}
+	}
+
+	/**
+	 * Tiers which are feed caches are touched, so a {@link DiskFeedCache} need not rewrite its file.
+	 */
+	@Override
+	public boolean touchFeed(URL url) {
+		CacheInfo cached = lookup(url);
+		if (cached == null || cached.getFeed() == null) {
+			return false;
+		}
+		write(new TierWrite(url, createRevalidatedCacheInfo(cached), true));
+		return true;
+	}
+
+	private void store(URL url, CacheInfo info) {
+		write(new TierWrite(url, info, false));
+	}
+
+	private void remove(URL url) {
+		write(new TierWrite(url, null, false));
+	}
+
+	private void write(TierWrite write) {
+		List<FeedCacheTier> current = tiers;
+		if (current.isEmpty()) {
+			return;
+		}
+		try {
+			write.apply(current.get(0));
+			tierWrites[0].increment();
+		} catch (IOException e) {
+			// Error writing to cache is fatal
+			logger.error("Error writing cache", e);
+			throw new RuntimeException("Attempting to write to cache", e);
+		}
+		if (current.size() == 1) {
+			return;
+		}
+		String key = write.url.toExternalForm();
+		if (pendingWrites.queue(key, write)) {
+			return;
+		}
+		// written behind until just now, so drop any older change still waiting
+		ReentrantReadWriteLock writeLock = writeLocks.forKey(key);
+		writeLock.writeLock().lock();
+		try {
+			pendingWrites.cancel(key);
+			writeLower(write, current);
+		} finally {
+			writeLock.writeLock().unlock();
+		}
+	}
+
+	private void writeLower(TierWrite write, List<FeedCacheTier> current) {
+		StripedCounter[] writes = tierWrites;
+		for (int i = 1; i < current.size(); i++) {
+			try {
+				write.apply(current.get(i));
+				writes[i].increment();
+			} catch (Exception e) {
+				// the entry is still cached above, so carry on
+				logger.error("Error writing cache tier " + i + " for " + write.url.toExternalForm(), e);
+			}
+		}
+	}
+
+	public int getTierCount() {
+		return tiers.size();
+	}
+
+	/**
+	 * @return the number of lookups answered by a tier, counting from 0 for the fastest
+	 */
+	public long getTierHits(int tier) {
+		return tierHits[tier].sum();
+	}
+
+	public long getTierWrites(int tier) {
+		return tierWrites[tier].sum();
+	}
+
+	/**
+	 * @return the number of lookups no tier could answer
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getExpiries() {
+		return expiries.sum();
+	}
+
+	public void resetStatistics() {
+		for (StripedCounter counter : tierHits) {
+			counter.reset();
+		}
+		for (StripedCounter counter : tierWrites) {
+			counter.reset();
+		}
+		misses.reset();
+		expiries.reset();
+	}
+}
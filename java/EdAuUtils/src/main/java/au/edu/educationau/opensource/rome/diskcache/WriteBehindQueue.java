@@ -0,0 +1,327 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes changes to a cache's slower storage on a background thread, for the caches' write behind
+ * mode. Changes to a key queued again before they are written are only written once, in their
+ * latest version. When maxPending keys are waiting, callers block until the writer catches up.
+ *
+ * Each change is written with its key's write lock held. A caller which writes a key straight to
+ * storage must hold the same lock and {@link #cancel(String)} the key first, so a change still
+ * waiting cannot overwrite a newer one.
+ *
+ * Changes still waiting are written by {@link #shutdown()}, or when the JVM exits, by a single
+ * shutdown hook shared by all queues. The hook and the writer thread only hold queues weakly, so a
+ * cache which is dropped without being shut down (eg, by an undeployed web app) can still be
+ * collected, losing any changes which were waiting.
+ */
+final class WriteBehindQueue<T> {
+	static final Logger logger = Logger.getLogger(WriteBehindQueue.class);
+
+	/**
+	 * Queued to wake the writer thread; never a key, so writing it does nothing.
+	 */
+	private static final String WAKE = "";
+
+	interface Writer<T> {
+		/**
+		 * Writes a change to storage, with its key's write lock held.
+		 */
+		void write(String key, T value) throws Exception;
+
+		/**
+		 * @return the change to write instead of one still waiting and a later one to the same key
+		 */
+		T coalesce(T waiting, T latest);
+	}
+
+	// queues to flush when the JVM exits
+	private static final Map<WriteBehindQueue<?>, Boolean> running = new WeakHashMap<WriteBehindQueue<?>, Boolean>();
+	private static Thread exitHook;
+
+	private final String threadName;
+	private final StripedReadWriteLock locks;
+	private final Writer<T> writer;
+
+	private volatile boolean enabled;
+	private int maxPending = 1000;
+	// the latest unwritten change for each key, and the order they were first queued in
+	private final ConcurrentMap<String, T> pending = new ConcurrentHashMap<String, T>();
+	private volatile BlockingQueue<String> keys = new LinkedBlockingQueue<String>(maxPending);
+	private volatile Thread writerThread;
+
+	/**
+	 * @param locks the locks guarding the cache's entries, by key
+	 */
+	WriteBehindQueue(String threadName, StripedReadWriteLock locks, Writer<T> writer) {
+		this.threadName = threadName;
+		this.locks = locks;
+		this.writer = writer;
+	}
+
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts the writer thread, after which {@link #queue(String, Object)} queues changes.
+	 */
+	synchronized void start() {
+		if (enabled) {
+			return;
+		}
+		Thread thread = new Thread(new WriterLoop(this, keys), threadName);
+		thread.setDaemon(true);
+		writerThread = thread;
+		enabled = true;
+		thread.start();
+		register(this);
+	}
+
+	/**
+	 * Stops the writer thread and writes every change still waiting, on the calling thread.
+	 * Changes are queued until the queue is drained, then written straight away by the callers,
+	 * so none is written after a newer one.
+	 */
+	synchronized void shutdown() {
+		Thread thread = writerThread;
+		if (thread == null) {
+			return;
+		}
+		writerThread = null;
+		keys.offer(WAKE);
+		if (thread != Thread.currentThread()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		flush();
+		enabled = false;
+		// including any queued by callers which had not seen it turned off
+		flush();
+		unregister(this);
+	}
+
+	int getMaxPending() {
+		return maxPending;
+	}
+
+	synchronized void setMaxPending(int maxPending) {
+		if (enabled) {
+			throw new IllegalStateException("maxPendingWrites cannot be changed while writing behind");
+		}
+		this.maxPending = maxPending;
+		this.keys = new LinkedBlockingQueue<String>(maxPending);
+	}
+
+	/**
+	 * @return the number of keys waiting to be written
+	 */
+	int size() {
+		return pending.size();
+	}
+
+	/**
+	 * @return the change waiting to be written for a key, or null if there is none
+	 */
+	T get(String key) {
+		return pending.isEmpty() ? null : pending.get(key);
+	}
+
+	/**
+	 * Queues a change to be written, unless write behind is off. Must not be called with the key's
+	 * lock held, as it may wait for the writer thread.
+	 *
+	 * @return false if write behind is off, so the caller must write the change itself
+	 */
+	boolean queue(String key, T value) {
+		if (!enabled) {
+			return false;
+		}
+		while (true) {
+			T waiting = pending.get(key);
+			if (waiting == null) {
+				if (pending.putIfAbsent(key, value) == null) {
+					break;
+				}
+			} else if (pending.replace(key, waiting, writer.coalesce(waiting, value))) {
+				// already queued
+				return true;
+			}
+		}
+		try {
+			keys.put(key);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			writePending(key);
+			return true;
+		}
+		if (!enabled) {
+			// shut down while this was queued, so nothing else will write it
+			writePending(key);
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces the change waiting to be written for a key, if there is one. Must be called with the
+	 * key's write lock held.
+	 *
+	 * @return false if there was none, so the caller must write the change itself
+	 */
+	boolean replace(String key, T value) {
+		T waiting = pending.get(key);
+		return waiting != null && pending.replace(key, waiting, value);
+	}
+
+	/**
+	 * Drops the change waiting to be written for a key, which the caller is about to overwrite or
+	 * remove. Must be called with the key's write lock held.
+	 */
+	void cancel(String key) {
+		if (!pending.isEmpty()) {
+			pending.remove(key);
+		}
+	}
+
+	/**
+	 * Writes every change waiting to be written, on the calling thread.
+	 */
+	void flush() {
+		String key;
+		while ((key = keys.poll()) != null) {
+			writePending(key);
+		}
+		// including any the writer thread is part way through
+		for (String waiting : pending.keySet()) {
+			writePending(waiting);
+		}
+	}
+
+	/**
+	 * Writes the change waiting for a key, if it has not been written or cancelled already.
+	 */
+	private void writePending(String key) {
+		while (true) {
+			T value = pending.get(key);
+			if (value == null) {
+				return;
+			}
+			ReentrantReadWriteLock lock = locks.forKey(key);
+			lock.writeLock().lock();
+			try {
+				if (pending.get(key) == value) {
+					writer.write(key, value);
+				}
+			} catch (Exception e) {
+				logger.error("Error writing cache for " + key, e);
+			} finally {
+				lock.writeLock().unlock();
+			}
+			if (pending.remove(key, value)) {
+				return;
+			}
+			// replaced while it was written, so write the newer version
+		}
+	}
+
+	/**
+	 * Takes keys off the queue and writes them until its queue is shut down or collected.
+	 */
+	private static final class WriterLoop implements Runnable {
+		private final WeakReference<WriteBehindQueue<?>> owner;
+		private final BlockingQueue<String> keys;
+
+		WriterLoop(WriteBehindQueue<?> owner, BlockingQueue<String> keys) {
+			this.owner = new WeakReference<WriteBehindQueue<?>>(owner);
+			this.keys = keys;
+		}
+
+		public void run() {
+			while (true) {
+				String key;
+				try {
+					// wakes now and then to see if the queue has been collected
+					key = keys.poll(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (!write(key)) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Holds the queue only while writing, so it can be collected while this waits.
+		 * 
+		 * @return false if the queue has been shut down or collected
+		 */
+		private boolean write(String key) {
+			WriteBehindQueue<?> queue = owner.get();
+			if (queue == null || queue.writerThread != Thread.currentThread()) {
+				return false;
+			}
+			if (key != null) {
+				queue.writePending(key);
+			}
+			return true;
+		}
+	}
+
+	private static synchronized void register(WriteBehindQueue<?> queue) {
+		running.put(queue, Boolean.TRUE);
+		if (exitHook == null) {
+			exitHook = new Thread(new Runnable() {
+				public void run() {
+					flushAll();
+				}
+			}, "feed-cache-flush");
+			Runtime.getRuntime().addShutdownHook(exitHook);
+		}
+	}
+
+	private static synchronized void unregister(WriteBehindQueue<?> queue) {
+		running.remove(queue);
+		if (running.isEmpty() && exitHook != null) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(exitHook);
+			} catch (IllegalStateException e) {
+				// already shutting down, and the hook is running
+			}
+			exitHook = null;
+		}
+	}
+
+	private static void flushAll() {
+		List<WriteBehindQueue<?>> queues;
+		synchronized (WriteBehindQueue.class) {
+			queues = new ArrayList<WriteBehindQueue<?>>(running.keySet());
+		}
+		for (WriteBehindQueue<?> queue : queues) {
+			queue.flush();
+		}
+	}
+
+	/**
+	 * @return the number of queues the exit hook will flush
+	 */
+	static synchronized int getRunningQueues() {
+		return running.size();
+	}
+}
@@ -0,0 +1,110 @@
+package au.edu.educationau.opensource.collections;
+
+import junit.framework.TestCase;
+
+public class ClockCacheTest extends TestCase {
+
+	public void testBoundedByEntries() {
+		ClockCache<Integer, String> cache = new ClockCache<Integer, String>(10);
+		for (int i = 0; i < 100; i++) {
+			cache.put(Integer.valueOf(i), "v" + i);
+			assertTrue(cache.size() <= 10);
+		}
+		assertEquals(10, cache.size());
+		assertEquals(90, cache.getEvictionCount());
+		assertEquals("v99", cache.get(Integer.valueOf(99)));
+		assertNull(cache.get(Integer.valueOf(0)));
+	}
+
+	public void testReadEntriesGetASecondChance() {
+		ClockCache<Integer, String> cache = new ClockCache<Integer, String>(10);
+		for (int i = 0; i < 10; i++) {
+			cache.put(Integer.valueOf(i), "v" + i);
+		}
+		assertEquals("v0", cache.get(Integer.valueOf(0)));
+		cache.put(Integer.valueOf(10), "v10");
+		// the oldest entry was read, so the next oldest went instead
+		assertEquals("v0", cache.get(Integer.valueOf(0)));
+		assertNull(cache.get(Integer.valueOf(1)));
+	}
+
+	public void testReplaceAndRemove() {
+		ClockCache<String, String> cache = new ClockCache<String, String>(10);
+		cache.put("a", "1");
+		cache.put("a", "2");
+		assertEquals(1, cache.size());
+		assertEquals("2", cache.get("a"));
+		assertEquals("2", cache.remove("a"));
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.size());
+
+		// removed entries do not count towards the capacity
+		for (int i = 0; i < 10; i++) {
+			cache.put("k" + i, "v");
+		}
+		assertEquals(0, cache.getEvictionCount());
+	}
+
+	public void testShrinkEvicts() {
+		ClockCache<Integer, String> cache = new ClockCache<Integer, String>(10);
+		for (int i = 0; i < 10; i++) {
+			cache.put(Integer.valueOf(i), "v" + i);
+		}
+		cache.setMaxEntries(5);
+		assertEquals(5, cache.size());
+	}
+
+	public void testConcurrentPutsStayBounded() throws Exception {
+		final ClockCache<Integer, Integer> cache = new ClockCache<Integer, Integer>(50);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int seed = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 20000; i++) {
+						Integer key = Integer.valueOf((i * 31 + seed) % 500);
+						if (i % 7 == 0) {
+							cache.remove(key);
+						} else {
+							cache.put(key, key);
+						}
+						cache.get(Integer.valueOf(i % 500));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(cache.size() <= 50);
+	}
+
+	public void testRemovedNodesAreCountedOnce() throws Exception {
+		// removes racing with eviction of the same keys
+		final ClockCache<Integer, Integer> cache = new ClockCache<Integer, Integer>(4);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int seed = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 50000; i++) {
+						Integer key = Integer.valueOf((i + seed) % 16);
+						if (i % 2 == 0) {
+							cache.remove(key);
+						} else {
+							cache.put(key, key);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(cache.countRemovedInClock(), cache.getRemovedInClock());
+	}
+}
@@ -0,0 +1,136 @@
+package au.edu.educationau.opensource.collections;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the throughput of the bounded caches under a read mostly load at several thread
+ * counts: a synchronized access ordered LinkedHashMap (as LinkedHashMapFeedCache used), a
+ * {@link SegmentedLruCache} and a {@link ClockCache}, each holding as many entries as the keys
+ * being read so that only the cost of the lookup itself is measured.
+ *
+ * Run from the IDE or with java -cp; it is not part of the unit test run.
+ */
+public class LruCacheContentionBenchmark {
+	private static final int ENTRIES = 20;
+	private static final int WRITE_PERCENT = 2;
+	private static final long RUN_MILLIS = 3000;
+
+	private interface Cache {
+		Object get(Integer key);
+
+		void put(Integer key, Object value);
+	}
+
+	public static void main(String[] args) throws Exception {
+		final Map<Integer, Object> linked = Collections.synchronizedMap(new LinkedHashMap<Integer, Object>(16, 0.75F, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Object> eldest) {
+				return size() > ENTRIES;
+			}
+		});
+		final SegmentedLruCache<Integer, Object> segmented = new SegmentedLruCache<Integer, Object>(ENTRIES);
+		final ClockCache<Integer, Object> clock = new ClockCache<Integer, Object>(ENTRIES);
+
+		Cache[] caches = new Cache[] { new Cache() {
+			public Object get(Integer key) {
+				return linked.get(key);
+			}
+
+			public void put(Integer key, Object value) {
+				linked.put(key, value);
+			}
+
+			@Override
+			public String toString() {
+				return "synchronized LinkedHashMap";
+			}
+		}, new Cache() {
+			public Object get(Integer key) {
+				return segmented.get(key);
+			}
+
+			public void put(Integer key, Object value) {
+				segmented.put(key, value);
+			}
+
+			@Override
+			public String toString() {
+				return "SegmentedLruCache";
+			}
+		}, new Cache() {
+			public Object get(Integer key) {
+				return clock.get(key);
+			}
+
+			public void put(Integer key, Object value) {
+				clock.put(key, value);
+			}
+
+			@Override
+			public String toString() {
+				return "ClockCache";
+			}
+		} };
+
+		int[] threadCounts = new int[] { 1, 4, 8, 16 };
+		for (Cache cache : caches) {
+			for (int i = 0; i < ENTRIES; i++) {
+				cache.put(Integer.valueOf(i), "v" + i);
+			}
+			// warm up
+			run(cache, 4);
+			for (int threads : threadCounts) {
+				long ops = run(cache, threads);
+				System.out.println(cache + ", " + threads + " threads: " + (ops * 1000 / RUN_MILLIS) + " ops/sec");
+			}
+		}
+	}
+
+	private static long run(final Cache cache, int threads) throws InterruptedException {
+		final AtomicLong ops = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final long end = System.currentTimeMillis() + RUN_MILLIS;
+
+		for (int t = 0; t < threads; t++) {
+			final int seed = t;
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						int i = seed;
+						long count = 0;
+						while (System.currentTimeMillis() < end) {
+							for (int n = 0; n < 1000; n++) {
+								i = (i * 1103515245 + 12345) & 0x7fffffff;
+								Integer key = Integer.valueOf(i % ENTRIES);
+								if (i % 100 < WRITE_PERCENT) {
+									cache.put(key, key);
+								} else {
+									cache.get(key);
+								}
+							}
+							count += 1000;
+						}
+						ops.addAndGet(count);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+
+		start.countDown();
+		done.await();
+		return ops.get();
+	}
+}
@@ -0,0 +1,62 @@
+package au.edu.educationau.opensource.collections;
+
+import junit.framework.TestCase;
+
+public class SegmentedLruCacheTest extends TestCase {
+
+	public void testBoundedByEntries() {
+		SegmentedLruCache<Integer, String> cache = new SegmentedLruCache<Integer, String>(10);
+		for (int i = 0; i < 100; i++) {
+			cache.put(Integer.valueOf(i), "v" + i);
+			assertTrue(cache.size() <= 10);
+		}
+		assertEquals(10, cache.size());
+		assertEquals(90, cache.getEvictionCount());
+		assertEquals("v99", cache.get(Integer.valueOf(99)));
+		assertNull(cache.get(Integer.valueOf(0)));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	public void testBoundedByWeight() {
+		SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(20, new SegmentedLruCache.Weigher<String>() {
+			public int weigh(String value) {
+				return value.length();
+			}
+		});
+		cache.put("a", "1234567890");
+		cache.put("b", "1234567890");
+		assertEquals(20, cache.getWeightedSize());
+		cache.put("c", "12345");
+		assertTrue(cache.getWeightedSize() <= 20);
+		assertEquals("12345", cache.get("c"));
+
+		// heavier than the whole cache, so not cached
+		cache.put("d", "123456789012345678901");
+		assertNull(cache.get("d"));
+	}
+
+	public void testReusedEntriesSurviveScan() {
+		SegmentedLruCache<Integer, String> cache = new SegmentedLruCache<Integer, String>(10);
+		cache.put(Integer.valueOf(-1), "hot");
+		// second access promotes into the protected segment
+		assertEquals("hot", cache.get(Integer.valueOf(-1)));
+
+		// a scan of one-off entries only churns the probation segment
+		for (int i = 0; i < 1000; i++) {
+			cache.put(Integer.valueOf(i), "cold");
+		}
+		assertEquals("hot", cache.get(Integer.valueOf(-1)));
+	}
+
+	public void testReplaceAndRemove() {
+		SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(10);
+		cache.put("a", "1");
+		cache.put("a", "2");
+		assertEquals(1, cache.size());
+		assertEquals("2", cache.get("a"));
+		assertEquals("2", cache.remove("a"));
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.getWeightedSize());
+	}
+}
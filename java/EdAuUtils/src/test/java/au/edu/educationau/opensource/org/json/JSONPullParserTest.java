@@ -0,0 +1,99 @@
+package au.edu.educationau.opensource.org.json;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+public class JSONPullParserTest extends TestCase {
+
+    private void assertEvents(JSONPullParser parser, int[] events) throws JSONException {
+        for (int i = 0; i < events.length; i++) {
+            assertEquals("event " + i, events[i], parser.next());
+        }
+    }
+
+    public void testEvents() throws Exception {
+        JSONPullParser parser = new JSONPullParser(
+                "{\"a\": 12, \"b\": [true, false, null, \"x\\ty\"], \"c\": {\"d\": 2.5}, e: 'f'}");
+        assertEquals(JSONPullParser.START_OBJECT, parser.next());
+        assertEquals(1, parser.getDepth());
+        assertEquals(JSONPullParser.KEY, parser.next());
+        assertEquals("a", parser.getString());
+        assertEquals(JSONPullParser.VALUE_NUMBER, parser.next());
+        assertEquals(12, parser.getNumber().intValue());
+        assertEquals(JSONPullParser.KEY, parser.next());
+        assertEquals(JSONPullParser.START_ARRAY, parser.next());
+        assertEquals(JSONPullParser.VALUE_TRUE, parser.next());
+        assertTrue(parser.getBoolean());
+        assertEquals(JSONPullParser.VALUE_FALSE, parser.next());
+        assertEquals(JSONPullParser.VALUE_NULL, parser.next());
+        assertSame(JSONObject.NULL, parser.getValue());
+        assertEquals(JSONPullParser.VALUE_STRING, parser.next());
+        assertEquals("x\ty", parser.getString());
+        assertEquals(JSONPullParser.END_ARRAY, parser.next());
+        assertEvents(parser, new int[] { JSONPullParser.KEY, JSONPullParser.START_OBJECT, JSONPullParser.KEY,
+                JSONPullParser.VALUE_NUMBER, JSONPullParser.END_OBJECT, JSONPullParser.KEY });
+        assertEquals("e", parser.getString());
+        assertEquals(JSONPullParser.VALUE_STRING, parser.next());
+        assertEquals("f", parser.getString());
+        assertEquals(JSONPullParser.END_OBJECT, parser.next());
+        assertEquals(0, parser.getDepth());
+        assertEquals(JSONPullParser.END_DOCUMENT, parser.next());
+        assertEquals(JSONPullParser.END_DOCUMENT, parser.next());
+    }
+
+    public void testSkipChildren() throws Exception {
+        JSONPullParser parser = new JSONPullParser(
+                "{\"skip\": {\"x\": [1, \"]}\\\"\", {\"y\": 'it''s'}], z: don't}, \"keep\": 1}");
+        assertEvents(parser, new int[] { JSONPullParser.START_OBJECT, JSONPullParser.KEY,
+                JSONPullParser.START_OBJECT });
+        parser.skipChildren();
+        assertEquals(JSONPullParser.END_OBJECT, parser.getEvent());
+        assertEquals(1, parser.getDepth());
+        assertEquals(JSONPullParser.KEY, parser.next());
+        assertEquals("keep", parser.getString());
+        assertEvents(parser, new int[] { JSONPullParser.VALUE_NUMBER, JSONPullParser.END_OBJECT,
+                JSONPullParser.END_DOCUMENT });
+    }
+
+    public void testReadValueOfEachElement() throws Exception {
+        JSONPullParser parser = new JSONPullParser("[{\"id\": 1, \"tags\": [\"a\"]}, {\"id\": 2, \"tags\": []}]");
+        assertEquals(JSONPullParser.START_ARRAY, parser.next());
+        int id = 0;
+        while (parser.next() != JSONPullParser.END_ARRAY) {
+            JSONObject item = (JSONObject) parser.readValue();
+            assertEquals(++id, item.getInt("id"));
+        }
+        assertEquals(2, id);
+        assertEquals(JSONPullParser.END_DOCUMENT, parser.next());
+    }
+
+    public void testStringsSpanningBufferRefills() throws Exception {
+        StringBuffer text = new StringBuffer();
+        for (int i = 0; i < 5000; i++) {
+            text.append("ab\\u0041\\n");
+        }
+        JSONPullParser parser = new JSONPullParser(new StringReader("[\"" + text + "\", 7]"));
+        assertEquals(JSONPullParser.START_ARRAY, parser.next());
+        assertEquals(JSONPullParser.VALUE_STRING, parser.next());
+        String s = parser.getString();
+        assertEquals(20000, s.length());
+        assertTrue(s.startsWith("abA\nabA\n"));
+        assertEquals(JSONPullParser.VALUE_NUMBER, parser.next());
+        assertEquals(JSONPullParser.END_ARRAY, parser.next());
+    }
+
+    public void testSyntaxErrors() throws Exception {
+        String[] bad = { "{\"a\" 1}", "[1, 2", "[1 \"2\"]", "{\"a\": \"b}", "{} 2", "" };
+        for (int i = 0; i < bad.length; i++) {
+            JSONPullParser parser = new JSONPullParser(bad[i]);
+            try {
+                while (parser.next() != JSONPullParser.END_DOCUMENT) {
+                }
+                fail("parsed " + bad[i]);
+            } catch (JSONException e) {
+                assertTrue(e.getMessage(), e.getMessage().indexOf(" at character ") > 0);
+            }
+        }
+    }
+}
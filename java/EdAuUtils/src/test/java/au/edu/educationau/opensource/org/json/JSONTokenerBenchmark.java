@@ -0,0 +1,85 @@
+package au.edu.educationau.opensource.org.json;
+
+import java.io.StringReader;
+
+/**
+ * Measures how fast JSONTokener parses a few representative documents into
+ * JSONObjects and JSONArrays, from a String and from a Reader: a page of feed
+ * items like those the APIs return, text with many escapes, and a long array
+ * of numbers.
+ *
+ * Run from the IDE or with java -cp; it is not part of the unit test run.
+ */
+public class JSONTokenerBenchmark {
+    private static final long WARMUP_MILLIS = 2000;
+    private static final long RUN_MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        String[] names = { "feed items", "escaped text", "numbers" };
+        String[] documents = { feedItems(), escapedText(), numbers() };
+        for (int i = 0; i < documents.length; i++) {
+            run(names[i] + " from String", documents[i], false);
+            run(names[i] + " from Reader", documents[i], true);
+        }
+    }
+
+    private static void run(String name, String document, boolean reader) throws JSONException {
+        measure(document, reader, WARMUP_MILLIS);
+        long start = System.nanoTime();
+        long parses = measure(document, reader, RUN_MILLIS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double mb = parses * (double) document.length() / (1024 * 1024);
+        System.out.println(name + ": " + (int) (parses / seconds) + " parses/s, " + (int) (mb / seconds) + " MB/s");
+    }
+
+    private static long measure(String document, boolean reader, long millis) throws JSONException {
+        long end = System.currentTimeMillis() + millis;
+        long parses = 0;
+        while (System.currentTimeMillis() < end) {
+            JSONTokener x = reader ? new JSONTokener(new StringReader(document)) : new JSONTokener(document);
+            if (x.nextValue() == null) {
+                throw new IllegalStateException();
+            }
+            parses++;
+        }
+        return parses;
+    }
+
+    private static String feedItems() throws JSONException {
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < 500; i++) {
+            JSONObject item = new JSONObject();
+            item.put("id", i);
+            item.put("title", "Item number " + i + " of the feed");
+            item.put("link", "http://www.example.com/feeds/items/" + i + ".html");
+            item.put("description", "A short summary of the item, as most feeds give, a sentence or two long. "
+                    + "It is long enough to be worth copying in one go.");
+            item.put("score", i * 1.25);
+            item.put("published", i % 2 == 0);
+            item.put("updated", 1250000000000L + i);
+            item.put("tags", new JSONArray().put("education").put("science").put("k" + i));
+            item.put("author", JSONObject.NULL);
+            items.put(item);
+        }
+        return new JSONObject().put("count", 500).put("items", items).toString();
+    }
+
+    private static String escapedText() throws JSONException {
+        JSONArray lines = new JSONArray();
+        for (int i = 0; i < 2000; i++) {
+            lines.put("line " + i + "\t\"quoted\" \\ caf\u00e9 </p>\n");
+        }
+        return lines.toString();
+    }
+
+    private static String numbers() {
+        StringBuffer sb = new StringBuffer("[");
+        for (int i = 0; i < 20000; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(i % 3 == 0 ? String.valueOf(i * 0.5) : String.valueOf(i * 1000003L));
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,90 @@
+package au.edu.educationau.opensource.org.json;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+public class JSONTokenerTest extends TestCase {
+
+    /**
+     * A document larger than the tokener's buffer, with strings and numbers
+     * which cross the buffer boundaries.
+     */
+    private String largeDocument() throws JSONException {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < 2000; i++) {
+            array.put(new JSONObject().put("id", i * 1000003L).put("text", "item \"" + i + "\"\n"));
+        }
+        return array.toString();
+    }
+
+    public void testReaderAndStringAgree() throws Exception {
+        String document = largeDocument();
+        JSONArray fromString = new JSONArray(new JSONTokener(document));
+        JSONArray fromReader = new JSONArray(new JSONTokener(new StringReader(document)));
+        assertEquals(2000, fromReader.length());
+        assertEquals(fromString.toString(), fromReader.toString());
+        assertEquals("item \"1999\"\n", fromReader.getJSONObject(1999).getString("text"));
+        assertEquals(1999 * 1000003L, fromReader.getJSONObject(1999).getLong("id"));
+    }
+
+    public void testBackSeveralCharacters() throws Exception {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 20000; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        JSONTokener x = new JSONTokener(new StringReader(sb.toString()));
+        for (int i = 0; i < 8192; i++) {
+            x.next();
+        }
+        for (int i = 0; i < JSONTokener.BACK_LIMIT; i++) {
+            x.back();
+        }
+        assertEquals(sb.charAt(8192 - JSONTokener.BACK_LIMIT), x.next());
+        assertEquals(sb.substring(8193 - JSONTokener.BACK_LIMIT, 9000), x.next(9000 - 8193 + JSONTokener.BACK_LIMIT));
+    }
+
+    public void testBackAtEnd() throws Exception {
+        JSONTokener x = new JSONTokener(new StringReader("ab"));
+        assertEquals('a', x.next());
+        assertEquals('b', x.next());
+        assertEquals(0, x.next());
+        x.back();
+        x.back();
+        assertEquals('b', x.next());
+        assertFalse(x.more());
+    }
+
+    public void testNumbersConvertAsBefore() throws Exception {
+        String[] texts = { "0", "7", "-0", "+5", "-", "+", ".", "12345", "-2147483648", "2147483648",
+                "-9223372036854775808", "123456789012345678", "1234567890123456789", "99999999999999999999",
+                "012", "08", "0x1F", "0xZZ", "00.5", "0.5", "-.5", "1.", "1.5", ".5e-3", "1e5", "1E+22", "1e23",
+                "4.35", "0.1", "123.456e-7", "9007199254740993.0", "1.7976931348623157e308", "1e400", "1e",
+                "1e+", "1.5f", "1f", "-1.5d", "1.2.3", "1-2", "2001-12-25", "1 2", "1st", "-0.0", "0e5" };
+        for (int i = 0; i < texts.length; i++) {
+            Object expected = JSONObject.otherNumberToValue(texts[i]);
+            Object value = JSONObject.stringToValue(texts[i]);
+            assertEquals(texts[i], expected, value);
+            assertEquals(texts[i], expected.getClass(), value.getClass());
+            if (texts[i].indexOf(' ') < 0) {
+                assertEquals(texts[i], expected, new JSONTokener(texts[i] + ",").nextValue());
+            }
+        }
+    }
+
+    public void testSkipToRestoresPositionIfNotFound() throws Exception {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 20000; i++) {
+            sb.append('x');
+        }
+        JSONTokener x = new JSONTokener(new StringReader(sb + "!"));
+        assertEquals('!', x.skipTo('!'));
+        assertEquals('!', x.next());
+
+        x = new JSONTokener(new StringReader(sb.toString()));
+        x.next();
+        assertEquals(0, x.skipTo('!'));
+        assertEquals(" at character 1", x.toString());
+        assertEquals(sb.substring(1), x.nextTo('!'));
+    }
+}
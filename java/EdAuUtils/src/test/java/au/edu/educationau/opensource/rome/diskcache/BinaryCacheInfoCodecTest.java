@@ -0,0 +1,163 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+import au.edu.educationau.opensource.rome.diskcache.LinkedHashMapFeedCache.CacheInfo;
+
+import com.sun.syndication.feed.synd.SyndContent;
+import com.sun.syndication.feed.synd.SyndContentImpl;
+import com.sun.syndication.feed.synd.SyndEntry;
+import com.sun.syndication.feed.synd.SyndEntryImpl;
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+
+public class BinaryCacheInfoCodecTest extends TestCase {
+
+	public static SyndFeed createFeed(int entryCount) {
+		SyndFeed feed = new SyndFeedImpl();
+		feed.setFeedType("rss_2.0");
+		feed.setTitle("Test feed");
+		feed.setLink("http://www.example.com/");
+		feed.setDescription("A feed with \u00e9 non-ascii characters");
+		feed.setPublishedDate(new Date(1200000000000L));
+
+		List<SyndEntry> entries = new ArrayList<SyndEntry>();
+		for (int i = 0; i < entryCount; i++) {
+			SyndEntry entry = new SyndEntryImpl();
+			entry.setTitle("Entry " + i);
+			entry.setLink("http://www.example.com/entry/" + i);
+			entry.setPublishedDate(new Date(1200000000000L + i * 1000L));
+			SyndContent description = new SyndContentImpl();
+			description.setType("text/html");
+			description.setValue("<p>Entry number " + i + " of the test feed</p>");
+			entry.setDescription(description);
+			entries.add(entry);
+		}
+		feed.setEntries(entries);
+		return feed;
+	}
+
+	private CacheInfo roundTrip(CacheCodec<CacheInfo> writer, CacheCodec<CacheInfo> reader, CacheInfo info) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.encode(info, out);
+		return reader.decode(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	public void testRoundTrip() throws IOException {
+		BinaryCacheInfoCodec codec = new BinaryCacheInfoCodec();
+		CacheInfo info = new CacheInfo(createFeed(3));
+
+		CacheInfo result = roundTrip(codec, codec, info);
+		assertFalse(result.isHasError());
+		assertEquals(info.getLastCheckedDate(), result.getLastCheckedDate());
+		assertEquals("Test feed", result.getFeed().getTitle());
+		assertEquals(info.getFeed().getDescription(), result.getFeed().getDescription());
+		assertEquals(3, result.getFeed().getEntries().size());
+
+		SyndEntry entry = (SyndEntry) result.getFeed().getEntries().get(2);
+		assertEquals("Entry 2", entry.getTitle());
+		assertEquals("text/html", entry.getDescription().getType());
+		assertEquals(new Date(1200000002000L), entry.getPublishedDate());
+	}
+
+	public void testFeedTtl() throws IOException {
+		BinaryCacheInfoCodec codec = new BinaryCacheInfoCodec();
+		CacheInfo info = new CacheInfo(createFeed(1));
+		assertEquals(0, roundTrip(codec, codec, info).getTtlMinutes());
+		info.setTtlMinutes(90);
+		assertEquals(90, roundTrip(codec, codec, info).getTtlMinutes());
+	}
+
+	public void testError() throws IOException {
+		BinaryCacheInfoCodec codec = new BinaryCacheInfoCodec();
+		CacheInfo result = roundTrip(codec, codec, new CacheInfo("404 Not Found"));
+		assertTrue(result.isHasError());
+		assertEquals("404 Not Found", result.getErrorMessage());
+		assertNull(result.getFeed());
+	}
+
+	public void testReadsSerializedEntries() throws IOException {
+		CacheInfo result = roundTrip(new SerializingCacheCodec<CacheInfo>(), new BinaryCacheInfoCodec(), new CacheInfo(createFeed(1)));
+		assertEquals("Test feed", result.getFeed().getTitle());
+	}
+
+	public void testSkipsUnknownFields() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(AbstractBinaryCacheCodec.MAGIC_0);
+		out.writeByte(AbstractBinaryCacheCodec.MAGIC_1);
+		out.writeByte(AbstractBinaryCacheCodec.VERSION);
+		// a field from some future version, containing a nested record
+		BinaryFeedFormat.writeKey(out, 30, BinaryFeedFormat.TYPE_RECORD);
+		BinaryFeedFormat.writeString(out, 1, "ignored");
+		out.writeByte(BinaryFeedFormat.END);
+		BinaryFeedFormat.writeString(out, 3, "known error");
+		out.writeByte(BinaryFeedFormat.END);
+
+		CacheInfo result = new BinaryCacheInfoCodec().decode(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals("known error", result.getErrorMessage());
+	}
+
+	public void testCompression() throws IOException {
+		BinaryCacheInfoCodec binary = new BinaryCacheInfoCodec();
+		CompressingCacheCodec<CacheInfo> deflate = new CompressingCacheCodec<CacheInfo>(binary, CompressionMode.DEFLATE);
+		CacheInfo info = new CacheInfo(createFeed(20));
+
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		binary.encode(info, plain);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		deflate.encode(info, compressed);
+		assertTrue(compressed.size() < plain.size());
+
+		assertEquals(20, roundTrip(deflate, deflate, info).getFeed().getEntries().size());
+
+		// files written before compression was switched on or off must still be readable
+		CompressingCacheCodec<CacheInfo> none = new CompressingCacheCodec<CacheInfo>(binary, CompressionMode.NONE);
+		assertEquals("Test feed", roundTrip(none, deflate, info).getFeed().getTitle());
+		assertEquals("Test feed", roundTrip(deflate, none, info).getFeed().getTitle());
+		assertEquals("Test feed", roundTrip(new SerializingCacheCodec<CacheInfo>(), deflate, info).getFeed().getTitle());
+	}
+
+	private void assertLengthRejected(int tag, int length) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(AbstractBinaryCacheCodec.MAGIC_0);
+		out.writeByte(AbstractBinaryCacheCodec.MAGIC_1);
+		out.writeByte(AbstractBinaryCacheCodec.VERSION);
+		BinaryFeedFormat.writeKey(out, tag, BinaryFeedFormat.TYPE_STRING);
+		out.writeInt(length);
+		out.write(new byte[16]);
+		try {
+			new BinaryCacheInfoCodec().decode(new ByteArrayInputStream(bytes.toByteArray()));
+			fail("length " + length + " was read");
+		} catch (StreamCorruptedException e) {
+			// expected
+		}
+	}
+
+	public void testRejectsCorruptLengths() throws IOException {
+		// read, and skipped as an unknown field
+		for (int tag : new int[] { 3, 30 }) {
+			assertLengthRejected(tag, -1);
+			assertLengthRejected(tag, Integer.MAX_VALUE);
+			assertLengthRejected(tag, BinaryFeedFormat.MAX_STRING_BYTES + 1);
+		}
+	}
+
+	public void testRejectsGarbage() throws IOException {
+		try {
+			new BinaryCacheInfoCodec().decode(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+			fail("garbage was decoded");
+		} catch (StreamCorruptedException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import au.edu.educationau.opensource.rome.diskcache.LinkedHashMapFeedCache.CacheInfo;
+
+/**
+ * Compares encode time, decode time and encoded size of the cache codecs.
+ *
+ * Run from the IDE or with java -cp; it is not part of the unit test run.
+ */
+public class CacheCodecBenchmark {
+	private static final int WARMUP = 2000;
+	private static final int ITERATIONS = 10000;
+
+	public static void main(String[] args) throws IOException {
+		CacheInfo info = new CacheInfo(BinaryCacheInfoCodecTest.createFeed(25));
+
+		run("serialization", new SerializingCacheCodec<CacheInfo>(), info);
+		run("binary", new BinaryCacheInfoCodec(), info);
+		run("serialization+deflate", new CompressingCacheCodec<CacheInfo>(new SerializingCacheCodec<CacheInfo>(), CompressionMode.DEFLATE), info);
+		run("binary+deflate", new CompressingCacheCodec<CacheInfo>(new BinaryCacheInfoCodec(), CompressionMode.DEFLATE), info);
+	}
+
+	private static void run(String name, CacheCodec<CacheInfo> codec, CacheInfo info) throws IOException {
+		byte[] encoded = null;
+		for (int i = 0; i < WARMUP; i++) {
+			encoded = encode(codec, info);
+			codec.decode(new ByteArrayInputStream(encoded));
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			encoded = encode(codec, info);
+		}
+		long encodeNanos = (System.nanoTime() - start) / ITERATIONS;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			codec.decode(new ByteArrayInputStream(encoded));
+		}
+		long decodeNanos = (System.nanoTime() - start) / ITERATIONS;
+
+		System.out.println(name + ": encode " + encodeNanos / 1000 + "us, decode " + decodeNanos / 1000 + "us, " + encoded.length + " bytes");
+	}
+
+	private static byte[] encode(CacheCodec<CacheInfo> codec, CacheInfo info) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		codec.encode(info, out);
+		return out.toByteArray();
+	}
+}
@@ -3,11 +3,15 @@ package au.edu.educationau.opensource.rome.diskcache;
 import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
+import com.sun.syndication.fetcher.impl.SyndFeedInfo;
+
 public class CacheUtilsTest extends TestCase {
 
+	@SuppressWarnings("deprecation")
 	public void testPlainStringToMD5() {
 		
 		String input = "input";		
@@ -32,6 +36,8 @@ public class CacheUtilsTest extends TestCase {
 		
 	}
 	
+	private static final AtomicInteger TEMP_DIRS = new AtomicInteger();
+
 	public static String getTempCacheDir() {
 		String tmpDir = System.getProperty("java.io.tmpdir");
 		if (!tmpDir.endsWith(File.separator)) {
@@ -39,7 +45,7 @@ public class CacheUtilsTest extends TestCase {
 		}
 		
 		// create timestampted dirname
-		String cacheDir = tmpDir + "tstCache" + Long.toString(System.currentTimeMillis()) + File.separator;
+		String cacheDir = tmpDir + "tstCache" + Long.toString(System.currentTimeMillis()) + "-" + TEMP_DIRS.incrementAndGet() + File.separator;
 
 		System.err.println("Using " + cacheDir + " for caching");
 		
@@ -74,4 +80,57 @@ public class CacheUtilsTest extends TestCase {
 		
 	}
 
+	@SuppressWarnings("deprecation")
+	public void testMd5HexIsFixedWidth() {
+		assertEquals("d41d8cd98f00b204e9800998ecf8427e", CacheUtils.md5Hex(""));
+
+		// the old hash drops the leading zero of each byte
+		String address = "http://www.example.com/feed/0";
+		assertEquals("f6af2400cc21b12a0b85e6b2c6fb8f6e", CacheUtils.md5Hex(address));
+		assertEquals("f6af240cc21b12ab85e6b2c6fb8f6e", CacheUtils.plainStringToMD5(address));
+	}
+
+	public void testLegacyFilesAreMigrated() throws Exception {
+		String cacheDir = getTempCacheDir();
+		URL url = new URL("http://www.example.com/feed/0");
+		DiskBasedFeedInfoCache fiCache = new DiskBasedFeedInfoCache();
+		fiCache.setCachePath(cacheDir);
+
+		SyndFeedInfo info = new SyndFeedInfo();
+		info.setETag("legacy");
+		fiCache.setFeedInfo(url, info);
+
+		// move the entry to where an older version would have written it
+		CachePathBuilder paths = new CachePathBuilder(cacheDir, "_feedinfo");
+		File current = new File(paths.getPath(url));
+		File legacy = new File(paths.getLegacyPath(url));
+		assertTrue(current.renameTo(legacy));
+
+		assertEquals("legacy", fiCache.getFeedInfo(url).getETag());
+		assertTrue(current.exists());
+		assertFalse(legacy.exists());
+
+		fiCache.setReadLegacyNames(false);
+		assertTrue(current.renameTo(legacy));
+		assertNull(fiCache.getFeedInfo(url));
+	}
+
+	public void testCachePathBuilderShards() throws Exception {
+		String cacheDir = getTempCacheDir();
+		CachePathBuilder paths = new CachePathBuilder(cacheDir, "tst", 3, 5, 100);
+		paths.createAllShards();
+		String[] firstLevel = new File(cacheDir).list();
+		assertEquals(3, firstLevel.length);
+		for (String dir : firstLevel) {
+			assertEquals(5, new File(cacheDir, dir).list().length);
+		}
+
+		// a directory removed behind the builder's back is recreated when written to
+		URL url = new URL("http://www.example.com");
+		File file = new File(paths.getPath(url));
+		assertTrue(file.getParentFile().delete());
+		assertEquals(file.getPath(), new File(paths.getPath(url)).getPath());
+		CacheUtils.writeAtomically(file, "value", new SerializingCacheCodec<String>(), false);
+		assertTrue(file.exists());
+	}
 }
@@ -0,0 +1,258 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+import com.sun.syndication.fetcher.FetcherException;
+import com.sun.syndication.io.FeedException;
+
+public class CachingFeedFetcherTest extends TestCase {
+
+	/**
+	 * Counts upstream fetches instead of making them. Each fetch blocks until released.
+	 */
+	static class StubFetcher extends CachingFeedFetcher {
+		final AtomicInteger fetches = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile IOException failure;
+
+		StubFetcher(FeedCache feedCache) {
+			setFeedCache(feedCache);
+		}
+
+		@Override
+		protected SyndFeed fetchAndCache(URL feedUrl) throws IOException, FeedException, FetcherException {
+			fetches.incrementAndGet();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new FetcherException("interrupted", e);
+			}
+			if (failure != null) {
+				getFeedCache().setFeedError(feedUrl, failure.getMessage());
+				throw failure;
+			}
+			SyndFeed feed = new SyndFeedImpl();
+			feed.setTitle(feedUrl.toExternalForm());
+			getFeedCache().setFeed(feedUrl, feed);
+			return feed;
+		}
+	}
+
+	private Thread[] startRequests(final StubFetcher fetcher, final URL url, int count, final AtomicInteger successes, final AtomicInteger failures) {
+		Thread[] threads = new Thread[count];
+		for (int i = 0; i < count; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						if (fetcher.retrieveFeed(url) != null) {
+							successes.incrementAndGet();
+						}
+					} catch (Exception e) {
+						failures.incrementAndGet();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		return threads;
+	}
+
+	private void waitForWaiters(StubFetcher fetcher, int waiters) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while (fetcher.getCoalescedRequests() < waiters && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+	}
+
+	public void testConcurrentMissesAreCoalesced() throws Exception {
+		StubFetcher fetcher = new StubFetcher(new LinkedHashMapFeedCache());
+		URL url = new URL("http://www.example.com/feed");
+		AtomicInteger successes = new AtomicInteger();
+		AtomicInteger failures = new AtomicInteger();
+
+		Thread[] threads = startRequests(fetcher, url, 8, successes, failures);
+		waitForWaiters(fetcher, 7);
+		fetcher.release.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(1, fetcher.fetches.get());
+		assertEquals(7, fetcher.getCoalescedRequests());
+		assertEquals(8, successes.get());
+		assertEquals(0, failures.get());
+		assertEquals(0, fetcher.getInFlightFetches());
+	}
+
+	public void testMissHeldAcrossCompletedFetchIsNotRefetched() throws Exception {
+		final CountDownLatch missed = new CountDownLatch(1);
+		final CountDownLatch resume = new CountDownLatch(1);
+		// holds the first miss of the "held" thread until another fetch has completed
+		LinkedHashMapFeedCache cache = new LinkedHashMapFeedCache() {
+			@Override
+			public SyndFeed getFeed(URL url) throws FetcherException {
+				SyndFeed feed = super.getFeed(url);
+				if (feed == null && "held".equals(Thread.currentThread().getName()) && missed.getCount() > 0) {
+					missed.countDown();
+					try {
+						resume.await();
+					} catch (InterruptedException e) {
+						throw new FetcherException("interrupted", e);
+					}
+				}
+				return feed;
+			}
+		};
+		final StubFetcher fetcher = new StubFetcher(cache);
+		fetcher.release.countDown();
+		final URL url = new URL("http://www.example.com/feed");
+		final SyndFeed[] held = new SyndFeed[1];
+		Thread thread = new Thread("held") {
+			@Override
+			public void run() {
+				try {
+					held[0] = fetcher.retrieveFeed(url);
+				} catch (Exception e) {
+					// leaves held[0] null
+				}
+			}
+		};
+		thread.start();
+		assertTrue(missed.await(5, TimeUnit.SECONDS));
+
+		SyndFeed fetched = fetcher.retrieveFeed(url);
+		assertEquals(1, fetcher.fetches.get());
+		resume.countDown();
+		thread.join();
+
+		assertSame(fetched, held[0]);
+		assertEquals(1, fetcher.fetches.get());
+	}
+
+	public void testPlainFeedCache() throws Exception {
+		// implements only FeedCache, not RevalidatingFeedCache
+		final Map<URL, SyndFeed> feeds = new ConcurrentHashMap<URL, SyndFeed>();
+		FeedCache cache = new FeedCache() {
+			public SyndFeed getFeed(URL url) {
+				return feeds.get(url);
+			}
+
+			public void setFeed(URL url, SyndFeed syndFeed) {
+				feeds.put(url, syndFeed);
+			}
+
+			public void setFeedError(URL url, String error) {
+				feeds.remove(url);
+			}
+		};
+		StubFetcher fetcher = new StubFetcher(cache);
+		fetcher.setStaleWhileRevalidate(true);
+		fetcher.release.countDown();
+		URL url = new URL("http://www.example.com/feed");
+
+		SyndFeed feed = fetcher.retrieveFeed(url);
+		assertSame(feed, fetcher.retrieveFeed(url));
+		SyndFeed refreshed = fetcher.refreshFeed(url);
+		assertNotSame(feed, refreshed);
+		assertSame(refreshed, fetcher.retrieveFeed(url));
+		assertEquals(2, fetcher.fetches.get());
+		assertEquals(0, fetcher.getStaleResponses());
+	}
+
+	public void testErrorIsSharedWithWaiters() throws Exception {
+		StubFetcher fetcher = new StubFetcher(new LinkedHashMapFeedCache());
+		fetcher.failure = new IOException("timed out");
+		URL url = new URL("http://www.example.com/feed");
+		AtomicInteger successes = new AtomicInteger();
+		AtomicInteger failures = new AtomicInteger();
+
+		Thread[] threads = startRequests(fetcher, url, 4, successes, failures);
+		waitForWaiters(fetcher, 3);
+		fetcher.release.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(1, fetcher.fetches.get());
+		assertEquals(0, successes.get());
+		assertEquals(4, failures.get());
+	}
+
+	public void testStaleFeedIsServedWhileRefreshing() throws Exception {
+		LinkedHashMapFeedCache cache = new LinkedHashMapFeedCache();
+		// everything is expired as soon as it is cached, but may be served stale for 10 minutes
+		cache.setTtlMinutes(0);
+		cache.setMaxStaleMinutes(10);
+		StubFetcher fetcher = new StubFetcher(cache);
+		fetcher.setStaleWhileRevalidate(true);
+
+		URL url = new URL("http://www.example.com/feed");
+		SyndFeed stale = new SyndFeedImpl();
+		cache.setFeed(url, stale);
+
+		// returned without waiting for the (blocked) refresh
+		assertSame(stale, fetcher.retrieveFeed(url));
+		assertSame(stale, fetcher.retrieveFeed(url));
+		assertEquals(2, fetcher.getStaleResponses());
+
+		fetcher.release.countDown();
+		long end = System.currentTimeMillis() + 5000;
+		while (cache.getStaleFeed(url) == stale && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertNotSame(stale, cache.getStaleFeed(url));
+		assertEquals(1, fetcher.fetches.get());
+		fetcher.shutdown();
+	}
+
+	public void testBatchReturnsHitsAndReportsTimeouts() throws Exception {
+		LinkedHashMapFeedCache cache = new LinkedHashMapFeedCache();
+		StubFetcher fetcher = new StubFetcher(cache);
+		URL cached = new URL("http://www.example.com/cached");
+		URL slow = new URL("http://www.example.com/slow");
+		SyndFeed feed = new SyndFeedImpl();
+		cache.setFeed(cached, feed);
+
+		// the fetch of slow is blocked until released, so it misses the deadline
+		FeedBatchResult result = fetcher.retrieveFeeds(Arrays.asList(cached, slow), 100, TimeUnit.MILLISECONDS);
+		assertSame(feed, result.getFeed(cached));
+		assertNull(result.getFeed(slow));
+		assertTrue(result.getError(slow) instanceof FetcherException);
+
+		fetcher.release.countDown();
+		result = fetcher.retrieveFeeds(Arrays.asList(cached, slow), 5, TimeUnit.SECONDS);
+		assertFalse(result.hasErrors());
+		assertEquals(2, result.getFeeds().size());
+		assertEquals(slow.toExternalForm(), result.getFeed(slow).getTitle());
+		fetcher.shutdown();
+	}
+
+	public void testBatchKeepsVirtualHostsApart() throws Exception {
+		StubFetcher fetcher = new StubFetcher(new LinkedHashMapFeedCache());
+		fetcher.release.countDown();
+		// equal as URLs, as they resolve to the same address
+		URL byName = new URL("http://localhost/feed");
+		URL byAddress = new URL("http://127.0.0.1/feed");
+		URL duplicate = new URL("http://localhost/feed");
+
+		FeedBatchResult result = fetcher.retrieveFeeds(Arrays.asList(byName, byAddress, duplicate), 5, TimeUnit.SECONDS);
+		assertFalse(result.hasErrors());
+		assertEquals(Arrays.asList(byName.toExternalForm(), byAddress.toExternalForm()), new ArrayList<String>(result.getFeeds().keySet()));
+		assertEquals(byAddress.toExternalForm(), result.getFeed(byAddress).getTitle());
+		assertEquals(2, fetcher.fetches.get());
+		fetcher.shutdown();
+	}
+}
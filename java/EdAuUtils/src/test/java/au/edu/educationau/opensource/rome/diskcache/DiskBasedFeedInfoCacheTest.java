@@ -1,8 +1,15 @@
 package au.edu.educationau.opensource.rome.diskcache;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
 
@@ -61,20 +68,115 @@ public class DiskBasedFeedInfoCacheTest extends TestCase {
 			
 			fiCache.clear();
 			
+			// the old entries are gone straight away
+			assertNull(fiCache.getFeedInfo(new URL(address)));
+			
 			File cacheDirFile = new File(cacheDir);
 			assertTrue(cacheDirFile.exists());
 			assertTrue(cacheDirFile.isDirectory());
-			assertTrue(cacheDirFile.list().length == 0);
+			
+			// and their files are deleted in the background, leaving the new generation
+			long end = System.currentTimeMillis() + 5000;
+			while (cacheDirFile.list().length > 2 && System.currentTimeMillis() < end) {
+				Thread.sleep(10);
+			}
+			assertEquals(2, cacheDirFile.list().length);
+			assertTrue(new File(cacheDir, "generation").exists());
+			assertTrue(new File(cacheDir, "gen-1").isDirectory());
+			
+			fiCache.setFeedInfo(new URL(address), info);
+			assertNotNull(fiCache.getFeedInfo(new URL(address)));
+			
+			// the generation survives a restart
+			DiskBasedFeedInfoCache reopened = new DiskBasedFeedInfoCache();
+			reopened.setCachePath(cacheDir);
+			assertNotNull(reopened.getFeedInfo(new URL(address)));
 			
 		} catch (MalformedURLException e) {			
 			e.printStackTrace();
 			fail(e.getLocalizedMessage());
+		} catch (InterruptedException e) {
+			fail(e.getLocalizedMessage());
 		}
 
 	}
 
+	public void testClearDuringWrites() throws Exception {
+		String cacheDir = CacheUtilsTest.getTempCacheDir();
+		final DiskBasedFeedInfoCache fiCache = new DiskBasedFeedInfoCache();
+		fiCache.setCachePath(cacheDir);
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		Thread[] writers = new Thread[4];
+		for (int t = 0; t < writers.length; t++) {
+			final int thread = t;
+			writers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; !done.get(); i++) {
+							SyndFeedInfo info = new SyndFeedInfo();
+							info.setETag("etag" + i);
+							fiCache.setFeedInfo(new URL("http://www.example.com/" + thread + "/" + (i % 50)), info);
+						}
+					} catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			};
+			writers[t].start();
+		}
+		int clears = 10;
+		for (int i = 0; i < clears; i++) {
+			Thread.sleep(20);
+			fiCache.clear();
+		}
+		done.set(true);
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		assertNull(failure.get());
+
+		// once the old generations are deleted, no write is left behind in one of them
+		File root = new File(cacheDir);
+		long end = System.currentTimeMillis() + 10000;
+		while (root.list().length > 2 && System.currentTimeMillis() < end) {
+			Thread.sleep(20);
+		}
+		Set<String> names = new HashSet<String>(Arrays.asList(root.list()));
+		assertEquals(new HashSet<String>(Arrays.asList("generation", "gen-" + clears)), names);
+
+		// the generation marker is plain text
+		BufferedReader reader = new BufferedReader(new FileReader(new File(cacheDir, "generation")));
+		try {
+			assertEquals(String.valueOf(clears), reader.readLine());
+		} finally {
+			reader.close();
+		}
+	}
+
 	public void testRemove() {
 		//fail("Not yet implemented");
 	}
 
+	public void testSweepEnforcesDiskBudget() throws Exception {
+		DiskBasedFeedInfoCache fiCache = new DiskBasedFeedInfoCache();
+		fiCache.setCachePath(CacheUtilsTest.getTempCacheDir());
+		URL oldest = new URL("http://www.example.com/0");
+		for (int i = 0; i < 10; i++) {
+			SyndFeedInfo info = new SyndFeedInfo();
+			info.setETag("etag" + i);
+			fiCache.setFeedInfo(new URL("http://www.example.com/" + i), info);
+		}
+		File oldestFile = new File(fiCache.buildCachePath(oldest));
+		oldestFile.setLastModified(System.currentTimeMillis() - 60000);
+
+		// just too small for all of them
+		fiCache.setMaxDiskBytes(10 * oldestFile.length() - 1);
+		assertTrue(fiCache.sweep() >= 1);
+		assertNull(fiCache.getFeedInfo(oldest));
+		assertNotNull(fiCache.getFeedInfo(new URL("http://www.example.com/9")));
+	}
+
 }
@@ -0,0 +1,84 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+
+/**
+ * Measures DiskFeedCache throughput under a mixed read/write load at several thread counts.
+ *
+ * Run from the IDE or with java -cp; it is not part of the unit test run.
+ */
+public class DiskFeedCacheContentionBenchmark {
+	private static final int FEEDS = 2000;
+	private static final int WRITE_PERCENT = 5;
+	private static final long RUN_MILLIS = 5000;
+
+	public static void main(String[] args) throws Exception {
+		DiskFeedCache cache = new DiskFeedCache();
+		cache.setCachePath(CacheUtilsTest.getTempCacheDir());
+		cache.setTtlMinutes(Integer.MAX_VALUE / (60 * 1000));
+
+		final URL[] urls = new URL[FEEDS];
+		for (int i = 0; i < FEEDS; i++) {
+			urls[i] = new URL("http://www.example.com/feed/" + i);
+			cache.setFeed(urls[i], createFeed(i));
+		}
+
+		int[] threadCounts = new int[] { 8, 16, 32 };
+		for (int threads : threadCounts) {
+			long ops = run(cache, urls, threads);
+			System.out.println(threads + " threads: " + (ops * 1000 / RUN_MILLIS) + " ops/sec");
+		}
+	}
+
+	private static long run(final DiskFeedCache cache, final URL[] urls, int threads) throws InterruptedException {
+		final AtomicLong ops = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final long end = System.currentTimeMillis() + RUN_MILLIS;
+
+		for (int t = 0; t < threads; t++) {
+			final int seed = t;
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						int i = seed;
+						while (System.currentTimeMillis() < end) {
+							i = (i * 1103515245 + 12345) & 0x7fffffff;
+							URL url = urls[i % urls.length];
+							if (i % 100 < WRITE_PERCENT) {
+								cache.setFeed(url, createFeed(i));
+							} else {
+								cache.getFeed(url);
+							}
+							ops.incrementAndGet();
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+
+		start.countDown();
+		done.await();
+		return ops.get();
+	}
+
+	private static SyndFeed createFeed(int i) {
+		SyndFeed feed = new SyndFeedImpl();
+		feed.setFeedType("rss_2.0");
+		feed.setTitle("Feed " + i);
+		feed.setLink("http://www.example.com/" + i);
+		feed.setDescription("Benchmark feed " + i);
+		return feed;
+	}
+}
@@ -0,0 +1,101 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+
+public class DiskFeedCacheWriteBehindTest extends TestCase {
+
+	private SyndFeed feed(String title) {
+		SyndFeed feed = new SyndFeedImpl();
+		feed.setTitle(title);
+		return feed;
+	}
+
+	public void testLatestVersionIsWrittenOnShutdown() throws Exception {
+		String path = CacheUtilsTest.getTempCacheDir();
+		DiskFeedCache cache = new DiskFeedCache();
+		cache.setCachePath(path);
+		cache.setWriteBehind(true);
+
+		URL[] urls = new URL[20];
+		for (int i = 0; i < urls.length; i++) {
+			urls[i] = new URL("http://www.example.com/feed/" + i);
+			for (int version = 0; version < 10; version++) {
+				cache.setFeed(urls[i], feed(i + "." + version));
+			}
+			// coalesced, so at most one write is waiting per URL
+			assertTrue(cache.getPendingWrites() <= i + 1);
+			assertEquals(i + ".9", cache.getFeed(urls[i]).getTitle());
+		}
+		cache.shutdown();
+		assertEquals(0, cache.getPendingWrites());
+		assertFalse(cache.isWriteBehind());
+
+		DiskFeedCache reopened = new DiskFeedCache();
+		reopened.setCachePath(path);
+		for (int i = 0; i < urls.length; i++) {
+			assertEquals(i + ".9", reopened.getFeed(urls[i]).getTitle());
+		}
+	}
+
+	public void testPendingEntriesAreReadBeforeTheyAreWritten() throws Exception {
+		DiskFeedCache cache = new DiskFeedCache();
+		cache.setCachePath(CacheUtilsTest.getTempCacheDir());
+		// room for one feed in memory, so the others are only pending or on disk
+		cache.setMemoryCacheMaxWeight(1);
+		cache.setMaxPendingWrites(5);
+		cache.setWriteBehind(true);
+
+		for (int i = 0; i < 50; i++) {
+			URL url = new URL("http://www.example.com/feed/" + i);
+			cache.setFeed(url, feed("feed " + i));
+			assertEquals("feed " + i, cache.getFeed(url).getTitle());
+		}
+		cache.flush();
+		assertEquals(0, cache.getPendingWrites());
+		assertEquals("feed 0", cache.getFeed(new URL("http://www.example.com/feed/0")).getTitle());
+		cache.shutdown();
+	}
+
+	public void testWritesDuringShutdownAreNotOverwritten() throws Exception {
+		String path = CacheUtilsTest.getTempCacheDir();
+		final DiskFeedCache cache = new DiskFeedCache();
+		cache.setCachePath(path);
+		cache.setWriteBehind(true);
+
+		// each thread writes ever newer versions of its own feed while write behind is turned off
+		final URL[] urls = new URL[4];
+		final int versions = 300;
+		Thread[] threads = new Thread[urls.length];
+		for (int i = 0; i < urls.length; i++) {
+			urls[i] = new URL("http://www.example.com/feed/" + i);
+			final URL url = urls[i];
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int version = 0; version < versions; version++) {
+						cache.setFeed(url, feed(Integer.toString(version)));
+					}
+				}
+			};
+			threads[i].start();
+		}
+		Thread.sleep(5);
+		cache.setWriteBehind(false);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, cache.getPendingWrites());
+
+		DiskFeedCache reopened = new DiskFeedCache();
+		reopened.setCachePath(path);
+		for (URL url : urls) {
+			assertEquals(Integer.toString(versions - 1), cache.getFeed(url).getTitle());
+			assertEquals(Integer.toString(versions - 1), reopened.getFeed(url).getTitle());
+		}
+	}
+}
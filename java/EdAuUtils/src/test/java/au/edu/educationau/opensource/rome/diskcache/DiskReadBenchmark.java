@@ -0,0 +1,72 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.net.URL;
+
+/**
+ * Compares the latency of reads which miss the memory tier and go to disk: the file per entry
+ * DiskFeedCache, and SegmentFeedCache with and without memory-mapped segments. All use the
+ * binary codec so only the storage layout differs.
+ *
+ * Run from the IDE or with java -cp; it is not part of the unit test run.
+ */
+public class DiskReadBenchmark {
+	private static final int FEEDS = 2000;
+	private static final int WARMUP = 200000;
+	private static final int ITERATIONS = 100000;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		URL[] urls = new URL[FEEDS];
+		for (int i = 0; i < FEEDS; i++) {
+			urls[i] = new URL("http://www.example.com/feed/" + i);
+		}
+
+		DiskFeedCache files = new DiskFeedCache();
+		files.setCachePath(CacheUtilsTest.getTempCacheDir());
+		files.setCodec(new BinaryCacheInfoCodec());
+		// lighter than any feed, so every read goes to disk
+		files.setMemoryCacheMaxWeight(1);
+		run("file per entry", files, urls);
+
+		SegmentFeedCache mapped = new SegmentFeedCache();
+		mapped.setCachePath(CacheUtilsTest.getTempCacheDir() + "mapped");
+		mapped.setMaxSegmentBytes(1024 * 1024);
+		mapped.setCodec(new BinaryCacheInfoCodec());
+		run("segments, mapped", mapped, urls);
+		mapped.close();
+
+		SegmentFeedCache unmapped = new SegmentFeedCache();
+		unmapped.setCachePath(CacheUtilsTest.getTempCacheDir() + "unmapped");
+		unmapped.setMaxSegmentBytes(1024 * 1024);
+		unmapped.setCodec(new BinaryCacheInfoCodec());
+		unmapped.setMemoryMapped(false);
+		run("segments, unmapped", unmapped, urls);
+		unmapped.close();
+	}
+
+	private static void run(String name, LinkedHashMapFeedCache cache, URL[] urls) throws Exception {
+		cache.setTtlMinutes(Integer.MAX_VALUE / (60 * 1000));
+		for (int i = 0; i < urls.length; i++) {
+			cache.setFeed(urls[i], BinaryCacheInfoCodecTest.createFeed(10));
+		}
+
+		int i = 0;
+		for (int n = 0; n < WARMUP; n++) {
+			i = (i * 1103515245 + 12345) & 0x7fffffff;
+			cache.getFeed(urls[i % urls.length]);
+		}
+		// the best of several rounds, to keep JIT and GC noise out of the comparison
+		long nanos = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (int n = 0; n < ITERATIONS; n++) {
+				i = (i * 1103515245 + 12345) & 0x7fffffff;
+				if (cache.getFeed(urls[i % urls.length]) == null) {
+					throw new IllegalStateException("unexpected miss");
+				}
+			}
+			nanos = Math.min(nanos, (System.nanoTime() - start) / ITERATIONS);
+		}
+		System.out.println(name + ": " + nanos / 1000 + "." + (nanos % 1000) / 100 + "us per read");
+	}
+}
@@ -0,0 +1,96 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+
+public class FeedCacheSnapshotTest extends TestCase {
+
+	private FeedCacheSnapshot snapshot(LinkedHashMapFeedCache cache, String manifest) {
+		FeedCacheSnapshot snapshot = new FeedCacheSnapshot();
+		snapshot.setCache(cache);
+		snapshot.setManifestPath(manifest);
+		snapshot.setIntervalMinutes(0);
+		return snapshot;
+	}
+
+	public void testRestartPreloadsHotFeeds() throws Exception {
+		String path = CacheUtilsTest.getTempCacheDir();
+		String manifest = path + "manifest.txt";
+		URL hot = new URL("http://www.example.com/hot");
+		URL warm = new URL("http://www.example.com/warm");
+
+		DiskFeedCache cache = new DiskFeedCache();
+		cache.setCachePath(path);
+		FeedCacheSnapshot snapshot = snapshot(cache, manifest);
+		assertEquals(0, snapshot.preload());
+		snapshot.start();
+		cache.setFeed(hot, new SyndFeedImpl());
+		cache.setFeed(warm, new SyndFeedImpl());
+		for (int i = 0; i < 3; i++) {
+			cache.getFeed(hot);
+		}
+		cache.getFeed(warm);
+		snapshot.shutdown();
+
+		DiskFeedCache restarted = new DiskFeedCache();
+		restarted.setCachePath(path);
+		FeedCacheSnapshot next = snapshot(restarted, manifest);
+		assertEquals(Arrays.asList(hot, warm), next.readManifest());
+		assertEquals(0, restarted.getMemoryCacheSize());
+		next.start();
+		assertEquals(2, restarted.getMemoryCacheSize());
+		assertNotNull(restarted.getFeed(hot));
+		// read from disk by the preload only, so the lookup is a memory hit
+		assertEquals(2, restarted.getStatistics().getDiskReads());
+		assertEquals(0, restarted.getDiskCacheHits());
+		assertEquals(1, restarted.getMemoryCacheHits());
+		next.shutdown();
+	}
+
+	public void testManifestIsBoundedAndAges() throws Exception {
+		String path = CacheUtilsTest.getTempCacheDir();
+		DiskFeedCache cache = new DiskFeedCache();
+		cache.setCachePath(path);
+		FeedCacheSnapshot snapshot = snapshot(cache, path + "manifest.txt");
+		snapshot.setMaxEntries(2);
+		for (int i = 0; i < 5; i++) {
+			URL url = new URL("http://www.example.com/feed/" + i);
+			for (int j = 0; j <= i; j++) {
+				snapshot.recordAccess(url);
+			}
+		}
+		snapshot.writeManifest();
+		List<URL> urls = snapshot.readManifest();
+		assertEquals(Arrays.asList(new URL("http://www.example.com/feed/4"), new URL("http://www.example.com/feed/3")), urls);
+
+		// counts are halved each write, so a newly popular feed soon overtakes
+		URL rising = new URL("http://www.example.com/rising");
+		for (int i = 0; i < 4; i++) {
+			snapshot.recordAccess(rising);
+		}
+		snapshot.writeManifest();
+		assertEquals(rising, snapshot.readManifest().get(0));
+	}
+
+	public void testCacheMustPreload() throws Exception {
+		FeedCacheSnapshot snapshot = new FeedCacheSnapshot();
+		try {
+			snapshot.setCache(new LinkedHashMapFeedCache());
+			fail("a memory only cache has nothing to preload from");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			snapshot.setCache(new TieredFeedCache(Arrays.asList(new LinkedHashMapFeedCache())));
+			fail("a single tier has nothing to preload from");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		snapshot.setCache(new TieredFeedCache(Arrays.asList(new LinkedHashMapFeedCache(), new LinkedHashMapFeedCache())));
+	}
+}
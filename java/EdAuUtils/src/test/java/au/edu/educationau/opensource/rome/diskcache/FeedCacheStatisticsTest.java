@@ -0,0 +1,159 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Date;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import org.springframework.jmx.export.MBeanExporter;
+import org.springframework.jmx.export.annotation.AnnotationJmxAttributeSource;
+import org.springframework.jmx.export.assembler.MetadataMBeanInfoAssembler;
+import org.springframework.jmx.export.naming.MetadataNamingStrategy;
+
+import au.edu.educationau.opensource.rome.diskcache.LinkedHashMapFeedCache.CacheInfo;
+
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+
+public class FeedCacheStatisticsTest extends TestCase {
+
+	public void testConcurrentIncrementsAreNotLost() throws Exception {
+		final StripedCounter counter = new StripedCounter();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 100000; j++) {
+						counter.increment();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(800000, counter.sum());
+		counter.reset();
+		assertEquals(0, counter.sum());
+	}
+
+	public void testHistogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentileMicros(99));
+		for (int i = 0; i < 99; i++) {
+			histogram.record(10 * 1000L);
+		}
+		histogram.record(5000 * 1000L);
+		assertEquals(100, histogram.getCount());
+		// reported as the upper bound of the power of two bucket
+		assertEquals(16, histogram.getPercentileMicros(50));
+		assertEquals(16, histogram.getPercentileMicros(99));
+		assertEquals(8192, histogram.getPercentileMicros(100));
+		assertEquals((99 * 10 + 5000) / 100, histogram.getMeanMicros());
+	}
+
+	public void testDiskCacheCountsHitsAndBytes() throws Exception {
+		String path = System.getProperty("java.io.tmpdir") + "/FeedCacheStatisticsTest" + System.nanoTime();
+		DiskFeedCache writer = new DiskFeedCache();
+		writer.setCachePath(path);
+		// a second cache on the same directory, so the entry is not in its memory tier
+		DiskFeedCache cache = new DiskFeedCache();
+		cache.setCachePath(path);
+		cache.setStatistics(writer.getStatistics());
+		URL url = new URL("http://www.example.com/feed");
+
+		assertNull(cache.getFeed(url));
+		writer.setFeed(url, new SyndFeedImpl());
+		assertNotNull(cache.getFeed(url));
+		assertNotNull(cache.getFeed(url));
+
+		FeedCacheStatistics statistics = cache.getStatistics();
+		assertEquals(1, statistics.getMisses());
+		assertEquals(1, statistics.getDiskHits());
+		assertEquals(1, statistics.getMemoryHits());
+		assertEquals(1, statistics.getWrites());
+		assertTrue(statistics.getBytesWritten() > 0);
+		assertEquals(statistics.getBytesWritten(), statistics.getBytesRead());
+		assertEquals(2.0 / 3, statistics.getHitRatio(), 0.001);
+
+		cache.resetCacheInfo();
+		assertEquals(0, cache.getCacheMisses());
+		assertEquals(0, cache.getDiskCacheHits());
+		assertEquals(0, cache.getMemoryCacheHits());
+	}
+
+	public void testEachLookupCountsOnce() throws Exception {
+		DiskFeedCache cache = new DiskFeedCache();
+		cache.setCachePath(System.getProperty("java.io.tmpdir") + "/FeedCacheStatisticsTest" + System.nanoTime());
+		URL url = new URL("http://www.example.com/feed");
+		CacheInfo info = new CacheInfo(new SyndFeedImpl());
+		info.setLastCheckedDate(new Date(System.currentTimeMillis() - 60 * 60 * 1000L));
+		cache.putCacheInfo(url, info);
+
+		// reads which are not lookups
+		cache.getStaleFeed(url);
+		cache.getCacheInfo(url);
+		cache.setFeedError(url, "timed out", FeedErrorType.TRANSIENT);
+		cache.putCacheInfo(url, info);
+		FeedCacheStatistics statistics = cache.getStatistics();
+		assertEquals(0, statistics.getMemoryHits() + statistics.getDiskHits());
+
+		assertNull(cache.getFeed(url));
+		assertNull(cache.getFeed(url));
+		assertEquals(2, statistics.getExpiries());
+		assertEquals(0, statistics.getMemoryHits() + statistics.getDiskHits());
+		assertEquals(0.0, statistics.getHitRatio(), 0.001);
+	}
+
+	public void testSegmentCacheCountsEachLookupOnce() throws Exception {
+		SegmentFeedCache cache = new SegmentFeedCache();
+		cache.setCachePath(CacheUtilsTest.getTempCacheDir());
+		try {
+			URL url = new URL("http://www.example.com/feed");
+			cache.setFeed(url, new SyndFeedImpl());
+			cache.getStaleFeed(url);
+			assertNotNull(cache.getFeed(url));
+			cache.setTtlMinutes(0);
+			assertNull(cache.getFeed(url));
+
+			FeedCacheStatistics statistics = cache.getStatistics();
+			assertEquals(1, statistics.getDiskHits());
+			assertEquals(1, statistics.getExpiries());
+			assertEquals(3, statistics.getDiskReads());
+			assertEquals(0.5, statistics.getHitRatio(), 0.001);
+		} finally {
+			cache.close();
+		}
+	}
+
+	public void testExportedThroughAnnotations() throws Exception {
+		MBeanServer server = MBeanServerFactory.newMBeanServer();
+		AnnotationJmxAttributeSource attributeSource = new AnnotationJmxAttributeSource();
+		MetadataMBeanInfoAssembler assembler = new MetadataMBeanInfoAssembler();
+		assembler.setAttributeSource(attributeSource);
+		MetadataNamingStrategy namingStrategy = new MetadataNamingStrategy();
+		namingStrategy.setAttributeSource(attributeSource);
+		MBeanExporter exporter = new MBeanExporter();
+		exporter.setServer(server);
+		exporter.setAssembler(assembler);
+		exporter.setNamingStrategy(namingStrategy);
+		FeedCacheStatistics statistics = new FeedCacheStatistics();
+		exporter.setBeans(Collections.singletonMap("feedCacheStatistics", statistics));
+		exporter.afterPropertiesSet();
+		try {
+			statistics.recordMiss();
+			ObjectName name = new ObjectName("bean:name=au.edu.educationau.opensource.rome.diskcache.FeedCacheStatistics");
+			assertEquals(Long.valueOf(1), server.getAttribute(name, "Misses"));
+			server.invoke(name, "reset", new Object[0], new String[0]);
+			assertEquals(0, statistics.getMisses());
+		} finally {
+			exporter.destroy();
+		}
+	}
+}
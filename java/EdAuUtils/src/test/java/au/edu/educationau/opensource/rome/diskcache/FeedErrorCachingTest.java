@@ -0,0 +1,61 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.IOException;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+import com.sun.syndication.fetcher.FetcherException;
+import com.sun.syndication.io.FeedException;
+
+public class FeedErrorCachingTest extends TestCase {
+
+	public void testClassify() {
+		assertEquals(FeedErrorType.PERMANENT, FeedErrorType.classify(new FetcherException(404, "not found")));
+		assertEquals(FeedErrorType.PERMANENT, FeedErrorType.classify(new FetcherException(410, "gone")));
+		assertEquals(FeedErrorType.PERMANENT, FeedErrorType.classify(new FeedException("not a feed")));
+		assertEquals(FeedErrorType.TRANSIENT, FeedErrorType.classify(new FetcherException(503, "unavailable")));
+		assertEquals(FeedErrorType.TRANSIENT, FeedErrorType.classify(new FetcherException(429, "slow down")));
+		assertEquals(FeedErrorType.TRANSIENT, FeedErrorType.classify(new IOException("timed out")));
+	}
+
+	public void testMemoryCache() throws Exception {
+		checkErrorCaching(new LinkedHashMapFeedCache());
+	}
+
+	public void testDiskCache() throws Exception {
+		DiskFeedCache cache = new DiskFeedCache();
+		cache.setCachePath(CacheUtilsTest.getTempCacheDir());
+		cache.setCodec(new BinaryCacheInfoCodec());
+		checkErrorCaching(cache);
+	}
+
+	private void checkErrorCaching(LinkedHashMapFeedCache cache) throws Exception {
+		URL url = new URL("http://www.example.com/feed");
+		SyndFeed feed = new SyndFeedImpl();
+		cache.setFeed(url, feed);
+
+		// the last good copy is served through a transient error
+		cache.setFeedError(url, "timed out", FeedErrorType.TRANSIENT);
+		assertNotNull(cache.getFeed(url));
+		assertNotNull(cache.getStaleFeed(url));
+
+		// but not a permanent one
+		cache.setFeedError(url, "not found", FeedErrorType.PERMANENT);
+		try {
+			cache.getFeed(url);
+			fail("cached permanent error should be thrown");
+		} catch (FetcherException e) {
+			// expected
+		}
+		assertNull(cache.getStaleFeed(url));
+
+		// transient errors expire on their own TTL
+		cache.setTransientErrorTtlMinutes(0);
+		URL other = new URL("http://www.example.com/other");
+		cache.setFeedError(other, "timed out", FeedErrorType.TRANSIENT);
+		assertNull(cache.getFeed(other));
+	}
+}
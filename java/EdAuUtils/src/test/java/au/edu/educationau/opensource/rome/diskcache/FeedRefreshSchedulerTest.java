@@ -0,0 +1,278 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.sun.syndication.feed.synd.SyndEntry;
+import com.sun.syndication.feed.synd.SyndEntryImpl;
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+
+public class FeedRefreshSchedulerTest extends TestCase {
+	private static final long MINUTE = 60L * 1000L;
+
+	/**
+	 * Returns the current version of a feed, or fails, instead of fetching it.
+	 */
+	static class StubFetcher extends CachingFeedFetcher {
+		final AtomicInteger refreshes = new AtomicInteger();
+		volatile SyndFeed feed;
+		volatile int feedTtlMinutes;
+		volatile boolean failing;
+
+		StubFetcher(LinkedHashMapFeedCache feedCache) {
+			setFeedCache(feedCache);
+		}
+
+		@Override
+		public SyndFeed refreshFeed(URL feedUrl) throws IOException {
+			refreshes.incrementAndGet();
+			if (failing) {
+				throw new IOException("unavailable");
+			}
+			LinkedHashMapFeedCache.CacheInfo info = new LinkedHashMapFeedCache.CacheInfo(feed);
+			info.setTtlMinutes(feedTtlMinutes);
+			((LinkedHashMapFeedCache) getFeedCache()).putCacheInfo(feedUrl, info);
+			return feed;
+		}
+	}
+
+	/**
+	 * Records the refreshes the scheduler asks for instead of running them, so the test decides when
+	 * time passes.
+	 */
+	static class ManualExecutor extends ScheduledThreadPoolExecutor {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		final List<Long> delays = new ArrayList<Long>();
+
+		ManualExecutor() {
+			super(1);
+		}
+
+		@Override
+		public synchronized ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+			tasks.add(command);
+			delays.add(Long.valueOf(unit.toMillis(delay)));
+			return super.schedule(new Runnable() {
+				public void run() {
+				}
+			}, 1, TimeUnit.DAYS);
+		}
+
+		/**
+		 * Runs the earliest scheduled refresh.
+		 *
+		 * @return the delay it was scheduled with
+		 */
+		long runNext() {
+			Runnable task;
+			long delay;
+			synchronized (this) {
+				assertFalse("nothing scheduled", tasks.isEmpty());
+				task = tasks.remove(0);
+				delay = delays.remove(0).longValue();
+			}
+			task.run();
+			return delay;
+		}
+
+		synchronized long lastDelay() {
+			return delays.get(delays.size() - 1).longValue();
+		}
+	}
+
+	private URL url;
+	private LinkedHashMapFeedCache cache;
+	private StubFetcher fetcher;
+	private ManualExecutor executor;
+	private FeedRefreshScheduler scheduler;
+
+	@Override
+	protected void setUp() throws Exception {
+		url = new URL("http://www.example.com/feed");
+		cache = new LinkedHashMapFeedCache();
+		cache.setTtlMinutes(24 * 60);
+		fetcher = new StubFetcher(cache);
+		fetcher.feed = feed(5, 60);
+		executor = new ManualExecutor();
+		scheduler = new FeedRefreshScheduler() {
+			@Override
+			protected ScheduledExecutorService createExecutor() {
+				return executor;
+			}
+		};
+		scheduler.setFeedFetcher(fetcher);
+		scheduler.setJitterPercent(0);
+		scheduler.setMaxIntervalMinutes(7 * 24 * 60);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		scheduler.shutdown();
+	}
+
+	/**
+	 * @return a feed with entries published the given number of minutes apart, newest first
+	 */
+	private SyndFeed feed(int entries, int spacingMinutes) {
+		long newest = System.currentTimeMillis();
+		List<SyndEntry> list = new ArrayList<SyndEntry>();
+		for (int i = 0; i < entries; i++) {
+			SyndEntry entry = new SyndEntryImpl();
+			entry.setUri(url + "#" + (newest - i * spacingMinutes * MINUTE));
+			entry.setPublishedDate(new Date(newest - i * spacingMinutes * MINUTE));
+			list.add(entry);
+		}
+		SyndFeed feed = new SyndFeedImpl();
+		feed.setEntries(list);
+		return feed;
+	}
+
+	private void start() {
+		scheduler.register(url);
+		scheduler.start();
+		assertTrue(executor.runNext() < MINUTE);
+	}
+
+	public void testFeedsRegisteredWhileStartingAreScheduledOnce() throws Exception {
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 200; i++) {
+							scheduler.register(new URL("http://www.example.com/feed/" + thread + "/" + i));
+						}
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		scheduler.start();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(800, scheduler.getRegisteredFeeds().size());
+		synchronized (executor) {
+			assertEquals(800, executor.tasks.size());
+		}
+	}
+
+	public void testCadenceIsLearnt() throws Exception {
+		start();
+		assertEquals(1, fetcher.refreshes.get());
+		assertEquals(60, scheduler.getRefreshIntervalMinutes(url));
+		assertEquals(60 * MINUTE, executor.lastDelay());
+
+		// unchanged, so refresh less often
+		executor.runNext();
+		assertEquals(90, scheduler.getRefreshIntervalMinutes(url));
+		executor.runNext();
+		assertEquals(135, scheduler.getRefreshIntervalMinutes(url));
+
+		// changed, so refresh more often
+		fetcher.feed = feed(6, 60);
+		executor.runNext();
+		assertEquals(90, scheduler.getRefreshIntervalMinutes(url));
+		assertEquals(90 * MINUTE, executor.lastDelay());
+		assertEquals(4, scheduler.getRefreshCount());
+	}
+
+	public void testIntervalIsBounded() throws Exception {
+		scheduler.setMinIntervalMinutes(30);
+		scheduler.setMaxIntervalMinutes(100);
+		fetcher.feed = feed(5, 1);
+		start();
+		assertEquals(30, scheduler.getRefreshIntervalMinutes(url));
+		for (int i = 0; i < 5; i++) {
+			executor.runNext();
+		}
+		assertEquals(100, scheduler.getRefreshIntervalMinutes(url));
+	}
+
+	public void testIntervalStaysWithinFeedTtl() throws Exception {
+		fetcher.feedTtlMinutes = 20;
+		start();
+		assertEquals(18, scheduler.getRefreshIntervalMinutes(url));
+		executor.runNext();
+		assertEquals(18, scheduler.getRefreshIntervalMinutes(url));
+
+		// the cache's TTL applies to a feed which does not ask for one
+		fetcher.feedTtlMinutes = 0;
+		cache.setTtlMinutes(40);
+		executor.runNext();
+		assertEquals(27, scheduler.getRefreshIntervalMinutes(url));
+		executor.runNext();
+		assertEquals(36, scheduler.getRefreshIntervalMinutes(url));
+	}
+
+	public void testFailuresBackOffExponentially() throws Exception {
+		scheduler.setMaxBackoffMinutes(600);
+		start();
+		fetcher.failing = true;
+		executor.runNext();
+		assertEquals(120 * MINUTE, executor.lastDelay());
+		executor.runNext();
+		assertEquals(240 * MINUTE, executor.lastDelay());
+		executor.runNext();
+		assertEquals(480 * MINUTE, executor.lastDelay());
+		executor.runNext();
+		assertEquals(600 * MINUTE, executor.lastDelay());
+		assertEquals(4, scheduler.getRefreshErrorCount());
+
+		// recovers to the learnt interval
+		fetcher.failing = false;
+		executor.runNext();
+		assertEquals(90 * MINUTE, executor.lastDelay());
+	}
+
+	public void testJitter() throws Exception {
+		scheduler.setJitterPercent(10);
+		scheduler.setMinIntervalMinutes(60);
+		scheduler.setMaxIntervalMinutes(60);
+		start();
+		long min = Long.MAX_VALUE;
+		long max = 0;
+		for (int i = 0; i < 200; i++) {
+			executor.runNext();
+			min = Math.min(min, executor.lastDelay());
+			max = Math.max(max, executor.lastDelay());
+		}
+		assertTrue(min >= 54 * MINUTE);
+		assertTrue(max < 66 * MINUTE);
+		assertTrue(max - min > 6 * MINUTE);
+	}
+
+	public void testHostLimitIsSharedWithFetcher() throws Exception {
+		fetcher.setMaxFetchesPerHost(1);
+		start();
+		assertEquals(1, fetcher.refreshes.get());
+
+		// a fetch of another feed from the same host is in progress
+		URL other = new URL("http://www.example.com/other");
+		HostConcurrencyLimiter limiter = fetcher.getHostLimiter();
+		assertTrue(limiter.tryAcquire(other));
+		executor.runNext();
+		assertEquals(1, fetcher.refreshes.get());
+		assertTrue(executor.lastDelay() < MINUTE);
+
+		limiter.release(other);
+		executor.runNext();
+		assertEquals(2, fetcher.refreshes.get());
+		assertEquals(90 * MINUTE, executor.lastDelay());
+	}
+}
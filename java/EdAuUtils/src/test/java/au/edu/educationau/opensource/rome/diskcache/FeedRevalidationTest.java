@@ -0,0 +1,109 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import au.edu.educationau.opensource.rome.diskcache.LinkedHashMapFeedCache.CacheInfo;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+
+public class FeedRevalidationTest extends TestCase {
+	private static final long TWO_HOURS = 2 * 60 * 60 * 1000L;
+
+	public void testExpiredFeedIsKeptForRevalidation() throws Exception {
+		LinkedHashMapFeedCache cache = new LinkedHashMapFeedCache();
+		cache.setTtlMinutes(0);
+		URL url = new URL("http://www.example.com/feed");
+		assertFalse(cache.touchFeed(url));
+
+		SyndFeed feed = new SyndFeedImpl();
+		cache.setFeed(url, feed);
+		assertNull(cache.getFeed(url));
+		assertTrue(cache.touchFeed(url));
+
+		cache.setTtlMinutes(30);
+		assertSame(feed, cache.getFeed(url));
+	}
+
+	public void testDiskCacheTouchDoesNotRewrite() throws Exception {
+		String path = CacheUtilsTest.getTempCacheDir();
+		DiskFeedCache cache = new DiskFeedCache();
+		cache.setCachePath(path);
+		URL url = new URL("http://www.example.com/feed");
+
+		// an entry last checked two hours ago
+		CacheInfo info = new CacheInfo(new SyndFeedImpl());
+		long checked = System.currentTimeMillis() - TWO_HOURS;
+		info.setLastCheckedDate(new Date(checked));
+		cache.putCacheInfo(url, info);
+		File file = new File(cache.buildCachePath(url));
+		long length = file.length();
+
+		assertNull(cache.getFeed(url));
+		assertTrue(file.exists());
+
+		assertTrue(cache.touchFeed(url));
+		assertEquals(length, file.length());
+		assertNotNull(cache.getFeed(url));
+
+		// the new last checked date is read back from the file by a fresh cache
+		DiskFeedCache reopened = new DiskFeedCache();
+		reopened.setCachePath(path);
+		assertNotNull(reopened.getFeed(url));
+	}
+
+	public void testDiskCacheIgnoresModificationTime() throws Exception {
+		String path = CacheUtilsTest.getTempCacheDir();
+		DiskFeedCache cache = new DiskFeedCache();
+		cache.setCachePath(path);
+		URL url = new URL("http://www.example.com/feed");
+		CacheInfo info = new CacheInfo(new SyndFeedImpl());
+		info.setLastCheckedDate(new Date(System.currentTimeMillis() - TWO_HOURS));
+		cache.putCacheInfo(url, info);
+
+		// eg, copied or backed up
+		assertTrue(new File(cache.buildCachePath(url)).setLastModified(System.currentTimeMillis()));
+		DiskFeedCache reopened = new DiskFeedCache();
+		reopened.setCachePath(path);
+		assertNull(reopened.getFeed(url));
+	}
+
+	public void testDiskCacheTouchRewritesOldEntry() throws Exception {
+		String path = CacheUtilsTest.getTempCacheDir();
+		DiskFeedCache cache = new DiskFeedCache();
+		cache.setCachePath(path);
+		URL url = new URL("http://www.example.com/feed");
+
+		// written before entries had a last checked date header
+		CacheInfo info = new CacheInfo(new SyndFeedImpl());
+		info.setLastCheckedDate(new Date(System.currentTimeMillis() - TWO_HOURS));
+		File file = new File(cache.buildCachePath(url));
+		CacheUtils.writeAtomically(file, info, new SerializingCacheCodec<CacheInfo>(), false);
+		long length = file.length();
+		assertNull(cache.getFeed(url));
+
+		assertTrue(cache.touchFeed(url));
+		assertEquals(length + CheckedDateCacheCodec.HEADER_LENGTH, file.length());
+		DiskFeedCache reopened = new DiskFeedCache();
+		reopened.setCachePath(path);
+		assertNotNull(reopened.getFeed(url));
+	}
+
+	public void testTouchClearsTransientError() throws Exception {
+		DiskFeedCache cache = new DiskFeedCache();
+		cache.setCachePath(CacheUtilsTest.getTempCacheDir());
+		URL url = new URL("http://www.example.com/feed");
+		cache.setFeed(url, new SyndFeedImpl());
+		cache.setFeedError(url, "timed out", FeedErrorType.TRANSIENT);
+
+		assertTrue(cache.touchFeed(url));
+		DiskFeedCache reopened = new DiskFeedCache();
+		reopened.setCachePath(cache.getCachePath());
+		reopened.setTransientErrorTtlMinutes(0);
+		assertNotNull(reopened.getFeed(url));
+	}
+}
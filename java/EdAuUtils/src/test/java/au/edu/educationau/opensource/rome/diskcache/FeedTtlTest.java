@@ -0,0 +1,172 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.util.DateUtil;
+
+import com.sun.syndication.feed.WireFeed;
+import com.sun.syndication.feed.module.Module;
+import com.sun.syndication.feed.module.SyModule;
+import com.sun.syndication.feed.module.SyModuleImpl;
+import com.sun.syndication.feed.rss.Channel;
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+
+public class FeedTtlTest extends TestCase {
+
+	/**
+	 * A feed as parsed, with its wire feed preserved and the syndication module set.
+	 */
+	static class HintedFeed extends SyndFeedImpl {
+		private static final long serialVersionUID = 1L;
+		Channel channel;
+		SyModule sy;
+
+		@Override
+		public WireFeed originalWireFeed() {
+			return channel;
+		}
+
+		@Override
+		public Module getModule(String uri) {
+			return SyModule.URI.equals(uri) ? sy : null;
+		}
+	}
+
+	private HintedFeed rssTtl(int minutes) {
+		HintedFeed feed = new HintedFeed();
+		feed.channel = new Channel();
+		feed.channel.setTtl(minutes);
+		return feed;
+	}
+
+	/**
+	 * @param period the update period, or null to leave it unset
+	 */
+	private HintedFeed updatePeriod(String period, int frequency) {
+		HintedFeed feed = new HintedFeed();
+		SyModuleImpl sy = new SyModuleImpl();
+		if (period != null) {
+			sy.setUpdatePeriod(period);
+		}
+		sy.setUpdateFrequency(frequency);
+		feed.sy = sy;
+		return feed;
+	}
+
+	public void testFeedTtlHints() {
+		LinkedHashMapFeedCache cache = new LinkedHashMapFeedCache();
+		assertEquals(0, cache.feedTtlMinutes(new SyndFeedImpl()));
+		assertEquals(15, cache.feedTtlMinutes(rssTtl(15)));
+		assertEquals(30, cache.feedTtlMinutes(updatePeriod(SyModule.HOURLY, 2)));
+		assertEquals(24 * 60, cache.feedTtlMinutes(updatePeriod(null, 1)));
+
+		// clamped
+		assertEquals(24 * 60, cache.feedTtlMinutes(updatePeriod(SyModule.MONTHLY, 1)));
+		cache.setMinFeedTtlMinutes(10);
+		assertEquals(10, cache.feedTtlMinutes(rssTtl(1)));
+	}
+
+	public void testHttpTtlOverridesFeed() {
+		LinkedHashMapFeedCache cache = new LinkedHashMapFeedCache();
+		assertEquals(15, cache.feedTtlMinutes(rssTtl(15), -1));
+		assertEquals(5, cache.feedTtlMinutes(rssTtl(15), 300));
+		assertEquals(5, cache.feedTtlMinutes(new SyndFeedImpl(), 300));
+
+		// clamped
+		assertEquals(1, cache.feedTtlMinutes(rssTtl(15), 0));
+		assertEquals(24 * 60, cache.feedTtlMinutes(rssTtl(15), 365 * 24 * 60 * 60L));
+	}
+
+	/**
+	 * A request with the given response headers.
+	 */
+	private GetMethod response(final String... headers) {
+		return new GetMethod() {
+			{
+				for (int i = 0; i < headers.length; i += 2) {
+					getResponseHeaderGroup().addHeader(new Header(headers[i], headers[i + 1]));
+				}
+			}
+		};
+	}
+
+	public void testHttpCachingHeaders() {
+		assertEquals(-1, CachingFeedFetcher.maxAgeSeconds(response()));
+		assertEquals(600, CachingFeedFetcher.maxAgeSeconds(response("Cache-Control", "public, max-age=600")));
+		assertEquals(60, CachingFeedFetcher.maxAgeSeconds(response("Cache-Control", "max-age=600, s-maxage=60")));
+		assertEquals(0, CachingFeedFetcher.maxAgeSeconds(response("Cache-Control", "no-cache", "Expires", "Thu, 01 Jan 2037 00:00:00 GMT")));
+
+		long now = System.currentTimeMillis();
+		String date = DateUtil.formatDate(new Date(now));
+		String inAnHour = DateUtil.formatDate(new Date(now + 60 * 60 * 1000L));
+		assertEquals(3600, CachingFeedFetcher.maxAgeSeconds(response("Date", date, "Expires", inAnHour)));
+		assertEquals(120, CachingFeedFetcher.maxAgeSeconds(response("Cache-Control", "max-age=120", "Expires", inAnHour)));
+		assertEquals(0, CachingFeedFetcher.maxAgeSeconds(response("Expires", "0")));
+	}
+
+	public void testFetchedFeedTakesTtlFromResponse() throws Exception {
+		final ServerSocket server = new ServerSocket(0);
+		Thread responder = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Socket socket = server.accept();
+					try {
+						BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+						while (in.readLine().length() > 0) {
+							// skip the request
+						}
+						String body = "<?xml version=\"1.0\"?><rss version=\"2.0\"><channel><title>t</title>"
+								+ "<link>http://www.example.com/</link><description>d</description><ttl>60</ttl></channel></rss>";
+						OutputStream out = socket.getOutputStream();
+						out.write(("HTTP/1.0 200 OK\r\nContent-Type: text/xml\r\nCache-Control: max-age=300\r\n"
+								+ "Content-Length: " + body.length() + "\r\n\r\n" + body).getBytes("ISO-8859-1"));
+						out.flush();
+					} finally {
+						socket.close();
+					}
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		responder.start();
+		try {
+			LinkedHashMapFeedCache cache = new LinkedHashMapFeedCache();
+			CachingFeedFetcher fetcher = new CachingFeedFetcher();
+			fetcher.setFeedCache(cache);
+			URL url = new URL("http://localhost:" + server.getLocalPort() + "/feed");
+			assertEquals("t", fetcher.retrieveFeed(url).getTitle());
+			assertEquals(5, cache.getCacheInfo(url).getTtlMinutes());
+		} finally {
+			responder.join(5000);
+			server.close();
+		}
+	}
+
+	public void testEntriesExpireOnTheirOwnTtl() throws Exception {
+		LinkedHashMapFeedCache cache = new LinkedHashMapFeedCache();
+		cache.setTtlMinutes(0);
+		URL plain = new URL("http://www.example.com/plain");
+		URL hinted = new URL("http://www.example.com/hinted");
+		cache.setFeed(plain, new SyndFeedImpl());
+		cache.setFeed(hinted, rssTtl(60));
+
+		assertNull(cache.getFeed(plain));
+		assertNotNull(cache.getFeed(hinted));
+
+		// revalidating keeps the feed's TTL
+		assertTrue(cache.touchFeed(hinted));
+		assertNotNull(cache.getFeed(hinted));
+	}
+}
@@ -0,0 +1,100 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.net.URL;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import au.edu.educationau.opensource.rome.diskcache.LinkedHashMapFeedCache.CacheInfo;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+import com.sun.syndication.fetcher.impl.SyndFeedInfo;
+
+public class SegmentFeedCacheTest extends TestCase {
+	private static final long TWO_HOURS = 2 * 60 * 60 * 1000L;
+
+	private String path;
+	private URL url;
+	private SegmentFeedCache cache;
+
+	@Override
+	protected void setUp() throws Exception {
+		path = CacheUtilsTest.getTempCacheDir();
+		url = new URL("http://www.example.com/feed");
+		cache = open();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		cache.close();
+	}
+
+	private SegmentFeedCache open() {
+		SegmentFeedCache result = new SegmentFeedCache();
+		result.setCachePath(path);
+		return result;
+	}
+
+	public void testExpiredFeedIsServedStale() throws Exception {
+		cache.setTtlMinutes(0);
+		cache.setMaxStaleMinutes(10);
+		SyndFeed feed = new SyndFeedImpl();
+		feed.setTitle("stale");
+		cache.setFeed(url, feed);
+
+		assertNull(cache.getFeed(url));
+		assertEquals(1, cache.getStatistics().getExpiries());
+		assertEquals("stale", cache.getStaleFeed(url).getTitle());
+
+		cache.setTtlMinutes(30);
+		assertEquals("stale", cache.getFeed(url).getTitle());
+	}
+
+	public void testExpiredErrorIsRemoved() throws Exception {
+		cache.setTransientErrorTtlMinutes(0);
+		cache.setFeedError(url, "timed out", FeedErrorType.TRANSIENT);
+		assertEquals(1, cache.getEntryCount());
+
+		assertNull(cache.getFeed(url));
+		assertEquals(0, cache.getEntryCount());
+	}
+
+	public void testTouchFeedRevalidates() throws Exception {
+		assertFalse(cache.touchFeed(url));
+
+		// an entry last checked two hours ago
+		CacheInfo info = new CacheInfo(new SyndFeedImpl());
+		info.setLastCheckedDate(new Date(System.currentTimeMillis() - TWO_HOURS));
+		cache.putCacheInfo(url, info);
+		assertNull(cache.getFeed(url));
+
+		assertTrue(cache.touchFeed(url));
+		assertNotNull(cache.getFeed(url));
+
+		// the new last checked date is read back by a fresh cache
+		cache.close();
+		SegmentFeedCache reopened = open();
+		try {
+			assertNotNull(reopened.getFeed(url));
+		} finally {
+			reopened.close();
+		}
+	}
+
+	public void testFeedInfoCache() throws Exception {
+		SegmentFeedInfoCache infoCache = new SegmentFeedInfoCache();
+		infoCache.setCachePath(path + "info");
+		SyndFeedInfo info = new SyndFeedInfo();
+		info.setUrl(url);
+		info.setETag("\"v1\"");
+		infoCache.setFeedInfo(url, info);
+		infoCache.close();
+
+		// reopened from disk
+		assertEquals("\"v1\"", infoCache.getFeedInfo(url).getETag());
+		assertEquals("\"v1\"", infoCache.remove(url).getETag());
+		assertNull(infoCache.getFeedInfo(url));
+		infoCache.close();
+	}
+}
@@ -0,0 +1,192 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class SegmentStoreTest extends TestCase {
+	private File dir;
+
+	/**
+	 * A store whose segment files cannot be deleted while failing is set, as when they are
+	 * still mapped on Windows.
+	 */
+	static class UndeletableStore extends SegmentStore {
+		volatile boolean failing = true;
+
+		UndeletableStore(File directory) throws IOException {
+			super(directory, 64, 101);
+		}
+
+		@Override
+		boolean deleteFile(File file) {
+			return !failing && super.deleteFile(file);
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = new File(CacheUtilsTest.getTempCacheDir());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	public void testPutGetRemove() throws Exception {
+		SegmentStore store = new SegmentStore(dir);
+		store.put("a", "one".getBytes("UTF-8"));
+		store.put("b", "two".getBytes("UTF-8"));
+		store.put("a", "three".getBytes("UTF-8"));
+		assertEquals("three", new String(store.get("a"), "UTF-8"));
+		assertTrue(store.remove("b"));
+		assertFalse(store.remove("b"));
+		assertNull(store.get("b"));
+		assertEquals(1, store.size());
+		store.close();
+	}
+
+	public void testIndexIsRebuiltAndTornTailTruncated() throws Exception {
+		SegmentStore store = new SegmentStore(dir, 64, 101);
+		for (int i = 0; i < 20; i++) {
+			store.put("key" + i, ("value" + i).getBytes("UTF-8"));
+		}
+		store.remove("key3");
+		store.put("key5", "replaced".getBytes("UTF-8"));
+		store.close();
+
+		// simulate a write torn by a crash
+		File[] files = dir.listFiles();
+		File last = files[0];
+		for (File f : files) {
+			if (f.getName().compareTo(last.getName()) > 0) {
+				last = f;
+			}
+		}
+		RandomAccessFile raf = new RandomAccessFile(last, "rw");
+		raf.seek(raf.length());
+		raf.write(new byte[] { 1, 0, 0 });
+		raf.close();
+
+		store = new SegmentStore(dir, 64, 101);
+		assertEquals(19, store.size());
+		assertNull(store.get("key3"));
+		assertEquals("replaced", new String(store.get("key5"), "UTF-8"));
+		assertEquals("value19", new String(store.get("key19"), "UTF-8"));
+		store.put("key20", "value20".getBytes("UTF-8"));
+		store.close();
+
+		store = new SegmentStore(dir, 64, 101);
+		assertEquals("value20", new String(store.get("key20"), "UTF-8"));
+		store.close();
+	}
+
+	public void testCompaction() throws Exception {
+		SegmentStore store = new SegmentStore(dir, 64, 101);
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < 5; i++) {
+				store.put("key" + i, ("value" + round).getBytes("UTF-8"));
+			}
+		}
+		store.remove("key4");
+		assertTrue(store.getGarbagePercent() > 50);
+		int segmentsBefore = store.getSegmentCount();
+
+		store.compact();
+		assertEquals(0, store.getGarbagePercent());
+		assertTrue(store.getSegmentCount() < segmentsBefore);
+		store.close();
+
+		store = new SegmentStore(dir, 64, 101);
+		assertEquals(4, store.size());
+		assertNull(store.get("key4"));
+		assertEquals("value9", new String(store.get("key0"), "UTF-8"));
+		store.close();
+	}
+
+	public void testMappedReads() throws Exception {
+		SegmentStore store = new SegmentStore(dir, 64, 101);
+		for (int i = 0; i < 20; i++) {
+			store.put("key" + i, ("value" + i).getBytes("UTF-8"));
+		}
+		assertTrue(store.getSegmentCount() > 1);
+		for (int i = 0; i < 20; i++) {
+			InputStream in = store.getInputStream("key" + i);
+			byte[] value = new byte[32];
+			int length = in.read(value);
+			assertEquals("value" + i, new String(value, 0, length, "UTF-8"));
+			assertEquals(-1, in.read());
+		}
+
+		store.setMemoryMapped(false);
+		assertEquals("value0", new String(store.get("key0"), "UTF-8"));
+		assertNull(store.getInputStream("missing"));
+		store.close();
+	}
+
+	public void testFailedCompactionKeepsRemovals() throws Exception {
+		UndeletableStore store = new UndeletableStore(dir);
+		store.put("removed", "value".getBytes("UTF-8"));
+		for (int i = 0; i < 10; i++) {
+			store.put("key" + i, ("value" + i).getBytes("UTF-8"));
+		}
+		store.remove("removed");
+		List<String> files = Arrays.asList(dir.list());
+
+		try {
+			store.compact();
+			fail("compacted without deleting");
+		} catch (IOException e) {
+			// expected
+		}
+		// the live entries were copied, but no segment was deleted
+		assertTrue(Arrays.asList(dir.list()).containsAll(files));
+		assertNull(store.get("removed"));
+		assertEquals("value9", new String(store.get("key9"), "UTF-8"));
+		store.close();
+
+		store = new UndeletableStore(dir);
+		assertNull(store.get("removed"));
+		assertEquals(10, store.size());
+		store.put("key0", "replaced".getBytes("UTF-8"));
+		store.failing = false;
+		store.compact();
+		assertFalse(Arrays.asList(dir.list()).containsAll(files));
+		store.close();
+
+		store = new UndeletableStore(dir);
+		assertNull(store.get("removed"));
+		assertEquals("replaced", new String(store.get("key0"), "UTF-8"));
+		assertEquals("value9", new String(store.get("key9"), "UTF-8"));
+		store.close();
+	}
+
+	public void testFailedClearStillRemovesEntries() throws Exception {
+		UndeletableStore store = new UndeletableStore(dir);
+		for (int i = 0; i < 10; i++) {
+			store.put("key" + i, ("value" + i).getBytes("UTF-8"));
+		}
+		store.clear();
+		assertEquals(0, store.size());
+		store.put("after", "value".getBytes("UTF-8"));
+		store.close();
+
+		store = new UndeletableStore(dir);
+		assertEquals(1, store.size());
+		assertNull(store.get("key0"));
+		assertEquals("value", new String(store.get("after"), "UTF-8"));
+		store.close();
+	}
+}
@@ -0,0 +1,244 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import au.edu.educationau.opensource.rome.diskcache.LinkedHashMapFeedCache.CacheInfo;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+
+public class TieredFeedCacheTest extends TestCase {
+	private DiskFeedCache disk;
+
+	/**
+	 * A tier which can be held up until released, or made to fail.
+	 */
+	static class StubTier implements FeedCacheTier {
+		final Map<String, CacheInfo> entries = new ConcurrentHashMap<String, CacheInfo>();
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile boolean blocking;
+		volatile boolean failing;
+
+		private void check() throws IOException {
+			if (blocking) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException("interrupted");
+				}
+			}
+			if (failing) {
+				throw new IOException("tier is down");
+			}
+		}
+
+		public CacheInfo getCacheInfo(URL url) throws IOException {
+			if (failing) {
+				throw new IOException("tier is down");
+			}
+			return entries.get(url.toExternalForm());
+		}
+
+		public void putCacheInfo(URL url, CacheInfo info) throws IOException {
+			check();
+			entries.put(url.toExternalForm(), info);
+		}
+
+		public void removeCacheInfo(URL url) throws IOException {
+			check();
+			entries.remove(url.toExternalForm());
+		}
+	}
+
+	private static SyndFeed feed(String title) {
+		SyndFeed feed = new SyndFeedImpl();
+		feed.setTitle(title);
+		return feed;
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		disk = new DiskFeedCache();
+		disk.setCachePath(CacheUtilsTest.getTempCacheDir());
+	}
+
+	public void testHitsArePromoted() throws Exception {
+		URL url = new URL("http://www.example.com/feed");
+		disk.setFeed(url, new SyndFeedImpl());
+
+		LinkedHashMapFeedCache memory = new LinkedHashMapFeedCache();
+		TieredFeedCache cache = new TieredFeedCache(Arrays.asList(memory, disk));
+		assertNotNull(cache.getFeed(url));
+		assertEquals(1, cache.getTierHits(1));
+		assertNotNull(memory.getCacheInfo(url));
+
+		assertNotNull(cache.getFeed(url));
+		assertEquals(1, cache.getTierHits(0));
+		assertEquals(1, cache.getTierHits(1));
+
+		assertNull(cache.getFeed(new URL("http://www.example.com/other")));
+		assertEquals(1, cache.getMisses());
+	}
+
+	public void testPromotionKeepsAge() throws Exception {
+		URL url = new URL("http://www.example.com/feed");
+		CacheInfo old = new CacheInfo(new SyndFeedImpl());
+		old.setLastCheckedDate(new Date(System.currentTimeMillis() - 60 * 60 * 1000L));
+		disk.putCacheInfo(url, old);
+
+		LinkedHashMapFeedCache memory = new LinkedHashMapFeedCache();
+		TieredFeedCache cache = new TieredFeedCache(Arrays.asList(memory, disk));
+		cache.setMaxStaleMinutes(60);
+		assertNull(cache.getFeed(url));
+		assertEquals(old.getLastCheckedDate(), memory.getCacheInfo(url).getLastCheckedDate());
+		assertNotNull(cache.getStaleFeed(url));
+	}
+
+	public void testWritesReachEveryTier() throws Exception {
+		LinkedHashMapFeedCache memory = new LinkedHashMapFeedCache();
+		TieredFeedCache cache = new TieredFeedCache(Arrays.asList(memory, disk));
+		cache.setWriteBehind(true);
+		URL url = new URL("http://www.example.com/feed");
+		cache.setFeed(url, new SyndFeedImpl());
+		assertNotNull(memory.getCacheInfo(url));
+
+		long end = System.currentTimeMillis() + 5000;
+		while (cache.getTierWrites(1) == 0 && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertNotNull(disk.getCacheInfo(url));
+		cache.shutdown();
+	}
+
+	public void testWriteBehindKeepsLatestVersionWhenSaturated() throws Exception {
+		StubTier lower = new StubTier();
+		lower.blocking = true;
+		final TieredFeedCache cache = new TieredFeedCache(Arrays.asList(new LinkedHashMapFeedCache(), lower));
+		cache.setMaxPendingWrites(2);
+		cache.setWriteBehind(true);
+		final URL url = new URL("http://www.example.com/feed");
+
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 1; i <= 20; i++) {
+						cache.setFeed(url, feed("v" + i));
+						cache.setFeed(new URL("http://www.example.com/other/" + i), feed("other"));
+					}
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+
+		// with the lower tier held up the queue fills, and the caller waits rather than writing
+		// to the lower tier itself, ahead of older changes
+		long end = System.currentTimeMillis() + 5000;
+		while ((writer.getState() != Thread.State.WAITING || cache.getPendingWrites() < 4) && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		try {
+			assertEquals(Thread.State.WAITING, writer.getState());
+			// one being written, two queued, and the caller's waiting for a place in the queue
+			assertEquals(4, cache.getPendingWrites());
+			assertTrue(lower.entries.isEmpty());
+		} finally {
+			lower.release.countDown();
+		}
+		writer.join();
+		cache.shutdown();
+		assertEquals(0, cache.getPendingWrites());
+		assertEquals("v20", lower.entries.get(url.toExternalForm()).getFeed().getTitle());
+		assertEquals(21, lower.entries.size());
+	}
+
+	public void testWritesDuringShutdownAreNotOverwritten() throws Exception {
+		final StubTier lower = new StubTier();
+		final TieredFeedCache cache = new TieredFeedCache(Arrays.asList(new LinkedHashMapFeedCache(), lower));
+		int running = WriteBehindQueue.getRunningQueues();
+		cache.setWriteBehind(true);
+		disk.setWriteBehind(true);
+		assertEquals(running + 2, WriteBehindQueue.getRunningQueues());
+
+		// each thread writes ever newer versions of its own feed while write behind is turned off
+		final URL[] urls = new URL[4];
+		final int versions = 300;
+		Thread[] threads = new Thread[urls.length];
+		for (int i = 0; i < urls.length; i++) {
+			urls[i] = new URL("http://www.example.com/feed/" + i);
+			final URL url = urls[i];
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int version = 0; version < versions; version++) {
+						cache.setFeed(url, feed(Integer.toString(version)));
+					}
+				}
+			};
+			threads[i].start();
+		}
+		Thread.sleep(5);
+		cache.setWriteBehind(false);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, cache.getPendingWrites());
+		for (URL url : urls) {
+			assertEquals(Integer.toString(versions - 1), lower.entries.get(url.toExternalForm()).getFeed().getTitle());
+			assertEquals(Integer.toString(versions - 1), cache.getFeed(url).getTitle());
+		}
+		disk.shutdown();
+		assertEquals(running, WriteBehindQueue.getRunningQueues());
+	}
+
+	public void testQueuedRemoveDoesNotUndoLaterWrite() throws Exception {
+		StubTier lower = new StubTier();
+		lower.blocking = true;
+		TieredFeedCache cache = new TieredFeedCache(Arrays.asList(new LinkedHashMapFeedCache(), lower));
+		cache.setTransientErrorTtlMinutes(0);
+		cache.setMaxStaleMinutes(0);
+		cache.setWriteBehind(true);
+		URL url = new URL("http://www.example.com/feed");
+
+		cache.setFeed(new URL("http://www.example.com/first"), feed("first"));
+		cache.setFeedError(url, "timed out", FeedErrorType.TRANSIENT);
+		// the error has expired, so its removal is queued
+		assertNull(cache.getFeed(url));
+		cache.setFeed(url, feed("fresh"));
+		lower.release.countDown();
+		assertEquals("fresh", cache.getFeed(url).getTitle());
+		cache.shutdown();
+		assertEquals("fresh", lower.entries.get(url.toExternalForm()).getFeed().getTitle());
+	}
+
+	public void testFailingTierIsSkipped() throws Exception {
+		StubTier broken = new StubTier();
+		broken.failing = true;
+		LinkedHashMapFeedCache memory = new LinkedHashMapFeedCache();
+		TieredFeedCache cache = new TieredFeedCache(Arrays.<FeedCacheTier> asList(memory, broken, disk));
+		URL url = new URL("http://www.example.com/feed");
+		disk.setFeed(url, feed("on disk"));
+
+		// reads fall through the broken tier
+		assertEquals("on disk", cache.getFeed(url).getTitle());
+		assertEquals(1, cache.getTierHits(2));
+
+		// and writes carry on past it
+		URL other = new URL("http://www.example.com/other");
+		cache.setFeed(other, feed("written"));
+		assertEquals(0, cache.getTierWrites(1));
+		assertEquals(1, cache.getTierWrites(2));
+		assertEquals("written", disk.getCacheInfo(other).getFeed().getTitle());
+	}
+}
@@ -0,0 +1,135 @@
+package au.edu.educationau.opensource.rome.diskcache;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import junit.framework.TestCase;
+
+public class WriteBehindQueueTest extends TestCase {
+
+	/**
+	 * Writes into a map, blocking the first write until released.
+	 */
+	static class MapWriter implements WriteBehindQueue.Writer<Integer> {
+		final Map<String, Integer> written = new ConcurrentHashMap<String, Integer>();
+		final CountDownLatch writing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		public void write(String key, Integer value) throws InterruptedException {
+			writing.countDown();
+			release.await();
+			written.put(key, value);
+		}
+
+		public Integer coalesce(Integer waiting, Integer latest) {
+			return latest;
+		}
+	}
+
+	private StripedReadWriteLock locks;
+	private MapWriter writer;
+	private WriteBehindQueue<Integer> queue;
+
+	@Override
+	protected void setUp() throws Exception {
+		locks = new StripedReadWriteLock(64);
+		writer = new MapWriter();
+		queue = new WriteBehindQueue<Integer>("test-writer", locks, writer);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		writer.release.countDown();
+		queue.shutdown();
+	}
+
+	/**
+	 * @return a key in a different lock stripe to the given one
+	 */
+	private String otherStripe(String key) {
+		for (int i = 0;; i++) {
+			if (locks.forKey("other" + i) != locks.forKey(key)) {
+				return "other" + i;
+			}
+		}
+	}
+
+	public void testLatestVersionIsWritten() throws Exception {
+		assertFalse(queue.queue("a", 1));
+		queue.start();
+		assertTrue(queue.queue("a", 1));
+		writer.writing.await();
+		// written after the one in progress
+		assertTrue(queue.queue("a", 2));
+		assertTrue(queue.queue("a", 3));
+		assertEquals(Integer.valueOf(3), queue.get("a"));
+		writer.release.countDown();
+		queue.flush();
+		assertEquals(Integer.valueOf(3), writer.written.get("a"));
+		assertEquals(0, queue.size());
+	}
+
+	public void testCancelledChangeIsNotWritten() throws Exception {
+		queue.start();
+		String busy = otherStripe("b");
+		queue.queue(busy, 0);
+		writer.writing.await();
+		queue.queue("b", 1);
+
+		// written straight to storage, as a cache does once write behind is off
+		ReentrantReadWriteLock lock = locks.forKey("b");
+		lock.writeLock().lock();
+		try {
+			queue.cancel("b");
+			writer.written.put("b", 2);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		assertNull(queue.get("b"));
+
+		writer.release.countDown();
+		queue.shutdown();
+		assertEquals(Integer.valueOf(2), writer.written.get("b"));
+	}
+
+	public void testShutdownWritesEverything() throws Exception {
+		int running = WriteBehindQueue.getRunningQueues();
+		writer.release.countDown();
+		queue.setMaxPending(2);
+		queue.start();
+		assertEquals(running + 1, WriteBehindQueue.getRunningQueues());
+		try {
+			queue.setMaxPending(5);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		for (int i = 0; i < 20; i++) {
+			queue.queue("key" + i, i);
+		}
+		queue.shutdown();
+		assertFalse(queue.isEnabled());
+		assertEquals(0, queue.size());
+		assertEquals(20, writer.written.size());
+		assertEquals(running, WriteBehindQueue.getRunningQueues());
+		assertFalse(queue.queue("late", 1));
+	}
+
+	public void testDroppedQueueCanBeCollected() throws Exception {
+		writer.release.countDown();
+		WriteBehindQueue<Integer> dropped = new WriteBehindQueue<Integer>("dropped-writer", locks, writer);
+		dropped.start();
+		dropped.queue("a", 1);
+		dropped.flush();
+		WeakReference<WriteBehindQueue<Integer>> ref = new WeakReference<WriteBehindQueue<Integer>>(dropped);
+		dropped = null;
+		for (int i = 0; i < 50 && ref.get() != null; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertNull("still referenced by the writer thread or exit hook", ref.get());
+	}
+}